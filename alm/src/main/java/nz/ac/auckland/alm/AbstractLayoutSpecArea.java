@@ -22,9 +22,14 @@ abstract class AbstractLayoutSpecArea extends TabArea implements ILayoutSpecArea
     // A list of constraints which are removed form the specification when the area is removed.
     final List<Constraint> constraints = new ArrayList<Constraint>();
 
-    protected void invalidateLayoutSpec() {
+    /**
+     * Reports a change of the area to the layout spec.
+     *
+     * @param sizes the affected cached sizes of the layout spec, e.g. LayoutSpec.HORIZONTAL_SIZES
+     */
+    protected void invalidateLayoutSpec(int sizes) {
         if (layoutSpec != null)
-            layoutSpec.invalidateLayout();
+            layoutSpec.invalidateSizes(sizes);
     }
 
     protected void addConstraint(Constraint constraint) {
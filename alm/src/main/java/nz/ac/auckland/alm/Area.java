@@ -150,7 +150,7 @@ public class Area extends AbstractLayoutSpecArea {
 		if (preferredWidthConstraint != null)
 			preferredWidthConstraint.setLeftSide(-1, left, 1, right);
 
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(LayoutSpec.HORIZONTAL_SIZES);
 	}
 
 	private void updateVerticalConstraintVars() {
@@ -164,7 +164,7 @@ public class Area extends AbstractLayoutSpecArea {
 		if (preferredHeightConstraint != null)
 			preferredHeightConstraint.setLeftSide(-1, top, 1, bottom);
 
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(LayoutSpec.VERTICAL_SIZES);
 	}
 
 	/**
@@ -255,10 +255,15 @@ public class Area extends AbstractLayoutSpecArea {
 	public void setMinSize(Size value) {
         minSize = value;
 		Size effectiveSize = addSpacingAndInset(value);
+		int sizes = 0;
+		if (minWidthConstraint.getRightSide() != effectiveSize.getWidth())
+			sizes |= LayoutSpec.HORIZONTAL_SIZES;
+		if (minHeightConstraint.getRightSide() != effectiveSize.getHeight())
+			sizes |= LayoutSpec.VERTICAL_SIZES;
 		minWidthConstraint.setRightSide(effectiveSize.getWidth());
 		minHeightConstraint.setRightSide(effectiveSize.getHeight());
 
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(sizes);
 	}
 
     public void setMinSize(double width, double height) {
@@ -281,6 +286,12 @@ public class Area extends AbstractLayoutSpecArea {
 		Size effectiveSize = null;
 		if (maxSize.getWidth() > 0 || maxSize.getHeight() > 0)
 			effectiveSize = addSpacingAndInset(value);
+		// the min size is calculated with the max sizes in place
+		int sizes = 0;
+		if (isChanging(maxWidthConstraint, maxSize.getWidth(), effectiveSize, true))
+			sizes |= LayoutSpec.HORIZONTAL_SIZES;
+		if (isChanging(maxHeightConstraint, maxSize.getHeight(), effectiveSize, false))
+			sizes |= LayoutSpec.VERTICAL_SIZES;
 
 		if (maxSize.getWidth() > 0) {
 			if (maxWidthConstraint == null) {
@@ -304,7 +315,7 @@ public class Area extends AbstractLayoutSpecArea {
 			maxHeightConstraint = null;
 		}
 
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(sizes);
 	}
 
     public void setMaxSize(double width, double height) {
@@ -330,6 +341,12 @@ public class Area extends AbstractLayoutSpecArea {
 		Size effectiveSize = null;
 		if (preferredSize.getWidth() > 0 || preferredSize.getHeight() > 0)
 			effectiveSize = addSpacingAndInset(value);
+		// the min size does not depend on the preferred sizes
+		int sizes = 0;
+		if (isChanging(preferredWidthConstraint, preferredSize.getWidth(), effectiveSize, true))
+			sizes |= LayoutSpec.PREFERRED_WIDTH;
+		if (isChanging(preferredHeightConstraint, preferredSize.getHeight(), effectiveSize, false))
+			sizes |= LayoutSpec.PREFERRED_HEIGHT;
 
 		if (preferredSize.getWidth() > 0) {
 			if (preferredWidthConstraint == null) {
@@ -354,7 +371,7 @@ public class Area extends AbstractLayoutSpecArea {
 			preferredHeightConstraint = null;
 		}
 
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(sizes);
 	}
 
     public void setPreferredSize(double width, double height) {
@@ -389,7 +406,7 @@ public class Area extends AbstractLayoutSpecArea {
 			preferredHeightConstraint.setPenalty(height);
 		}
 
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(LayoutSpec.PREFERRED_WIDTH | LayoutSpec.PREFERRED_HEIGHT);
 	}
 
 	/**
@@ -414,7 +431,7 @@ public class Area extends AbstractLayoutSpecArea {
 			preferredHeightConstraint.setPenalty(value.getHeight());
 		}
 
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(LayoutSpec.PREFERRED_WIDTH | LayoutSpec.PREFERRED_HEIGHT);
 	}
 
 	/**
@@ -443,7 +460,7 @@ public class Area extends AbstractLayoutSpecArea {
 			aspectRatioConstraint = null;
 		}
 
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(LayoutSpec.ALL_SIZES);
 	}
 
 	/**
@@ -555,7 +572,7 @@ public class Area extends AbstractLayoutSpecArea {
 	public void setLeftInset(int value) {
 		leftInset = value;
 		updateHorizontal();
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(LayoutSpec.HORIZONTAL_SIZES);
 	}
 
 	/**
@@ -571,7 +588,7 @@ public class Area extends AbstractLayoutSpecArea {
 	public void setTopInset(int value) {
 		topInset = value;
 		updateVertical();
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(LayoutSpec.VERTICAL_SIZES);
 	}
 
 	/**
@@ -587,7 +604,7 @@ public class Area extends AbstractLayoutSpecArea {
 	public void setRightInset(int value) {
 		rightInset = value;
 		updateHorizontal();
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(LayoutSpec.HORIZONTAL_SIZES);
 	}
 
 	/**
@@ -603,7 +620,18 @@ public class Area extends AbstractLayoutSpecArea {
 	public void setBottomInset(int value) {
 		bottomInset = value;
 		updateVertical();
-		invalidateLayoutSpec();
+		invalidateLayoutSpec(LayoutSpec.VERTICAL_SIZES);
+	}
+
+	/**
+	 * Checks if an optional size constraint is added, removed or gets a different right side.
+	 */
+	private static boolean isChanging(Constraint constraint, double size, Size effectiveSize, boolean horizontal) {
+		if (constraint == null)
+			return size > 0;
+		if (size <= 0)
+			return true;
+		return constraint.getRightSide() != (horizontal ? effectiveSize.getWidth() : effectiveSize.getHeight());
 	}
 
 	private void updateRightSideHorizontal(Constraint constraint, double rightSide) {
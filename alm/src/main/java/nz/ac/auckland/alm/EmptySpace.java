@@ -66,7 +66,7 @@ public class EmptySpace extends AbstractLayoutSpecArea {
         }
         minWidthConstraint.setLeftSide(-1, left, 1, right);
 
-        invalidateLayoutSpec();
+        invalidateLayoutSpec(LayoutSpec.HORIZONTAL_SIZES);
     }
 
     private void updateVerticalConstraintVars() {
@@ -78,7 +78,7 @@ public class EmptySpace extends AbstractLayoutSpecArea {
         // the respective minimum constraint needs to use the new tab
         minHeightConstraint.setLeftSide(-1, top, 1, bottom);
 
-        invalidateLayoutSpec();
+        invalidateLayoutSpec(LayoutSpec.VERTICAL_SIZES);
     }
 
     public String toString() {
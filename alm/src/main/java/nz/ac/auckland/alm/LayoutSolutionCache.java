@@ -0,0 +1,120 @@
+package nz.ac.auckland.alm;
+
+import nz.ac.auckland.linsolve.ResultType;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * LRU cache of solved layouts, see LayoutSpec.setSolutionCacheCapacity().
+ *
+ * A solution is identified by the structure version of the linear spec and the rounded layout size. The owner has to
+ * clear the cache when anything else that affects the solution changes.
+ */
+class LayoutSolutionCache {
+    static class Key {
+        final long structureVersion;
+        final long width;
+        final long height;
+
+        Key(long structureVersion, double width, double height) {
+            this.structureVersion = structureVersion;
+            this.width = Math.round(width);
+            this.height = Math.round(height);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key))
+                return false;
+            Key key = (Key)object;
+            return structureVersion == key.structureVersion && width == key.width && height == key.height;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (int)(structureVersion ^ (structureVersion >>> 32));
+            hash = 31 * hash + (int)(width ^ (width >>> 32));
+            return 31 * hash + (int)(height ^ (height >>> 32));
+        }
+    }
+
+    static class CachedSolution {
+        final double[] values;
+        final ResultType result;
+
+        CachedSolution(double[] values, ResultType result) {
+            this.values = values;
+            this.result = result;
+        }
+    }
+
+    private int capacity;
+    private long hits = 0;
+    private long misses = 0;
+    private final Map<Key, CachedSolution> entries = new LinkedHashMap<Key, CachedSolution>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CachedSolution> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    public LayoutSolutionCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity < 0)
+            throw new RuntimeException("Capacity must not be negative.");
+        this.capacity = capacity;
+        // the access order iterates from the least recently used entry
+        while (entries.size() > capacity)
+            entries.remove(entries.keySet().iterator().next());
+    }
+
+    /**
+     * Looks up a solution and counts the hit or miss.
+     *
+     * @return the solution or null
+     */
+    public CachedSolution get(Key key) {
+        CachedSolution solution = entries.get(key);
+        if (solution == null)
+            misses++;
+        else
+            hits++;
+        return solution;
+    }
+
+    public void put(Key key, CachedSolution solution) {
+        if (capacity == 0)
+            return;
+        entries.put(key, solution);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void resetCounters() {
+        hits = 0;
+        misses = 0;
+    }
+}
@@ -3,9 +3,15 @@ package nz.ac.auckland.alm;
 import nz.ac.auckland.linsolve.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
@@ -64,14 +70,36 @@ public class LayoutSpec {
 
     // cached layout values
     // need to be invalidated whenever the layout specification is changed
-    Area.Size minSize = Area.UNDEFINED_SIZE;
+    /**
+     * Flags for the cached sizes, see invalidateSizes().
+     */
+    static final int MIN_WIDTH = 1;
+    static final int MIN_HEIGHT = 1 << 1;
+    static final int PREFERRED_WIDTH = 1 << 2;
+    static final int PREFERRED_HEIGHT = 1 << 3;
+    static final int HORIZONTAL_SIZES = MIN_WIDTH | PREFERRED_WIDTH;
+    static final int VERTICAL_SIZES = MIN_HEIGHT | PREFERRED_HEIGHT;
+    static final int ALL_SIZES = HORIZONTAL_SIZES | VERTICAL_SIZES;
+
+    Area.Size minSize = new Area.Size(0, 0);
     Area.Size maxSize = Area.UNDEFINED_SIZE;
-    Area.Size preferredSize = Area.UNDEFINED_SIZE;
+    Area.Size preferredSize = new Area.Size(0, 0);
+    // the parts of minSize and preferredSize that need to be recalculated
+    int invalidSizes = ALL_SIZES;
     // explicit size values
     Area.Size explicitMinSize = Area.UNDEFINED_SIZE;
     Area.Size explicitMaxSize = Area.UNDEFINED_SIZE;
     Area.Size explicitPreferredSize = Area.UNDEFINED_SIZE;
 
+    /**
+     * Calculate the min and preferred size on the tab graph where possible instead of solving the layout, see
+     * TabGraphSizeCalculator.
+     */
+    boolean tabGraphSizesEnabled = true;
+
+    // solved layouts, disabled by default
+    final LayoutSolutionCache solutionCache = new LayoutSolutionCache(0);
+
     /** Creates a new, empty layout specification containing only four tabstops left, right, top, bottom for the layout
      * boundaries. */
     public LayoutSpec() {
@@ -117,6 +145,18 @@ public class LayoutSpec {
         setLeft(0);
         topConstraint = linearSpec.addConstraint(1, this.top, OperatorType.EQ, 0);
         setTop(0);
+
+        linearSpec.addConstraintListener(new LinearSpec.IConstraintListener() {
+            @Override
+            public void onConstraintChanged(Constraint constraint, int change) {
+                // changes of the areas are reported by the areas themselves
+                if (customConstraints.contains(constraint))
+                    invalidateSizes(getAffectedSizes(constraint));
+                // the layout size is part of the key of a cached solution, everything else is not
+                if (constraint != rightConstraint && constraint != bottomConstraint)
+                    solutionCache.clear();
+            }
+        });
     }
 
     public LayoutSpec clone() {
@@ -250,8 +290,11 @@ public class LayoutSpec {
      */
     public void setRight(double right) {
         layoutFrame.right = right;
-        if (rightConstraint == null || !linearSpec.getConstraints().contains(rightConstraint))
-            rightConstraint = linearSpec.addConstraint(1, this.right, OperatorType.EQ, 0);
+        if (rightConstraint == null || !linearSpec.contains(rightConstraint)) {
+            // assign first so that the constraint is known when the linear spec reports it
+            rightConstraint = new Constraint(1, this.right, OperatorType.EQ, 0);
+            linearSpec.addConstraint(rightConstraint);
+        }
 
         rightConstraint.setRightSide(right - rightInset);
     }
@@ -263,8 +306,10 @@ public class LayoutSpec {
      */
     public void setBottom(double bottom) {
         layoutFrame.bottom = bottom;
-        if (bottomConstraint == null || !linearSpec.getConstraints().contains(bottomConstraint))
-            bottomConstraint = linearSpec.addConstraint(1, this.bottom, OperatorType.EQ, 0);
+        if (bottomConstraint == null || !linearSpec.contains(bottomConstraint)) {
+            bottomConstraint = new Constraint(1, this.bottom, OperatorType.EQ, 0);
+            linearSpec.addConstraint(bottomConstraint);
+        }
 
         bottomConstraint.setRightSide(bottom - bottomInset);
     }
@@ -291,9 +336,313 @@ public class LayoutSpec {
 
     /**
      * Solve the linear equation with LinearSpec.
+     *
+     * If the solution cache is enabled, a layout that has been solved for the same size before is restored from the
+     * cache, see setSolutionCacheCapacity().
      */
     public ResultType solve() {
-        return linearSpec.solve();
+        return solve(false, 0);
+    }
+
+    /**
+     * Solves the layout but stops at a deadline, see LinearSpec.solve(long). Interrupted solves are not cached.
+     *
+     * @param deadlineNanos the deadline in System.nanoTime() time
+     */
+    public ResultType solve(long deadlineNanos) {
+        return solve(true, deadlineNanos);
+    }
+
+    private ResultType solve(boolean hasDeadline, long deadlineNanos) {
+        LayoutSolutionCache.Key key = getSolutionCacheKey();
+        if (key != null) {
+            LayoutSolutionCache.CachedSolution solution = solutionCache.get(key);
+            if (solution != null) {
+                applyVariableValues(solution.values);
+                return solution.result;
+            }
+        }
+
+        ResultType result = hasDeadline ? linearSpec.solve(deadlineNanos) : linearSpec.solve();
+        if (key != null && result != ResultType.TIMEOUT && result != ResultType.BESTEFFORT) {
+            // the solver may have reordered the spec
+            key = getSolutionCacheKey();
+            solutionCache.put(key, new LayoutSolutionCache.CachedSolution(getVariableValues(), result));
+        }
+        return result;
+    }
+
+    /**
+     * @return the key of the current layout or null if the layout is not cached
+     */
+    private LayoutSolutionCache.Key getSolutionCacheKey() {
+        if (solutionCache.getCapacity() == 0)
+            return null;
+        if (rightConstraint == null || bottomConstraint == null || !linearSpec.contains(rightConstraint)
+                || !linearSpec.contains(bottomConstraint))
+            return null;
+        // pending changes may clear the cache
+        linearSpec.flushUpdate();
+        return new LayoutSolutionCache.Key(linearSpec.getStructureVersion(), rightConstraint.getRightSide(),
+                bottomConstraint.getRightSide());
+    }
+
+    /**
+     * Enables the cache of solved layouts.
+     *
+     * Solutions are cached per layout size, rounded to whole pixels, and structure of the linear spec; the least
+     * recently used solution is evicted first. Any change of the layout other than its size clears the cache. On a hit
+     * solve() only restores the tab positions.
+     *
+     * @param capacity maximal number of cached solutions, 0 disables the cache
+     */
+    public void setSolutionCacheCapacity(int capacity) {
+        solutionCache.setCapacity(capacity);
+    }
+
+    public int getSolutionCacheCapacity() {
+        return solutionCache.getCapacity();
+    }
+
+    public long getSolutionCacheHits() {
+        return solutionCache.getHits();
+    }
+
+    public long getSolutionCacheMisses() {
+        return solutionCache.getMisses();
+    }
+
+    public void clearSolutionCache() {
+        solutionCache.clear();
+        solutionCache.resetCounters();
+    }
+
+    /**
+     * Creates the solvers of the layout copies that are solved in parallel, see solveForSizes().
+     */
+    public interface ISolverFactory {
+        LinearSolver create();
+    }
+
+    /**
+     * Solves the layout for a list of container sizes.
+     *
+     * The sizes are solved in the order of their width and height, i.e. every solve starts from the solution of the
+     * closest size that has been solved before. Only the right sides of the right and the bottom constraint change
+     * between the solves, so solvers that support warm starts keep their compiled spec and factorization; warm start
+     * is enabled for the duration of the call.
+     *
+     * The layout size and the tab positions are restored afterwards.
+     *
+     * @param sizes the container sizes
+     * @return the tab positions for every size, see applyTabPositions()
+     */
+    public List<double[]> solveForSizes(List<Area.Size> sizes) {
+        Integer[] order = sortSizes(sizes);
+        double[][] results = new double[sizes.size()][];
+
+        double[] oldVariableValues = getVariableValues();
+        double oldRight = layoutFrame.right;
+        double oldBottom = layoutFrame.bottom;
+        boolean hasRight = rightConstraint != null && linearSpec.contains(rightConstraint);
+        boolean hasBottom = bottomConstraint != null && linearSpec.contains(bottomConstraint);
+        setRight(oldRight);
+        setBottom(oldBottom);
+        Variable[] variables = linearSpec.getVariables().toArray(new Variable[linearSpec.getVariables().size()]);
+
+        solveSizes(linearSpec, variables, rightConstraint, bottomConstraint, sizes, order, 0, order.length, results);
+
+        if (hasRight) {
+            setRight(oldRight);
+        } else {
+            linearSpec.removeConstraint(rightConstraint);
+            rightConstraint = null;
+            layoutFrame.right = oldRight;
+        }
+        if (hasBottom) {
+            setBottom(oldBottom);
+        } else {
+            linearSpec.removeConstraint(bottomConstraint);
+            bottomConstraint = null;
+            layoutFrame.bottom = oldBottom;
+        }
+        applyVariableValues(oldVariableValues);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Solves the layout for a list of container sizes in parallel.
+     *
+     * The sorted sizes are split into nTasks ranges of neighbouring sizes. Every range is solved on an independent copy
+     * of the linear spec, like in solveForSizes(List). The layout itself is not changed. The copies share the dynamic
+     * right sides of the constraints, i.e. these are read from the tasks concurrently.
+     *
+     * @param sizes the container sizes
+     * @param executor executes the tasks
+     * @param nTasks number of copies that are solved in parallel
+     * @param solverFactory creates the solver of every copy
+     * @return the tab positions for every size, see applyTabPositions()
+     */
+    public List<double[]> solveForSizes(List<Area.Size> sizes, ExecutorService executor, int nTasks,
+                                        ISolverFactory solverFactory) {
+        if (nTasks < 1)
+            throw new RuntimeException("At least one task is needed.");
+        final Integer[] order = sortSizes(sizes);
+        final double[][] results = new double[sizes.size()][];
+        final List<Area.Size> sizeList = sizes;
+
+        // the copies are created upfront so that the tasks only read the copies
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        final int nSizes = order.length;
+        for (int task = 0; task < nTasks && task < nSizes; task++) {
+            final int from = task * nSizes / nTasks;
+            final int to = (task + 1) * nSizes / nTasks;
+            final Variable[] variables = new Variable[linearSpec.getVariables().size()];
+            final LinearSpec copy = copyLinearSpec(solverFactory.create(), variables);
+            final Constraint copiedRightConstraint = getCopiedFrameConstraint(copy, variables, rightConstraint,
+                    right);
+            final Constraint copiedBottomConstraint = getCopiedFrameConstraint(copy, variables, bottomConstraint,
+                    bottom);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    solveSizes(copy, variables, copiedRightConstraint, copiedBottomConstraint, sizeList, order, from,
+                            to, results);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Sets the tab positions, e.g. one of the results of solveForSizes().
+     */
+    public void applyTabPositions(double[] tabPositions) {
+        applyVariableValues(tabPositions);
+    }
+
+    /**
+     * Gets the position of a tab from the tab positions returned by solveForSizes().
+     */
+    public double getTabPosition(double[] tabPositions, Variable tab) {
+        return tabPositions[linearSpec.indexOf(tab)];
+    }
+
+    /**
+     * @return the indices of the sizes sorted by width and height
+     */
+    static private Integer[] sortSizes(final List<Area.Size> sizes) {
+        Integer[] order = new Integer[sizes.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer index1, Integer index2) {
+                Area.Size size1 = sizes.get(index1);
+                Area.Size size2 = sizes.get(index2);
+                if (size1.getWidth() != size2.getWidth())
+                    return Double.compare(size1.getWidth(), size2.getWidth());
+                return Double.compare(size1.getHeight(), size2.getHeight());
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Solves the sizes order[from] to order[to - 1] one after another.
+     */
+    private void solveSizes(LinearSpec spec, Variable[] variables, Constraint rightConstraint,
+                            Constraint bottomConstraint, List<Area.Size> sizes, Integer[] order, int from, int to,
+                            double[][] results) {
+        LinearSolver solver = spec.getSolver();
+        boolean warmStartEnabled = false;
+        if (solver instanceof AbstractLinearSolver) {
+            warmStartEnabled = ((AbstractLinearSolver)solver).isWarmStartEnabled();
+            ((AbstractLinearSolver)solver).setWarmStartEnabled(true);
+        }
+        try {
+            for (int i = from; i < to; i++) {
+                Area.Size size = sizes.get(order[i]);
+                rightConstraint.setRightSide(layoutFrame.left + size.getWidth() - rightInset);
+                bottomConstraint.setRightSide(layoutFrame.top + size.getHeight() - bottomInset);
+                spec.solve();
+                double[] tabPositions = new double[variables.length];
+                for (int j = 0; j < variables.length; j++)
+                    tabPositions[j] = variables[j].getValue();
+                results[order[i]] = tabPositions;
+            }
+        } finally {
+            if (solver instanceof AbstractLinearSolver)
+                ((AbstractLinearSolver)solver).setWarmStartEnabled(warmStartEnabled);
+        }
+    }
+
+    /**
+     * Gets the copy of the right or bottom constraint, the constraint is added to the copy if the layout has none.
+     */
+    private Constraint getCopiedFrameConstraint(LinearSpec copy, Variable[] variables, Constraint constraint,
+                                                Variable tab) {
+        if (constraint != null && linearSpec.contains(constraint))
+            return copy.getConstraints().get(linearSpec.indexOf(constraint));
+        int index = linearSpec.indexOf(tab);
+        Variable copiedTab = index >= 0 ? variables[index] : new Variable(tab.getName());
+        return copy.addConstraint(1, copiedTab, OperatorType.EQ, 0);
+    }
+
+    /**
+     * Copies the linear spec, the constraints of the copy have the same order. Dynamic right sides are shared with the
+     * copy.
+     *
+     * @param solver the solver of the copy
+     * @param variables is filled with the copies of the variables of the linear spec
+     */
+    private LinearSpec copyLinearSpec(LinearSolver solver, Variable[] variables) {
+        LinearSpec copy = new LinearSpec(solver);
+        copy.setTolerance(linearSpec.getTolerance());
+        Map<Variable, Variable> oldToCopyVariables = new HashMap<Variable, Variable>();
+        for (int i = 0; i < variables.length; i++) {
+            Variable variable = linearSpec.getVariables().get(i);
+            variables[i] = new Variable(variable.getName());
+            variables[i].setValue(variable.getValue());
+            oldToCopyVariables.put(variable, variables[i]);
+        }
+        for (Constraint constraint : linearSpec.getConstraints()) {
+            Summand[] oldSummands = constraint.getLeftSide();
+            Summand[] summands = new Summand[oldSummands.length];
+            for (int i = 0; i < oldSummands.length; i++)
+                summands[i] = new Summand(oldSummands[i].getCoeff(), oldToCopyVariables.get(oldSummands[i].getVar()));
+            Constraint copiedConstraint = copy.addConstraint(summands, constraint.getOp(), constraint.getRightSide(),
+                    constraint.getPenalty());
+            copiedConstraint.setEnabled(constraint.isEnabled());
+            if (constraint.hasDynamicRightSide())
+                copiedConstraint.setRightSide(constraint.getDynamicRightSide());
+        }
+        return copy;
+    }
+
+    /**
+     * Starts a batch of changes, e.g. while building a layout. The solver and the size caches get the constraint
+     * changes once at the matching endUpdate(), see LinearSpec.beginUpdate(). Updates can be nested.
+     */
+    public void beginUpdate() {
+        linearSpec.beginUpdate();
+    }
+
+    /**
+     * Ends a batch of changes, see beginUpdate().
+     */
+    public void endUpdate() {
+        linearSpec.endUpdate();
     }
 
     /**
@@ -302,9 +651,33 @@ public class LayoutSpec {
      * so they need be recalculated when accessing them next time.
      */
     void invalidateLayout() {
-        minSize = Area.UNDEFINED_SIZE;
+        invalidateSizes(ALL_SIZES);
         maxSize = Area.UNDEFINED_SIZE;
-        preferredSize = Area.UNDEFINED_SIZE;
+    }
+
+    /**
+     * Invalidates parts of the cached min and preferred size.
+     *
+     * @param sizes the affected sizes, e.g. MIN_WIDTH | PREFERRED_WIDTH
+     */
+    void invalidateSizes(int sizes) {
+        invalidSizes |= sizes;
+    }
+
+    /**
+     * Gets the cached sizes that depend on a constraint, i.e. the horizontal sizes for a constraint on x-tabs only.
+     */
+    static int getAffectedSizes(Constraint constraint) {
+        int sizes = 0;
+        for (Summand summand : constraint.getLeftSide()) {
+            if (summand.getVar() instanceof XTab)
+                sizes |= HORIZONTAL_SIZES;
+            else if (summand.getVar() instanceof YTab)
+                sizes |= VERTICAL_SIZES;
+            else
+                return ALL_SIZES;
+        }
+        return sizes;
     }
 
     private Area.Size composeSize(Area.Size explicitSize, Area.Size size) {
@@ -323,15 +696,25 @@ public class LayoutSpec {
 
     /**
      * Get the cached minimal size of the GUI, if there was none it will be calculated.
-     * To invalidate the cache use invalidateLayout().
+     * The cache is invalidated when the areas, the custom constraints, the insets or the spacing change.
      *
      * @return Size defining the minimal size of the GUI
      */
     public Area.Size getMinSize() {
         if (explicitMinSize.getWidth() != Area.Size.UNDEFINED && explicitMinSize.getHeight() != Area.Size.UNDEFINED)
             return explicitMinSize;
-        if (minSize == Area.UNDEFINED_SIZE)
-            minSize = calculateMinSize();
+        // custom constraint changes of a running update
+        linearSpec.flushUpdate();
+        boolean width = (invalidSizes & MIN_WIDTH) != 0;
+        boolean height = (invalidSizes & MIN_HEIGHT) != 0;
+        if (width || height) {
+            Area.Size size = calculateMinSize(width, height);
+            if (width)
+                minSize.setWidth(size.getWidth());
+            if (height)
+                minSize.setHeight(size.getHeight());
+            invalidSizes &= ~(MIN_WIDTH | MIN_HEIGHT);
+        }
         return composeSize(explicitMinSize, minSize);
     }
 
@@ -351,7 +734,7 @@ public class LayoutSpec {
 
     /**
      * Get the cached preferred size of the GUI, if there was none it will be calculated.
-     * To invalidate the cache use invalidateLayout().
+     * The cache is invalidated when the areas, the custom constraints, the insets or the spacing change.
      *
      * @return Size defining the preferred size of the GUI
      */
@@ -359,8 +742,18 @@ public class LayoutSpec {
         if (explicitPreferredSize.getWidth() != Area.Size.UNDEFINED
                 && explicitPreferredSize.getHeight() != Area.Size.UNDEFINED)
             return explicitPreferredSize;
-        if (preferredSize == Area.UNDEFINED_SIZE)
-            preferredSize = calculatePreferredSize();
+        // custom constraint changes of a running update
+        linearSpec.flushUpdate();
+        boolean width = (invalidSizes & PREFERRED_WIDTH) != 0;
+        boolean height = (invalidSizes & PREFERRED_HEIGHT) != 0;
+        if (width || height) {
+            Area.Size size = calculatePreferredSize(width, height);
+            if (width)
+                preferredSize.setWidth(size.getWidth());
+            if (height)
+                preferredSize.setHeight(size.getHeight());
+            invalidSizes &= ~(PREFERRED_WIDTH | PREFERRED_HEIGHT);
+        }
         return composeSize(explicitPreferredSize, preferredSize);
     }
 
@@ -414,34 +807,87 @@ public class LayoutSpec {
      * If the specifications have not changed use getMinSize to get an
      * cached value for the minimal size and save some CPU cycles.
      *
-     * @return Size defining the minimal size of the GUI
+     * @param horizontal if the width is needed
+     * @param vertical if the height is needed
+     * @return Size defining the minimal size of the GUI, only the needed parts are valid
      */
-    private Area.Size calculateMinSize() {
-        double[] oldVariableValues = getVariableValues();
-
-        //Store the preferred sizes and temporarily set the preferred size to the min size.
-        Area.Size[] store = new Area.Size[areas.size()];
-        for (int i = 0; i < areas.size(); i++) {
-            if (!(areas.get(i) instanceof Area))
-                continue;
-            Area a = (Area)areas.get(i);
-            store[i] = a.getPreferredSize();
-            a.setPreferredSize(a.getMinSize());
+    private Area.Size calculateMinSize(boolean horizontal, boolean vertical) {
+        TabGraphSizeCalculator sizeCalculator = new TabGraphSizeCalculator(this);
+        double width = tabGraphSizesEnabled && horizontal ? sizeCalculator.calculateMinSize(true) : Double.NaN;
+        double height = tabGraphSizesEnabled && vertical ? sizeCalculator.calculateMinSize(false) : Double.NaN;
+        if ((!horizontal || !Double.isNaN(width)) && (!vertical || !Double.isNaN(height)))
+            return new Area.Size(horizontal ? (int)Math.round(width) : 0, vertical ? (int)Math.round(height) : 0);
+
+        // Calculate the preferred container size with the min sizes set as preferred sizes. This is done on a copy of
+        // the linear spec, i.e. the areas and the linear spec of the layout are not changed. The copy borrows the
+        // solver of the layout.
+        LinearSolver solver = linearSpec.getSolver();
+        Variable[] variables = new Variable[linearSpec.getVariables().size()];
+        Area.Size min;
+        try {
+            LinearSpec copy = copyLinearSpec(solver, variables);
+            // the copied constraints in the order of the constraints of the linear spec
+            List<Constraint> copiedConstraints = new ArrayList<Constraint>(copy.getConstraints());
+            for (IArea area : areas) {
+                if (!(area instanceof Area))
+                    continue;
+                Area a = (Area)area;
+                setCopiedPreferredSize(copy, copiedConstraints, a.preferredWidthConstraint, a.minWidthConstraint,
+                        a.getMinSize().getWidth(), a.getShrinkPenaltyWidth());
+                setCopiedPreferredSize(copy, copiedConstraints, a.preferredHeightConstraint, a.minHeightConstraint,
+                        a.getMinSize().getHeight(), a.getShrinkPenaltyHeight());
+            }
+            min = solvePreferredSize(copy, copiedConstraints, variables);
+        } finally {
+            linearSpec.setSolver(solver);
         }
+        if (!Double.isNaN(width))
+            min.width = (int)Math.round(width);
+        if (!Double.isNaN(height))
+            min.height = (int)Math.round(height);
+        return min;
+    }
 
-        //Calculate the preferred container size with the min sizes set as preferred sizes.
-        Area.Size min = calculatePreferredSize();
-
-        //Restore the original preferredSizeValues.
-        for (int i = 0; i < areas.size(); i++) {
-            if (!(areas.get(i) instanceof Area))
-                continue;
-            Area a = (Area)areas.get(i);
-            a.setPreferredSize(store[i]);
+    /**
+     * Sets the preferred size of an area in a copy of the linear spec, like Area.setPreferredSize() does in the linear
+     * spec.
+     *
+     * @param copiedConstraints the copied constraints in the order of the constraints of the linear spec
+     * @param preferredConstraint the preferred size constraint of the area, may be null
+     * @param minConstraint the min size constraint of the area, its right side is used as preferred size
+     */
+    private void setCopiedPreferredSize(LinearSpec copy, List<Constraint> copiedConstraints,
+                                        Constraint preferredConstraint, Constraint minConstraint, double size,
+                                        double shrinkPenalty) {
+        Constraint copiedPreferredConstraint = getCopiedConstraint(copiedConstraints, preferredConstraint);
+        if (size <= 0) {
+            if (copiedPreferredConstraint != null)
+                copy.removeConstraint(copiedPreferredConstraint);
+            return;
+        }
+        Constraint copiedMinConstraint = getCopiedConstraint(copiedConstraints, minConstraint);
+        if (copiedMinConstraint == null)
+            return;
+        if (copiedPreferredConstraint != null) {
+            copiedPreferredConstraint.setRightSide(copiedMinConstraint.getRightSide());
+            return;
         }
+        Summand[] minSummands = copiedMinConstraint.getLeftSide();
+        Summand[] summands = new Summand[minSummands.length];
+        for (int i = 0; i < minSummands.length; i++)
+            summands[i] = new Summand(minSummands[i].getCoeff(), minSummands[i].getVar());
+        copy.addConstraint(summands, OperatorType.EQ, copiedMinConstraint.getRightSide(), shrinkPenalty);
+    }
 
-        applyVariableValues(oldVariableValues);
-        return min;
+    /**
+     * Gets the copy of a constraint of the linear spec.
+     *
+     * @param copiedConstraints the copied constraints in the order of the constraints of the linear spec
+     * @return the copy or null if the constraint is not part of the linear spec
+     */
+    private Constraint getCopiedConstraint(List<Constraint> copiedConstraints, Constraint constraint) {
+        int index = linearSpec.indexOf(constraint);
+        return index >= 0 ? copiedConstraints.get(index) : null;
     }
 
     /**
@@ -466,9 +912,25 @@ public class LayoutSpec {
      * for the preferred size and save some CPU cycles.
      * TODO - It returns the current size.
      *
+     * @param horizontal if the width is needed
+     * @param vertical if the height is needed
+     * @return Size defining the preferred size of the GUI, only the needed parts are valid
+     */
+    private Area.Size calculatePreferredSize(boolean horizontal, boolean vertical) {
+        TabGraphSizeCalculator sizeCalculator = new TabGraphSizeCalculator(this);
+        double width = tabGraphSizesEnabled && horizontal ? sizeCalculator.calculatePreferredSize(true) : Double.NaN;
+        double height = tabGraphSizesEnabled && vertical ? sizeCalculator.calculatePreferredSize(false) : Double.NaN;
+        if ((!horizontal || !Double.isNaN(width)) && (!vertical || !Double.isNaN(height)))
+            return new Area.Size(horizontal ? (int)Math.round(width) : 0, vertical ? (int)Math.round(height) : 0);
+        return solvePreferredSize();
+    }
+
+    /**
+     * Calculate the preferred size of the GUI by solving the layout without a fixed right and bottom tab.
+     *
      * @return Size defining the preferred size of the GUI
      */
-    private Area.Size calculatePreferredSize() {
+    private Area.Size solvePreferredSize() {
         double[] oldVariableValues = getVariableValues();
 
         //Store the current constraint values and reset GUI edge tabs and constraints to default.
@@ -518,6 +980,44 @@ public class LayoutSpec {
         return prefSize;
     }
 
+    /**
+     * Calculate the preferred size of the GUI by solving a copy of the linear spec without a fixed right and bottom
+     * tab, like solvePreferredSize().
+     *
+     * @param copiedConstraints the copied constraints in the order of the constraints of the linear spec
+     * @param variables the copies of the variables of the linear spec
+     * @return Size defining the preferred size of the GUI
+     */
+    private Area.Size solvePreferredSize(LinearSpec copy, List<Constraint> copiedConstraints, Variable[] variables) {
+        getCopiedConstraint(copiedConstraints, leftConstraint).setRightSide(0);
+        getCopiedConstraint(copiedConstraints, topConstraint).setRightSide(0);
+        Constraint copiedRightConstraint = getCopiedConstraint(copiedConstraints, rightConstraint);
+        if (copiedRightConstraint != null)
+            copy.removeConstraint(copiedRightConstraint);
+        Constraint copiedBottomConstraint = getCopiedConstraint(copiedConstraints, bottomConstraint);
+        if (copiedBottomConstraint != null)
+            copy.removeConstraint(copiedBottomConstraint);
+        for (int i = 0; i < variables.length; i++) {
+            if (linearSpec.getVariables().get(i) == right || linearSpec.getVariables().get(i) == bottom)
+                variables[i].setValue(Double.NaN);
+        }
+
+        copy.solve();
+
+        Area.Size prefSize = new Area.Size(0, 0);
+        prefSize.width = (int) Math.round(getCopiedValue(variables, right) - getCopiedValue(variables, left));
+        prefSize.height = (int) Math.round(getCopiedValue(variables, bottom) - getCopiedValue(variables, top));
+        return prefSize;
+    }
+
+    /**
+     * Gets the value of the copy of a variable, NaN if the variable is not part of the linear spec.
+     */
+    private double getCopiedValue(Variable[] variables, Variable variable) {
+        int index = linearSpec.indexOf(variable);
+        return index >= 0 ? variables[index].getValue() : Double.NaN;
+    }
+
     /**
      * Adds a new area to the specification, automatically setting preferred
      * size constraints.
@@ -541,6 +1041,7 @@ public class LayoutSpec {
     }
 
     public void removeArea(ILayoutSpecArea area) {
+        invalidateLayout();
         getAreas().remove(area);
         area.detachedFromLinearSpec(this);
     }
@@ -552,6 +1053,7 @@ public class LayoutSpec {
         for (Constraint constraint : customConstraints)
             constraint.remove();
         customConstraints.clear();
+        invalidateLayout();
 
         while (areas.size() > 0)
             removeArea((ILayoutSpecArea)areas.get(0));
@@ -613,6 +1115,7 @@ public class LayoutSpec {
     public void setLeftInset(float leftInset) {
         this.leftInset = leftInset;
         setLeft(layoutFrame.left);
+        invalidateSizes(HORIZONTAL_SIZES);
     }
 
     public float getTopInset() {
@@ -622,6 +1125,7 @@ public class LayoutSpec {
     public void setTopInset(float topInset) {
         this.topInset = topInset;
         setTop(layoutFrame.top);
+        invalidateSizes(VERTICAL_SIZES);
     }
 
     public float getRightInset() {
@@ -631,6 +1135,7 @@ public class LayoutSpec {
     public void setRightInset(float rightInset) {
         this.rightInset = rightInset;
         setRight(layoutFrame.right);
+        invalidateSizes(HORIZONTAL_SIZES);
     }
 
     public float getBottomInset() {
@@ -640,6 +1145,7 @@ public class LayoutSpec {
     public void setBottomInset(float bottomInset) {
         this.bottomInset = bottomInset;
         setBottom(layoutFrame.bottom);
+        invalidateSizes(VERTICAL_SIZES);
     }
 
     public float getHorizontalSpacing() {
@@ -648,6 +1154,7 @@ public class LayoutSpec {
 
     public void setHorizontalSpacing(float horizontalSpacing) {
         this.horizontalSpacing = horizontalSpacing;
+        invalidateSizes(HORIZONTAL_SIZES);
     }
 
     public float getVerticalSpacing() {
@@ -656,6 +1163,7 @@ public class LayoutSpec {
 
     public void setVerticalSpacing(float verticalSpacing) {
         this.verticalSpacing = verticalSpacing;
+        invalidateSizes(VERTICAL_SIZES);
     }
 
     public void setSpacing(float spacing) {
@@ -674,6 +1182,7 @@ public class LayoutSpec {
     public Constraint addConstraint(Summand[] leftSide, OperatorType operator, double rightSide) {
         Constraint constraint = linearSpec.addConstraint(leftSide, operator, rightSide, Constraint.MAX_PENALTY);
         customConstraints.add(constraint);
+        invalidateSizes(getAffectedSizes(constraint));
         return constraint;
     }
 
@@ -689,6 +1198,7 @@ public class LayoutSpec {
     public Constraint addConstraint(Summand[] leftSide, OperatorType operator, double rightSide, double penalty) {
         Constraint constraint = linearSpec.addConstraint(leftSide, operator, rightSide, penalty);
         customConstraints.add(constraint);
+        invalidateSizes(getAffectedSizes(constraint));
         return constraint;
     }
 
@@ -696,6 +1206,7 @@ public class LayoutSpec {
         if (!customConstraints.remove(constraint))
             return false;
         linearSpec.removeConstraint(constraint);
+        invalidateSizes(getAffectedSizes(constraint));
         return true;
     }
 
@@ -0,0 +1,301 @@
+package nz.ac.auckland.alm;
+
+import nz.ac.auckland.linsolve.Constraint;
+import nz.ac.auckland.linsolve.OperatorType;
+import nz.ac.auckland.linsolve.Summand;
+import nz.ac.auckland.linsolve.Variable;
+
+import java.util.*;
+
+
+/**
+ * Calculates the min and preferred size of a layout without a solver.
+ *
+ * The constraints of a layout are mostly of the form tab2 - tab1 >= size, i.e. edges of a directed graph over the
+ * x-tabs or the y-tabs. The min size is the longest path from the left (top) to the right (bottom) tab. The preferred
+ * size is only calculated if the preferred sizes of the areas are consistent, i.e. if there is a layout in which all
+ * constraints are met exactly.
+ *
+ * If a constraint does not fit into the graph, e.g. an aspect ratio, Double.NaN is returned and the size has to be
+ * calculated with the solver. The linear spec is never modified.
+ */
+class TabGraphSizeCalculator {
+    static class Edge {
+        final int from;
+        final int to;
+        final double length;
+
+        Edge(int from, int to, double length) {
+            this.from = from;
+            this.to = to;
+            this.length = length;
+        }
+    }
+
+    final private LayoutSpec layoutSpec;
+    final private Set<Constraint> preferredConstraints = new HashSet<Constraint>();
+
+    public TabGraphSizeCalculator(LayoutSpec layoutSpec) {
+        this.layoutSpec = layoutSpec;
+
+        for (IArea layoutSpecArea : layoutSpec.getAreas()) {
+            if (!(layoutSpecArea instanceof Area))
+                continue;
+            Area area = (Area)layoutSpecArea;
+            if (area.preferredWidthConstraint != null)
+                preferredConstraints.add(area.preferredWidthConstraint);
+            if (area.preferredHeightConstraint != null)
+                preferredConstraints.add(area.preferredHeightConstraint);
+        }
+    }
+
+    private boolean isFrameConstraint(Constraint constraint) {
+        return constraint == layoutSpec.leftConstraint || constraint == layoutSpec.topConstraint
+                || constraint == layoutSpec.rightConstraint || constraint == layoutSpec.bottomConstraint;
+    }
+
+    private boolean isTab(Variable variable, boolean horizontal) {
+        if (horizontal)
+            return variable instanceof XTab;
+        return variable instanceof YTab;
+    }
+
+    private boolean isOtherTab(Variable variable, boolean horizontal) {
+        return isTab(variable, !horizontal);
+    }
+
+    /**
+     * Gets the tab differences of a constraint.
+     *
+     * @return {from, to} for a constraint to - from (op) rightSide, null if the constraint is not a difference of two
+     * tabs of the given orientation
+     */
+    private Variable[] getDifference(Constraint constraint, boolean horizontal) {
+        Summand[] summands = constraint.getLeftSide();
+        if (summands.length != 2)
+            return null;
+        Summand first = summands[0];
+        Summand second = summands[1];
+        if (first.getCoeff() != -second.getCoeff() || Math.abs(first.getCoeff()) != 1)
+            return null;
+        if (!isTab(first.getVar(), horizontal) || !isTab(second.getVar(), horizontal))
+            return null;
+        if (first.getCoeff() < 0)
+            return new Variable[] {first.getVar(), second.getVar()};
+        return new Variable[] {second.getVar(), first.getVar()};
+    }
+
+    /**
+     * Checks if a constraint only involves tabs of the other orientation.
+     *
+     * @return true if the constraint is irrelevant for the given orientation, false if it is relevant or unknown
+     */
+    private boolean isOtherOrientation(Constraint constraint, boolean horizontal) {
+        for (Summand summand : constraint.getLeftSide()) {
+            if (!isOtherTab(summand.getVar(), horizontal))
+                return false;
+        }
+        return true;
+    }
+
+    private int getIndex(Map<Variable, Integer> tabs, Variable tab) {
+        Integer index = tabs.get(tab);
+        if (index != null)
+            return index;
+        index = tabs.size();
+        tabs.put(tab, index);
+        return index;
+    }
+
+    /**
+     * Calculates the min size in one orientation.
+     *
+     * @param horizontal true for the width, false for the height
+     * @return the min size or Double.NaN if the constraints can't be handled
+     */
+    public double calculateMinSize(boolean horizontal) {
+        Map<Variable, Integer> tabs = new HashMap<Variable, Integer>();
+        Variable start = horizontal ? layoutSpec.getLeft() : layoutSpec.getTop();
+        Variable end = horizontal ? layoutSpec.getRight() : layoutSpec.getBottom();
+        getIndex(tabs, start);
+        List<Edge> edges = new ArrayList<Edge>();
+        for (Constraint constraint : layoutSpec.linearSpec.getConstraints()) {
+            if (!constraint.isEnabled() || isFrameConstraint(constraint)
+                    || isOtherOrientation(constraint, horizontal))
+                continue;
+            // the preferred sizes are replaced by the min sizes; they only pull the tabs towards the start
+            if (preferredConstraints.contains(constraint))
+                continue;
+
+            Summand[] summands = constraint.getLeftSide();
+            OperatorType op = constraint.getOp();
+            if (summands.length == 1 && isTab(summands[0].getVar(), horizontal) && summands[0].getCoeff() > 0) {
+                // a lower bound relative to the start tab
+                if (constraint.isHard() && op == OperatorType.GE) {
+                    edges.add(new Edge(0, getIndex(tabs, summands[0].getVar()),
+                            constraint.getRightSide() / summands[0].getCoeff()));
+                    continue;
+                }
+                if (!constraint.isHard() && op == OperatorType.LE)
+                    continue;
+                return Double.NaN;
+            }
+
+            Variable[] difference = getDifference(constraint, horizontal);
+            if (difference == null)
+                return Double.NaN;
+            int from = getIndex(tabs, difference[0]);
+            int to = getIndex(tabs, difference[1]);
+            if (constraint.isHard()) {
+                if (op == OperatorType.GE)
+                    edges.add(new Edge(from, to, constraint.getRightSide()));
+                else if (op == OperatorType.LE)
+                    edges.add(new Edge(to, from, -constraint.getRightSide()));
+                else
+                    return Double.NaN;
+            } else if (op != OperatorType.LE) {
+                // soft max sizes only pull towards the start, everything else could push the end tab out
+                return Double.NaN;
+            }
+        }
+        if (!tabs.containsKey(end))
+            return Double.NaN;
+
+        double[] distances = longestPaths(tabs.size(), edges);
+        if (distances == null)
+            return Double.NaN;
+        double size = distances[tabs.get(end)];
+        if (Double.isInfinite(size))
+            return Double.NaN;
+        return Math.max(0, size);
+    }
+
+    /**
+     * Longest paths from tab 0 by topological order.
+     *
+     * @return the distances, -Infinity for unreachable tabs or null if the graph has a cycle
+     */
+    private double[] longestPaths(int nTabs, List<Edge> edges) {
+        int[] inDegrees = new int[nTabs];
+        List<List<Edge>> outEdges = new ArrayList<List<Edge>>(nTabs);
+        for (int i = 0; i < nTabs; i++)
+            outEdges.add(new ArrayList<Edge>());
+        for (Edge edge : edges) {
+            outEdges.get(edge.from).add(edge);
+            inDegrees[edge.to]++;
+        }
+
+        double[] distances = new double[nTabs];
+        Arrays.fill(distances, Double.NEGATIVE_INFINITY);
+        distances[0] = 0;
+        int[] queue = new int[nTabs];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < nTabs; i++) {
+            if (inDegrees[i] == 0)
+                queue[tail++] = i;
+        }
+        while (head < tail) {
+            int tab = queue[head++];
+            for (Edge edge : outEdges.get(tab)) {
+                if (distances[tab] != Double.NEGATIVE_INFINITY)
+                    distances[edge.to] = Math.max(distances[edge.to], distances[tab] + edge.length);
+                inDegrees[edge.to]--;
+                if (inDegrees[edge.to] == 0)
+                    queue[tail++] = edge.to;
+            }
+        }
+        if (tail != nTabs)
+            return null;
+        return distances;
+    }
+
+    /**
+     * Calculates the preferred size in one orientation.
+     *
+     * The tab positions are propagated along the preferred size and equality constraints. This only succeeds if all
+     * tabs are reached without contradiction and if all other constraints are met; the solver would find the same
+     * layout since no constraint is violated.
+     *
+     * @param horizontal true for the width, false for the height
+     * @return the preferred size or Double.NaN if it has to be calculated with the solver
+     */
+    public double calculatePreferredSize(boolean horizontal) {
+        Variable start = horizontal ? layoutSpec.getLeft() : layoutSpec.getTop();
+        Variable end = horizontal ? layoutSpec.getRight() : layoutSpec.getBottom();
+        double tolerance = layoutSpec.linearSpec.getTolerance();
+
+        Map<Variable, List<Constraint>> equalities = new HashMap<Variable, List<Constraint>>();
+        List<Constraint> constraints = new ArrayList<Constraint>();
+        Set<Variable> allTabs = new HashSet<Variable>();
+        for (Constraint constraint : layoutSpec.linearSpec.getConstraints()) {
+            if (!constraint.isEnabled() || isFrameConstraint(constraint)
+                    || isOtherOrientation(constraint, horizontal))
+                continue;
+            for (Summand summand : constraint.getLeftSide()) {
+                if (!isTab(summand.getVar(), horizontal))
+                    return Double.NaN;
+                allTabs.add(summand.getVar());
+            }
+            constraints.add(constraint);
+            if (constraint.getOp() != OperatorType.EQ)
+                continue;
+            Variable[] difference = getDifference(constraint, horizontal);
+            if (difference == null)
+                continue;
+            for (Variable tab : difference) {
+                List<Constraint> list = equalities.get(tab);
+                if (list == null) {
+                    list = new ArrayList<Constraint>();
+                    equalities.put(tab, list);
+                }
+                list.add(constraint);
+            }
+        }
+
+        Map<Variable, Double> positions = new HashMap<Variable, Double>();
+        positions.put(start, 0d);
+        Deque<Variable> queue = new ArrayDeque<Variable>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            Variable tab = queue.poll();
+            List<Constraint> list = equalities.get(tab);
+            if (list == null)
+                continue;
+            double position = positions.get(tab);
+            for (Constraint constraint : list) {
+                Variable[] difference = getDifference(constraint, horizontal);
+                Variable other;
+                double otherPosition;
+                if (difference[0] == tab) {
+                    other = difference[1];
+                    otherPosition = position + constraint.getRightSide();
+                } else {
+                    other = difference[0];
+                    otherPosition = position - constraint.getRightSide();
+                }
+                Double current = positions.get(other);
+                if (current == null) {
+                    positions.put(other, otherPosition);
+                    queue.add(other);
+                } else if (Math.abs(current - otherPosition) > tolerance)
+                    return Double.NaN;
+            }
+        }
+        if (!positions.containsKey(end) || !positions.keySet().containsAll(allTabs))
+            return Double.NaN;
+
+        for (Constraint constraint : constraints) {
+            double leftSide = 0;
+            for (Summand summand : constraint.getLeftSide())
+                leftSide += summand.getCoeff() * positions.get(summand.getVar());
+            double difference = leftSide - constraint.getRightSide();
+            OperatorType op = constraint.getOp();
+            if ((op == OperatorType.GE || op == OperatorType.EQ) && difference < -tolerance)
+                return Double.NaN;
+            if ((op == OperatorType.LE || op == OperatorType.EQ) && difference > tolerance)
+                return Double.NaN;
+        }
+        return positions.get(end);
+    }
+}
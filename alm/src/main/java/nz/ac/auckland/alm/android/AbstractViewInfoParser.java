@@ -11,6 +11,10 @@ import nz.ac.auckland.alm.Area;
 import nz.ac.auckland.alm.HorizontalAlignment;
 import nz.ac.auckland.alm.VerticalAlignment;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 
 /**
  * Sizes can either be parsed from Android or from the IDE.
@@ -30,6 +34,89 @@ abstract public class AbstractViewInfoParser<T> {
     abstract protected Area.Size getPreferredSizeRaw(T component);
     abstract protected Area.Size getMaxSizeRaw(T component);
 
+    // number of measure specs whose sizes are kept per component
+    static public final int MAX_MEASUREMENTS = 4;
+
+    // measured sizes per component and measure specs, see getMeasuredSize()
+    final private Map<T, Map<Long, Area.Size>> measurements = new WeakHashMap<T, Map<Long, Area.Size>>();
+    final private Map<T, Integer> measureCounts = new WeakHashMap<T, Integer>();
+    private int totalMeasureCount = 0;
+
+    /**
+     * Measures a component, e.g. calls View.measure(). Only needed if the parser uses getMeasuredSize().
+     *
+     * @param widthSpec the platform specific width constraint, e.g. an Android MeasureSpec
+     * @param heightSpec the platform specific height constraint
+     */
+    protected Area.Size measure(T component, int widthSpec, int heightSpec) {
+        throw new RuntimeException("Parser can't measure components.");
+    }
+
+    /**
+     * Gets the measured size of a component. The size is cached per component and measure specs until
+     * invalidateMeasurements() is called for the component, e.g. because the component requested a new layout. Only
+     * the sizes of the MAX_MEASUREMENTS most recently used measure specs are kept.
+     *
+     * @return a copy of the measured size
+     */
+    protected Area.Size getMeasuredSize(T component, int widthSpec, int heightSpec) {
+        Map<Long, Area.Size> sizes = measurements.get(component);
+        if (sizes == null) {
+            sizes = new LinkedHashMap<Long, Area.Size>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Area.Size> eldest) {
+                    return size() > MAX_MEASUREMENTS;
+                }
+            };
+            measurements.put(component, sizes);
+        }
+        Long key = ((long)widthSpec << 32) | (heightSpec & 0xffffffffL);
+        Area.Size size = sizes.get(key);
+        if (size == null) {
+            size = measure(component, widthSpec, heightSpec);
+            sizes.put(key, size);
+            Integer count = measureCounts.get(component);
+            measureCounts.put(component, count == null ? 1 : count + 1);
+            totalMeasureCount++;
+        }
+        // callers modify the returned size
+        return new Area.Size(size);
+    }
+
+    /**
+     * Drops the cached measurements of a component.
+     */
+    public void invalidateMeasurements(T component) {
+        measurements.remove(component);
+    }
+
+    /**
+     * Drops all cached measurements.
+     */
+    public void invalidateMeasurements() {
+        measurements.clear();
+    }
+
+    /**
+     * Gets how often a component has been measured since the last resetMeasureCounts().
+     */
+    public int getMeasureCount(T component) {
+        Integer count = measureCounts.get(component);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Gets how often all components have been measured since the last resetMeasureCounts().
+     */
+    public int getMeasureCount() {
+        return totalMeasureCount;
+    }
+
+    public void resetMeasureCounts() {
+        measureCounts.clear();
+        totalMeasureCount = 0;
+    }
+
     public Area.Size getMinSize(T component, Area.Size explicitSize) {
         if (explicitSize.getWidth() != Area.Size.UNDEFINED && explicitSize.getHeight() != Area.Size.UNDEFINED)
             return explicitSize;
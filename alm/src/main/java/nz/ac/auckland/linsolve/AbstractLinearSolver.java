@@ -5,17 +5,72 @@
  */
 package nz.ac.auckland.linsolve;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An abstract implementation of a LinearSolver. All solvers extends this abstract class.
  *
  * @author jo
  */
 public abstract class AbstractLinearSolver implements LinearSolver {
+    /**
+     * Listener that is notified after every solve.
+     */
+    public interface IListener {
+        void onSolveFinished(AbstractLinearSolver solver, SolveStats stats);
+    }
+
+    /**
+     * Listener that is notified after every iteration of solvers that report their iterations.
+     */
+    public interface IIterationListener {
+        /**
+         * @param iteration the iteration, starting at 0
+         * @param residual the residual measure of the solver after the iteration, e.g. the max constraint error
+         */
+        void onIteration(int iteration, double residual);
+    }
 
     private LinearSpec linearSpec;
     private ResultType lastSolvingResult = ResultType.INFEASIBLE;
     protected long internalSolvingTime = -1l;
 
+    /**
+     * Compiled view of the linear spec that is used by the current solve. Null if the solver works directly on the
+     * constraint objects.
+     */
+    private CompiledLinearSpec compiledSpec;
+
+    /**
+     * If enabled, a solve continues from the solution of the previous solve as long as the structure of the linear
+     * spec did not change.
+     */
+    private boolean warmStartEnabled = false;
+    private boolean warmStart = false;
+    // structure version of the linear spec at the last solve that found a solution, -1 if there is none
+    private long solvedStructureVersion = -1;
+    // compiled spec of the last solve, only kept if warm start is enabled
+    private CompiledLinearSpec warmStartSpec;
+
+    // presolving is enabled by presolve()
+    private boolean presolveEnabled = false;
+    private PresolvedSpec presolvedSpec;
+    // presolved model of the current solve, its solution is mapped back at the end of solve()
+    private PresolvedSpec solvePresolvedSpec;
+
+    // deadline of the current solve in System.nanoTime() time, only valid if hasDeadline is set
+    private long deadline;
+    private boolean hasDeadline = false;
+
+    // snapshot of the current solve(LinearSpecSnapshot), null when the linear spec is solved
+    private LinearSpecSnapshot solveSnapshot;
+
+    // statistics of the current or last solve
+    private SolveStats solveStats = new SolveStats();
+    private final List<IListener> listeners = new ArrayList<IListener>();
+    private IIterationListener iterationListener;
+
     /**
      * Indicates whether debug output should be printed during solving.
      */
@@ -35,6 +90,68 @@ public abstract class AbstractLinearSolver implements LinearSolver {
         return debug;
     }
 
+    /**
+     * Enable/Disable warm starts.
+     *
+     * When enabled, a solve starts from the solution of the previous solve and reuses the compiled linear spec and
+     * other solver state, e.g. the force accumulators of the force solvers. This is the case as long as only right
+     * sides, operators, penalties or enabled states of constraints changed. Otherwise, the solver does a cold start.
+     */
+    public void setWarmStartEnabled(boolean warmStartEnabled) {
+        this.warmStartEnabled = warmStartEnabled;
+        if (!warmStartEnabled)
+            warmStartSpec = null;
+    }
+
+    public boolean isWarmStartEnabled() {
+        return warmStartEnabled;
+    }
+
+    /**
+     * Tests if the current solve is a warm start, i.e. if it may continue from the state of the previous solve.
+     */
+    protected boolean isWarmStart() {
+        return warmStart;
+    }
+
+    public void addListener(IListener listener) {
+        listeners.add(listener);
+    }
+
+    public boolean removeListener(IListener listener) {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * Sets the listener that is notified after every iteration. Set to null to remove the listener.
+     */
+    public void setIterationListener(IIterationListener iterationListener) {
+        this.iterationListener = iterationListener;
+    }
+
+    public IIterationListener getIterationListener() {
+        return iterationListener;
+    }
+
+    /**
+     * Returns the statistics of the last solve. While solving, solvers report their statistics to this object.
+     */
+    public SolveStats getSolveStats() {
+        return solveStats;
+    }
+
+    /**
+     * Counts an outer iteration and notifies the iteration listener.
+     *
+     * @param iteration the iteration, starting at 0
+     * @param residual the residual measure of the solver after the iteration
+     */
+    protected void notifyIteration(int iteration, double residual) {
+        solveStats.addOuterIteration();
+        if (iterationListener != null)
+            iterationListener.onIteration(iteration, residual);
+    }
+
     /**
      * @link nz.ac.auckland.linsolve.LinearSolver#getLinearSpec()
      */
@@ -49,14 +166,87 @@ public abstract class AbstractLinearSolver implements LinearSolver {
     @Override
     public void setLinearSpec(LinearSpec linearSpec) {
         this.linearSpec = linearSpec;
+        solvedStructureVersion = -1;
+        warmStartSpec = null;
     }
 
     /**
+     * Presolves the linear spec, see PresolvedSpec. From now on, solvers that work on the compiled linear spec solve
+     * the presolved model instead of the linear spec. The model is cached and rebuilt once the change journal of the
+     * linear spec recorded a change.
+     *
      * @link nz.ac.auckland.linsolve.LinearSolver#presolve()
      */
     @Override
     public void presolve() {
+        presolveEnabled = true;
+        getPresolvedSpec();
+    }
+
+    /**
+     * Enable/Disable solving the presolved model, see presolve().
+     */
+    public void setPresolveEnabled(boolean presolveEnabled) {
+        this.presolveEnabled = presolveEnabled;
+        if (!presolveEnabled)
+            presolvedSpec = null;
+    }
+
+    public boolean isPresolveEnabled() {
+        return presolveEnabled;
+    }
 
+    /**
+     * Gets the presolved model of the linear spec. The model is rebuilt if the linear spec changed.
+     *
+     * @return the model or null if presolving is disabled or the linear spec can't be presolved
+     */
+    public PresolvedSpec getPresolvedSpec() {
+        if (!presolveEnabled)
+            return null;
+        if (presolvedSpec == null || !presolvedSpec.isValid())
+            presolvedSpec = PresolvedSpec.presolve(getLinearSpec());
+        return presolvedSpec;
+    }
+
+    /**
+     * Checks if the current solve works on a presolved model, i.e. the rows and columns of the compiled spec do not
+     * match the constraints and variables of the linear spec.
+     */
+    protected boolean isPresolved() {
+        return solvePresolvedSpec != null;
+    }
+
+    /**
+     * Checks if the current solve is a solve of a snapshot, i.e. the linear spec must not be used.
+     */
+    protected boolean isSolvingSnapshot() {
+        return solveSnapshot != null;
+    }
+
+    /**
+     * Checks if the deadline of the current solve has passed, see solve(long). Solvers that support deadlines call
+     * this between their iterations.
+     */
+    protected boolean isDeadlineReached() {
+        return hasDeadline && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * Checks if the current solve has a deadline, e.g. to keep a copy of the last solution that satisfies the hard
+     * constraints.
+     */
+    protected boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    /**
+     * Gets the tolerance of the linear spec or of the snapshot that is solved.
+     */
+    protected double getSpecTolerance() {
+        if (solveSnapshot != null)
+            return solveSnapshot.getTolerance();
+        return getLinearSpec().getTolerance();
     }
 
     /**
@@ -70,6 +260,41 @@ public abstract class AbstractLinearSolver implements LinearSolver {
         }
     }
 
+    /**
+     * Compiles the linear spec for the current solve. The solution of the compiled spec is written back to the
+     * variables at the end of solve().
+     *
+     * @return the compiled linear spec
+     */
+    protected CompiledLinearSpec compileLinearSpec() {
+        PresolvedSpec presolved = getPresolvedSpec();
+        if (presolved != null) {
+            solvePresolvedSpec = presolved;
+            compiledSpec = presolved.compile();
+            return compiledSpec;
+        }
+        if (warmStart && warmStartSpec != null) {
+            warmStartSpec.refresh();
+            compiledSpec = warmStartSpec;
+            return compiledSpec;
+        }
+        compileLinearSpec(getLinearSpec().getVariables(), getLinearSpec().getConstraints());
+        if (warmStartEnabled)
+            warmStartSpec = compiledSpec;
+        return compiledSpec;
+    }
+
+    /**
+     * Compiles a custom set of variables and constraints for the current solve, e.g. when the solver adds helper
+     * variables. The solution of the compiled spec is written back to the variables at the end of solve().
+     *
+     * @return the compiled linear spec
+     */
+    protected CompiledLinearSpec compileLinearSpec(List<Variable> variables, List<Constraint> constraints) {
+        compiledSpec = CompiledLinearSpec.compile(variables, constraints);
+        return compiledSpec;
+    }
+
     /**
      * sort constraints in linear spec descending according to their penalties.
      */
@@ -82,7 +307,7 @@ public abstract class AbstractLinearSolver implements LinearSolver {
      */
     @Override
     public void removePresolved() {
-
+        presolvedSpec = null;
     }
 
     /**
@@ -104,7 +329,6 @@ public abstract class AbstractLinearSolver implements LinearSolver {
      */
     @Override
     public void remove(Constraint c) {
-        getLinearSpec().getConstraints().remove(c);
     }
 
     /**
@@ -121,12 +345,76 @@ public abstract class AbstractLinearSolver implements LinearSolver {
     public void remove(Variable v) {
     }
 
+    /**
+     * Solves the linear spec but stops at a deadline.
+     *
+     * Solvers that support deadlines (ForceSolver, KaczmarzLeastSquares and KaczmarzSolver) stop once the deadline
+     * passed. If they found a solution that satisfies the hard constraints, this solution is kept and BESTEFFORT is
+     * returned; otherwise the result is TIMEOUT. The ForceSolver always finishes its first hard phase, i.e. it
+     * returns a solution that satisfies the hard constraints unless they are infeasible. Other solvers ignore the
+     * deadline.
+     *
+     * The next solve continues from the interrupted solve, even if warm start is disabled, as long as the structure of
+     * the linear spec did not change.
+     *
+     * @param deadlineNanos the deadline in System.nanoTime() time
+     */
+    public ResultType solve(long deadlineNanos) {
+        deadline = deadlineNanos;
+        hasDeadline = true;
+        try {
+            return solve();
+        } finally {
+            hasDeadline = false;
+        }
+    }
+
+    /**
+     * Tests if the last solve has been stopped at its deadline.
+     */
+    protected boolean wasInterrupted() {
+        return lastSolvingResult == ResultType.BESTEFFORT || lastSolvingResult == ResultType.TIMEOUT;
+    }
+
     /**
      * Solves the linear system which is presented in the linear spec which is used by the solver.
      */
     @Override
     public final ResultType solve() {
+        final long startTime = System.nanoTime();
+        solveStats = new SolveStats();
+        // an interrupted solve is always continued
+        warmStart = (warmStartEnabled || wasInterrupted())
+                && solvedStructureVersion == getLinearSpec().getStructureVersion();
+        if (!warmStart)
+            warmStartSpec = null;
+
         lastSolvingResult = doSolve();
+        double maxHardError;
+        double maxSoftError;
+        if (compiledSpec != null && solvePresolvedSpec != null) {
+            compiledSpec.writeBack();
+            solvePresolvedSpec.postsolve();
+            maxHardError = getLinearSpec().getMaxHardConstraintError();
+            maxSoftError = getLinearSpec().getMaxSoftConstraintError();
+            compiledSpec = null;
+            solvePresolvedSpec = null;
+        } else if (compiledSpec != null) {
+            compiledSpec.writeBack();
+            maxHardError = compiledSpec.getMaxHardError();
+            maxSoftError = compiledSpec.getMaxSoftError();
+            compiledSpec = null;
+        } else {
+            maxHardError = getLinearSpec().getMaxHardConstraintError();
+            maxSoftError = getLinearSpec().getMaxSoftConstraintError();
+        }
+        solveStats.finish(lastSolvingResult, System.nanoTime() - startTime, maxHardError, maxSoftError);
+        for (IListener listener : listeners)
+            listener.onSolveFinished(this, solveStats);
+        if (lastSolvingResult == ResultType.OPTIMAL || lastSolvingResult == ResultType.SUBOPTIMAL || wasInterrupted())
+            solvedStructureVersion = getLinearSpec().getStructureVersion();
+        else
+            solvedStructureVersion = -1;
         if (debug) {
             System.out.println(getLinearSpec().toString());
             System.out.println(getLinearSpec().getCurrentSolution());
@@ -135,6 +423,40 @@ public abstract class AbstractLinearSolver implements LinearSolver {
         return lastSolvingResult;
     }
 
+    /**
+     * Solves a snapshot of a linear spec. The solution is returned instead of being written to the variables, i.e.
+     * neither the linear spec nor its variables are touched. Different solver instances can solve the same snapshot
+     * concurrently; a solver instance solves one problem at a time.
+     *
+     * Only solvers that override doSolve(CompiledLinearSpec) support snapshots. Warm starts and presolving are not
+     * used for snapshots.
+     */
+    public Solution solve(LinearSpecSnapshot snapshot) {
+        final long startTime = System.nanoTime();
+        solveStats = new SolveStats();
+        warmStart = false;
+        CompiledLinearSpec spec = snapshot.createSpec();
+        solveSnapshot = snapshot;
+        ResultType result;
+        try {
+            result = doSolve(spec);
+        } finally {
+            solveSnapshot = null;
+        }
+        solveStats.finish(result, System.nanoTime() - startTime, spec.getMaxHardError(), spec.getMaxSoftError());
+        for (IListener listener : listeners)
+            listener.onSolveFinished(this, solveStats);
+        return new Solution(snapshot, spec.getValues(), result);
+    }
+
+    /**
+     * Solves a compiled spec that is not backed by the linear spec, see solve(LinearSpecSnapshot). The solution is
+     * left in the solution vector of the spec.
+     */
+    protected ResultType doSolve(CompiledLinearSpec spec) {
+        throw new RuntimeException(getClass().getSimpleName() + " can't solve snapshots.");
+    }
+
     @Override
     public void onSolveFinished() {
 
@@ -0,0 +1,206 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.Arrays;
+
+/**
+ * Primal active-set solver for the quadratic program of the linear spec.
+ *
+ * The solver minimizes the penalty weighted squared error of the soft constraints subject to the hard constraints.
+ * Hard inequalities, e.g. the min and max sizes of areas, are satisfied exactly. A soft inequality is turned into a
+ * hard inequality with a slack variable whose square is penalized, so it is handled by the active set as well.
+ *
+ * In every iteration, the equality constrained problem of the current working set is solved using a SparseKKTSystem.
+ * As long as no feasible point is known, the most violated inequality is added to the working set. Afterwards, the
+ * solver steps towards the solution of the working set; the first inequality blocking the step is added and an
+ * inequality with a negative multiplier is removed once the minimum on the working set is reached.
+ *
+ * With warm start enabled, the final working set is remembered and the next solve starts from it. Changing the size
+ * of a layout rarely changes which min/max constraints are active, so most re-solves need no or only a few changes of
+ * the working set.
+ */
+public class ActiveSetSolver extends AbstractLinearSolver {
+    public static final int MAX_ITERATIONS = 500;
+    public static final double DEFAULT_TOLERANCE = 1e-8;
+
+    private double tolerance = DEFAULT_TOLERANCE;
+
+    // system and working set of the last solve
+    private SparseKKTSystem system;
+    private boolean[] workingSet;
+    private double[] solution;
+    private double[] current;
+    private double[] center;
+    private int activeSetChanges = 0;
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Number of working set changes of the last solve.
+     */
+    public int getActiveSetChanges() {
+        return activeSetChanges;
+    }
+
+    @Override
+    protected ResultType doSolve() {
+        initVariableValues();
+        return doSolve(compileLinearSpec());
+    }
+
+    @Override
+    protected ResultType doSolve(CompiledLinearSpec spec) {
+        if (system == null || !system.isValidFor(spec)) {
+            system = new SparseKKTSystem(spec, true);
+            workingSet = new boolean[spec.getConstraintCount()];
+            solution = new double[system.getSize()];
+            current = new double[system.nPrimal];
+            center = new double[system.nPrimal];
+        } else if (!isWarmStart())
+            Arrays.fill(workingSet, false);
+
+        long startTime = System.currentTimeMillis();
+        initCurrent(spec);
+        System.arraycopy(current, 0, center, 0, center.length);
+        boolean feasible = isFeasible(spec);
+
+        activeSetChanges = 0;
+        ResultType result = ResultType.SUBOPTIMAL;
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            if (!system.factorize(workingSet, center)) {
+                result = ResultType.NUMFAILURE;
+                break;
+            }
+            system.solve(solution);
+
+            if (!feasible) {
+                int violated = getMostViolatedInequality(spec);
+                if (violated >= 0) {
+                    workingSet[violated] = true;
+                    activeSetChanges++;
+                    continue;
+                }
+                feasible = true;
+                System.arraycopy(solution, 0, current, 0, current.length);
+            } else {
+                int blocking = step(spec);
+                if (blocking >= 0) {
+                    workingSet[blocking] = true;
+                    activeSetChanges++;
+                    continue;
+                }
+            }
+
+            // current is the minimum on the working set
+            int released = getMostNegativeMultiplier(spec);
+            if (released < 0) {
+                result = ResultType.OPTIMAL;
+                break;
+            }
+            workingSet[released] = false;
+            activeSetChanges++;
+        }
+        System.arraycopy(current, 0, spec.getValues(), 0, system.nVariables);
+        internalSolvingTime = System.currentTimeMillis() - startTime;
+
+        if (!isWarmStartEnabled())
+            system = null;
+        return result;
+    }
+
+    private boolean isInequalityRow(CompiledLinearSpec spec, int row) {
+        return system.kktRows[row] >= 0 && spec.isEnabled(row) && spec.getOp(row) != CompiledLinearSpec.OP_EQ;
+    }
+
+    /**
+     * Starts from the variable values; the slack variables are set to the smallest feasible values.
+     */
+    private void initCurrent(CompiledLinearSpec spec) {
+        System.arraycopy(spec.getValues(), 0, current, 0, system.nVariables);
+        for (int i = 0; i < workingSet.length; i++) {
+            final int slack = system.slacks[i];
+            if (slack < 0)
+                continue;
+            current[slack] = 0;
+            current[slack] = Math.max(0, system.getRowValue(i, current));
+        }
+    }
+
+    private boolean isFeasible(CompiledLinearSpec spec) {
+        for (int i = 0; i < workingSet.length; i++) {
+            if (system.kktRows[i] < 0 || !spec.isEnabled(i))
+                continue;
+            final double value = system.getRowValue(i, current);
+            if (spec.getOp(i) == CompiledLinearSpec.OP_EQ ? Math.abs(value) > tolerance : value > tolerance)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the inequality that is violated the most by the solution of the working set or -1
+     */
+    private int getMostViolatedInequality(CompiledLinearSpec spec) {
+        int violated = -1;
+        double maxViolation = tolerance;
+        for (int i = 0; i < workingSet.length; i++) {
+            if (workingSet[i] || !isInequalityRow(spec, i))
+                continue;
+            final double value = system.getRowValue(i, solution);
+            if (value > maxViolation) {
+                maxViolation = value;
+                violated = i;
+            }
+        }
+        return violated;
+    }
+
+    /**
+     * Steps from the current point towards the solution of the working set as far as the inequalities allow.
+     *
+     * @return the inequality that blocks the step or -1 if the full step has been taken
+     */
+    private int step(CompiledLinearSpec spec) {
+        double alpha = 1;
+        int blocking = -1;
+        for (int i = 0; i < workingSet.length; i++) {
+            if (workingSet[i] || !isInequalityRow(spec, i))
+                continue;
+            final double target = system.getRowValue(i, solution);
+            if (target <= tolerance)
+                continue;
+            final double value = system.getRowValue(i, current);
+            final double stepLength = Math.max(0, -value / (target - value));
+            if (stepLength < alpha) {
+                alpha = stepLength;
+                blocking = i;
+            }
+        }
+        for (int j = 0; j < current.length; j++)
+            current[j] += alpha * (solution[j] - current[j]);
+        return blocking;
+    }
+
+    /**
+     * @return the inequality of the working set with the most negative multiplier or -1 if all are non-negative
+     */
+    private int getMostNegativeMultiplier(CompiledLinearSpec spec) {
+        int released = -1;
+        double minMultiplier = -tolerance;
+        for (int i = 0; i < workingSet.length; i++) {
+            if (!workingSet[i] || !isInequalityRow(spec, i))
+                continue;
+            final double multiplier = solution[system.kktRows[i]];
+            if (multiplier < minMultiplier) {
+                minMultiplier = multiplier;
+                released = i;
+            }
+        }
+        return released;
+    }
+}
@@ -0,0 +1,171 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Journal of the constraint changes of a linear spec.
+ *
+ * Every change gets a new version number. Solvers can remember the version of their last solve and ask for the
+ * constraints that changed since then, e.g. to only re-solve the region of the spec that is affected by the changes.
+ * The journal is cleared after each solve of the linear spec; changes before the last clear are not available anymore.
+ */
+public class ChangeJournal {
+    public static final int RIGHT_SIDE = 1;
+    public static final int PENALTY = 1 << 1;
+    public static final int OPERATOR = 1 << 2;
+    public static final int LEFT_SIDE = 1 << 3;
+    public static final int ENABLED = 1 << 4;
+    public static final int ADDED = 1 << 5;
+    public static final int REMOVED = 1 << 6;
+
+    /**
+     * Changes that alter the structure of the spec.
+     */
+    public static final int STRUCTURAL_CHANGES = LEFT_SIDE | ADDED | REMOVED;
+
+    // if there are more entries the journal is cleared, i.e. solvers have to re-solve the whole spec
+    static final int MIN_MAX_ENTRIES = 1024;
+
+    private class Entry {
+        int changes;
+        long version;
+    }
+
+    private final LinearSpec linearSpec;
+    private final Map<Constraint, Entry> entries = new LinkedHashMap<Constraint, Entry>();
+    private long version = 0l;
+    // version of the last clear
+    private long baseVersion = 0l;
+
+    ChangeJournal(LinearSpec linearSpec) {
+        this.linearSpec = linearSpec;
+    }
+
+    void record(Constraint constraint, int change) {
+        version++;
+        if (entries.size() >= Math.max(MIN_MAX_ENTRIES, linearSpec.getConstraints().size())) {
+            clear();
+            return;
+        }
+        Entry entry = entries.get(constraint);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(constraint, entry);
+        }
+        entry.changes |= change;
+        entry.version = version;
+    }
+
+    /**
+     * Removes all entries. Changes up to the current version are not available anymore.
+     */
+    void clear() {
+        entries.clear();
+        baseVersion = version;
+    }
+
+    /**
+     * Returns the current version, i.e. the version of the last change.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Tests if all changes since a version are recorded in the journal.
+     */
+    public boolean isAvailableSince(long sinceVersion) {
+        return sinceVersion >= baseVersion && sinceVersion <= version;
+    }
+
+    /**
+     * Gets the changes of a constraint since the last clear.
+     *
+     * @return the change flags or 0 if the constraint did not change
+     */
+    public int getChanges(Constraint constraint) {
+        Entry entry = entries.get(constraint);
+        if (entry == null)
+            return 0;
+        return entry.changes;
+    }
+
+    /**
+     * Gets the constraints that changed since a version. This includes constraints that have been removed.
+     *
+     * @param sinceVersion must be available, see isAvailableSince()
+     * @return the changed constraints in the order of their last change
+     */
+    public List<Constraint> getChangedConstraints(long sinceVersion) {
+        checkAvailable(sinceVersion);
+        List<Constraint> changed = new ArrayList<Constraint>();
+        for (Map.Entry<Constraint, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().version > sinceVersion)
+                changed.add(entry.getKey());
+        }
+        return changed;
+    }
+
+    /**
+     * Tests if there has been a structural change since a version.
+     *
+     * @param sinceVersion must be available, see isAvailableSince()
+     */
+    public boolean hasStructuralChanges(long sinceVersion) {
+        checkAvailable(sinceVersion);
+        for (Entry entry : entries.values()) {
+            if (entry.version > sinceVersion && (entry.changes & STRUCTURAL_CHANGES) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets all constraints of the spec that are connected to a changed constraint through shared variables. Only
+     * these constraints need to be re-solved if the rest of the spec was solved before.
+     *
+     * @param sinceVersion must be available, see isAvailableSince()
+     * @return the affected constraints that are part of the spec
+     */
+    public List<Constraint> getAffectedConstraints(long sinceVersion) {
+        Set<Constraint> visitedConstraints = Collections.newSetFromMap(new IdentityHashMap<Constraint, Boolean>());
+        Set<Variable> visitedVariables = Collections.newSetFromMap(new IdentityHashMap<Variable, Boolean>());
+        List<Constraint> affected = new ArrayList<Constraint>();
+        List<Variable> queue = new ArrayList<Variable>();
+
+        for (Constraint constraint : getChangedConstraints(sinceVersion)) {
+            if (!visitedConstraints.add(constraint))
+                continue;
+            if (linearSpec.contains(constraint))
+                affected.add(constraint);
+            // removed constraints still affect their old variables
+            for (Summand summand : constraint.getLeftSide()) {
+                if (visitedVariables.add(summand.getVar()))
+                    queue.add(summand.getVar());
+            }
+        }
+        for (int i = 0; i < queue.size(); i++) {
+            for (Constraint constraint : queue.get(i).getActiveConstraints()) {
+                if (!visitedConstraints.add(constraint))
+                    continue;
+                affected.add(constraint);
+                for (Summand summand : constraint.getLeftSide()) {
+                    if (visitedVariables.add(summand.getVar()))
+                        queue.add(summand.getVar());
+                }
+            }
+        }
+        return affected;
+    }
+
+    private void checkAvailable(long sinceVersion) {
+        if (!isAvailableSince(sinceVersion))
+            throw new RuntimeException("Changes since version " + sinceVersion + " are not available.");
+    }
+}
@@ -0,0 +1,444 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled, array based view of a linear system.
+ *
+ * The left sides of the constraints are stored in compressed sparse row (CSR) format: the summands of constraint i
+ * are stored at the positions rowOffsets[i] to rowOffsets[i + 1] - 1 of the columns and coefficients arrays. The
+ * column of a summand is the index of its variable in the variable list the view has been compiled from. The order of
+ * the summands within a row is the same as in Constraint.getLeftSide().
+ *
+ * Iterative solvers sweep over these arrays instead of going through Constraint -> Summand -> Variable for every
+ * summand. The solution vector is initialized from the variable values when the view is compiled; solvers work on it
+ * and write it back to the variables once using writeBack().
+ */
+public class CompiledLinearSpec {
+    public static final byte OP_EQ = 0;
+    public static final byte OP_LE = 1;
+    public static final byte OP_GE = 2;
+
+    final List<Variable> variables;
+    final List<Constraint> constraints;
+
+    final int[] rowOffsets;
+    final int[] columns;
+    final double[] coefficients;
+    // |A_i|^2 of every row, needed for the Kaczmarz projection
+    final double[] rowNorms2;
+
+    final double[] rightSides;
+    final byte[] ops;
+    final double[] penalties;
+    final boolean[] hard;
+    final boolean[] enabled;
+    boolean hasDynamicRightSides = false;
+
+    // the solution vector
+    final double[] values;
+
+    private CompiledLinearSpec(List<Variable> variables, List<Constraint> constraints, double[] values) {
+        // copy the constraint list so that the view stays consistent if the spec is modified; the variable list is
+        // copied by compile() and shared with the views of compileConstraints()
+        this.variables = variables;
+        this.constraints = new ArrayList<Constraint>(constraints);
+
+        int nSummands = 0;
+        for (Constraint constraint : constraints)
+            nSummands += constraint.getLeftSide().length;
+
+        final int nRows = constraints.size();
+        rowOffsets = new int[nRows + 1];
+        columns = new int[nSummands];
+        coefficients = new double[nSummands];
+        rowNorms2 = new double[nRows];
+        rightSides = new double[nRows];
+        ops = new byte[nRows];
+        penalties = new double[nRows];
+        hard = new boolean[nRows];
+        enabled = new boolean[nRows];
+        this.values = values;
+    }
+
+    /**
+     * Copy constructor, the left sides are shared since they are never modified.
+     */
+    private CompiledLinearSpec(CompiledLinearSpec spec) {
+        variables = spec.variables;
+        constraints = spec.constraints;
+        rowOffsets = spec.rowOffsets;
+        columns = spec.columns;
+        coefficients = spec.coefficients;
+        rowNorms2 = spec.rowNorms2;
+        rightSides = spec.rightSides.clone();
+        ops = spec.ops.clone();
+        penalties = spec.penalties.clone();
+        hard = spec.hard.clone();
+        enabled = spec.enabled.clone();
+        hasDynamicRightSides = spec.hasDynamicRightSides;
+        values = spec.values.clone();
+    }
+
+    /**
+     * Compiles the given variables and constraints.
+     *
+     * All variables used in the constraints must be contained in the variable list.
+     *
+     * @param variables the variables, the list index is used as column index
+     * @param constraints the constraints, the list index is used as row index
+     * @return the compiled view
+     */
+    public static CompiledLinearSpec compile(List<Variable> variables, List<Constraint> constraints) {
+        CompiledLinearSpec spec = new CompiledLinearSpec(new ArrayList<Variable>(variables), constraints,
+                new double[variables.size()]);
+        spec.loadValues();
+        spec.fill();
+        return spec;
+    }
+
+    /**
+     * Compiles another set of constraints over the same variables. The returned view shares the solution vector
+     * with this view.
+     *
+     * @param constraints the constraints, the list index is used as row index
+     * @return the compiled view
+     */
+    public CompiledLinearSpec compileConstraints(List<Constraint> constraints) {
+        CompiledLinearSpec spec = new CompiledLinearSpec(variables, constraints, values);
+        spec.fill();
+        return spec;
+    }
+
+    /**
+     * Copies the view, e.g. to solve it without modifying this view. The copy shares the left sides with this view;
+     * the right sides, operators, penalties, enabled states and the solution vector are copied.
+     */
+    CompiledLinearSpec copy() {
+        return new CompiledLinearSpec(this);
+    }
+
+    private void fill() {
+        // only needed if the variable list is not the one of the linear spec, e.g. when it contains helper variables
+        Map<Variable, Integer> columnMap = null;
+
+        int position = 0;
+        for (int i = 0; i < constraints.size(); i++) {
+            Constraint constraint = constraints.get(i);
+            rowOffsets[i] = position;
+            double norm2 = 0;
+            for (Summand summand : constraint.getLeftSide()) {
+                Variable variable = summand.getVar();
+                int column = variable.index;
+                if (column < 0 || column >= variables.size() || variables.get(column) != variable) {
+                    if (columnMap == null)
+                        columnMap = getColumnMap();
+                    Integer mappedColumn = columnMap.get(variable);
+                    if (mappedColumn == null)
+                        throw new RuntimeException("Variable '" + variable + "' is not part of the variable list.");
+                    column = mappedColumn;
+                }
+                columns[position] = column;
+                coefficients[position] = summand.getCoeff();
+                norm2 += summand.getCoeff() * summand.getCoeff();
+                position++;
+            }
+            rowNorms2[i] = norm2;
+            loadRow(i);
+        }
+        rowOffsets[constraints.size()] = position;
+    }
+
+    private void loadRow(int row) {
+        Constraint constraint = constraints.get(row);
+        rightSides[row] = constraint.getRightSide();
+        ops[row] = toByte(constraint.getOp());
+        penalties[row] = constraint.getPenalty();
+        hard[row] = constraint.isHard();
+        enabled[row] = constraint.isEnabled();
+        if (constraint.hasDynamicRightSide())
+            hasDynamicRightSides = true;
+    }
+
+    private void loadValues() {
+        for (int i = 0; i < values.length; i++)
+            values[i] = variables.get(i).getValue();
+    }
+
+    /**
+     * Reloads the solution vector from the variables and the right sides, operators, penalties and enabled states
+     * from the constraints.
+     *
+     * The left sides are not reloaded, i.e. this must only be used if the structure of the constraints did not change
+     * since the view has been compiled.
+     */
+    public void refresh() {
+        loadValues();
+        for (int i = 0; i < rightSides.length; i++)
+            loadRow(i);
+    }
+
+    private Map<Variable, Integer> getColumnMap() {
+        Map<Variable, Integer> columnMap = new IdentityHashMap<Variable, Integer>(variables.size() * 2);
+        for (int i = 0; i < variables.size(); i++)
+            columnMap.put(variables.get(i), i);
+        return columnMap;
+    }
+
+    static byte toByte(OperatorType op) {
+        switch (op) {
+            case LE:
+                return OP_LE;
+            case GE:
+                return OP_GE;
+            default:
+                return OP_EQ;
+        }
+    }
+
+    public int getVariableCount() {
+        return values.length;
+    }
+
+    public int getConstraintCount() {
+        return rightSides.length;
+    }
+
+    public List<Variable> getVariables() {
+        return variables;
+    }
+
+    public List<Constraint> getConstraints() {
+        return constraints;
+    }
+
+    /**
+     * Returns the solution vector. The column order is the order of the variable list.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Gets the row of a constraint.
+     *
+     * @return the row or -1 if the constraint is not part of the view
+     */
+    public int getRow(Constraint constraint) {
+        int row = constraint.index;
+        if (row >= 0 && row < constraints.size() && constraints.get(row) == constraint)
+            return row;
+        return constraints.indexOf(constraint);
+    }
+
+    /**
+     * Tests if a constraint of the view has a dynamic right side.
+     */
+    public boolean hasDynamicRightSides() {
+        return hasDynamicRightSides;
+    }
+
+    public int getRowStart(int row) {
+        return rowOffsets[row];
+    }
+
+    public int getRowEnd(int row) {
+        return rowOffsets[row + 1];
+    }
+
+    public int getColumn(int position) {
+        return columns[position];
+    }
+
+    public double getCoefficient(int position) {
+        return coefficients[position];
+    }
+
+    /**
+     * Returns |A_i|^2 of a row.
+     */
+    public double getRowNorm2(int row) {
+        return rowNorms2[row];
+    }
+
+    public double getRightSide(int row) {
+        return rightSides[row];
+    }
+
+    public byte getOp(int row) {
+        return ops[row];
+    }
+
+    public double getPenalty(int row) {
+        return penalties[row];
+    }
+
+    public boolean isHard(int row) {
+        return hard[row];
+    }
+
+    public boolean isEnabled(int row) {
+        return enabled[row];
+    }
+
+    /**
+     * Calculates A_i * x for the current solution vector.
+     */
+    public double leftSide(int row) {
+        double sum = 0;
+        final int end = rowOffsets[row + 1];
+        for (int j = rowOffsets[row]; j < end; j++)
+            sum += coefficients[j] * values[columns[j]];
+        return sum;
+    }
+
+    /**
+     * Same as Constraint.residual() but for the current solution vector.
+     */
+    public double residual(int row) {
+        return residual(row, leftSide(row));
+    }
+
+    /**
+     * Same as residual(int) but for a left side that has already been calculated, e.g. by a sweep that also projects
+     * the row.
+     */
+    public double residual(int row, double leftSideSum) {
+        byte op = ops[row];
+        if (op == OP_GE && leftSideSum >= rightSides[row])
+            return 0;
+        if (op == OP_LE && leftSideSum <= rightSides[row])
+            return 0;
+        return rightSides[row] - leftSideSum;
+    }
+
+    public double error(int row) {
+        return Math.abs(residual(row));
+    }
+
+    public boolean isSatisfied(int row, double tolerance) {
+        return Math.abs(residual(row)) <= tolerance;
+    }
+
+    /**
+     * Calculates the Kaczmarz projection parameter (b_i - A_i*x)/|A_i|^2.
+     */
+    public double projection(int row) {
+        return projection(row, leftSide(row));
+    }
+
+    /**
+     * Same as projection(int) but for a left side that has already been calculated.
+     */
+    public double projection(int row, double leftSideSum) {
+        return (rightSides[row] - leftSideSum) / rowNorms2[row];
+    }
+
+    /**
+     * Projects the current solution onto the hyperplane of a row, i.e. x = x + lambda * p * A_i.
+     *
+     * The row must have at least one summand with coefficient not zero.
+     */
+    public void project(int row, double lambda) {
+        project(row, lambda, leftSide(row));
+    }
+
+    /**
+     * Same as project(int, double) but for a left side that has already been calculated, e.g. to check if the row is
+     * satisfied.
+     */
+    public void project(int row, double lambda, double leftSideSum) {
+        final double p = projection(row, leftSideSum);
+        final int end = rowOffsets[row + 1];
+        for (int j = rowOffsets[row]; j < end; j++)
+            values[columns[j]] += lambda * p * coefficients[j];
+    }
+
+    /**
+     * Same as Constraint.newVarValue() but for the current solution vector.
+     *
+     * @param row the constraint row
+     * @param pivotPosition the position of the chosen summand, must be within the row
+     * @return value of the chosen variable that satisfies the constraint
+     */
+    public double newVarValue(int row, int pivotPosition) {
+        double sumOfOtherSummands = 0;
+        final int end = rowOffsets[row + 1];
+        for (int j = rowOffsets[row]; j < end; j++) {
+            // keep chosen summand on the left side
+            if (j == pivotPosition)
+                continue;
+            sumOfOtherSummands += coefficients[j] * values[columns[j]];
+        }
+        return (rightSides[row] - sumOfOtherSummands) / coefficients[pivotPosition];
+    }
+
+    /**
+     * Sum of the absolute value of all coefficients of a row.
+     */
+    public double sumOfAllAbsoluteCoefficients(int row) {
+        double sum = 0;
+        final int end = rowOffsets[row + 1];
+        for (int j = rowOffsets[row]; j < end; j++)
+            sum += Math.abs(coefficients[j]);
+        return sum;
+    }
+
+    public double getMaxError() {
+        double maxError = 0;
+        for (int i = 0; i < rightSides.length; i++) {
+            if (!enabled[i])
+                continue;
+            maxError = Math.max(maxError, error(i));
+        }
+        return maxError;
+    }
+
+    /**
+     * Same as getMaxError() but only for the given rows.
+     *
+     * @param rows the rows or null for all rows
+     */
+    public double getMaxError(int[] rows) {
+        if (rows == null)
+            return getMaxError();
+        double maxError = 0;
+        for (int i : rows) {
+            if (!enabled[i])
+                continue;
+            maxError = Math.max(maxError, error(i));
+        }
+        return maxError;
+    }
+
+    public double getMaxHardError() {
+        double maxError = 0;
+        for (int i = 0; i < rightSides.length; i++) {
+            if (!enabled[i] || !hard[i])
+                continue;
+            maxError = Math.max(maxError, error(i));
+        }
+        return maxError;
+    }
+
+    public double getMaxSoftError() {
+        double maxError = 0;
+        for (int i = 0; i < rightSides.length; i++) {
+            if (!enabled[i] || hard[i])
+                continue;
+            maxError = Math.max(maxError, error(i));
+        }
+        return maxError;
+    }
+
+    /**
+     * Writes the solution vector back to the variables.
+     */
+    public void writeBack() {
+        for (int i = 0; i < values.length; i++)
+            variables.get(i).setValue(values[i]);
+    }
+}
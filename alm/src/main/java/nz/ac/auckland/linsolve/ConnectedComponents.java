@@ -0,0 +1,127 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Independent subproblems of a linear spec, i.e. the connected components of the bipartite graph of variables and
+ * constraints.
+ *
+ * For example, the x-tab and the y-tab constraints of a layout never share a variable and thus form separate
+ * components. Components can be solved independently and in parallel. The components refer to the variable and
+ * constraint indices of the linear spec and are only valid for the structure version they have been computed for,
+ * see LinearSpec.getConnectedComponents().
+ */
+public class ConnectedComponents {
+    private final long structureVersion;
+    // rows and columns of every component in ascending order
+    private final int[][] rows;
+    private final int[][] columns;
+
+    private ConnectedComponents(long structureVersion, int[][] rows, int[][] columns) {
+        this.structureVersion = structureVersion;
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * Computes the components using union-find over the active constraints of the variables.
+     */
+    static ConnectedComponents compute(LinearSpec linearSpec) {
+        final List<Variable> variables = linearSpec.getVariables();
+        final List<Constraint> constraints = linearSpec.getConstraints();
+        final int nVariables = variables.size();
+        // nodes: the variables followed by the constraints
+        int[] parent = new int[nVariables + constraints.size()];
+        for (int i = 0; i < parent.length; i++)
+            parent[i] = i;
+        for (int j = 0; j < nVariables; j++) {
+            for (Constraint constraint : variables.get(j).getActiveConstraints()) {
+                int row = linearSpec.indexOf(constraint);
+                if (row >= 0)
+                    union(parent, j, nVariables + row);
+            }
+        }
+
+        // number the components and count their sizes
+        int[] componentOfRoot = new int[parent.length];
+        Arrays.fill(componentOfRoot, -1);
+        int nComponents = 0;
+        int[] rowCounts = new int[parent.length];
+        int[] columnCounts = new int[parent.length];
+        int[] componentOfNode = new int[parent.length];
+        for (int node = 0; node < parent.length; node++) {
+            int root = find(parent, node);
+            if (componentOfRoot[root] < 0)
+                componentOfRoot[root] = nComponents++;
+            int component = componentOfRoot[root];
+            componentOfNode[node] = component;
+            if (node < nVariables)
+                columnCounts[component]++;
+            else
+                rowCounts[component]++;
+        }
+
+        int[][] rows = new int[nComponents][];
+        int[][] columns = new int[nComponents][];
+        for (int c = 0; c < nComponents; c++) {
+            rows[c] = new int[rowCounts[c]];
+            columns[c] = new int[columnCounts[c]];
+        }
+        Arrays.fill(rowCounts, 0);
+        Arrays.fill(columnCounts, 0);
+        for (int node = 0; node < parent.length; node++) {
+            int component = componentOfNode[node];
+            if (node < nVariables)
+                columns[component][columnCounts[component]++] = node;
+            else
+                rows[component][rowCounts[component]++] = node - nVariables;
+        }
+        return new ConnectedComponents(linearSpec.getStructureVersion(), rows, columns);
+    }
+
+    private static int find(int[] parent, int node) {
+        int root = node;
+        while (parent[root] != root)
+            root = parent[root];
+        // path compression
+        while (parent[node] != root) {
+            int next = parent[node];
+            parent[node] = root;
+            node = next;
+        }
+        return root;
+    }
+
+    private static void union(int[] parent, int node1, int node2) {
+        int root1 = find(parent, node1);
+        int root2 = find(parent, node2);
+        if (root1 != root2)
+            parent[root2] = root1;
+    }
+
+    /**
+     * The structure version of the linear spec the components have been computed for.
+     */
+    public long getStructureVersion() {
+        return structureVersion;
+    }
+
+    public int getComponentCount() {
+        return rows.length;
+    }
+
+    /**
+     * Returns the constraint indices of a component in ascending order.
+     */
+    public int[] getRows(int component) {
+        return rows[component];
+    }
+
+    /**
+     * Returns the variable indices of a component in ascending order.
+     */
+    public int[] getColumns(int component) {
+        return columns[component];
+    }
+}
@@ -20,6 +20,7 @@ public class Constraint implements Cloneable {
     }
 
     protected LinearSpec linearSpec; // linear spec which holds this constraint
+    int index = -1; // slot in the constraint list of the linear spec, maintained by the linear spec
     private Summand[] leftSide; // left side of the constraint
     private OperatorType op; // constraint operator (i.e. =, <-, >=)
     private boolean enabled = true; // is constraint enabled?
@@ -216,7 +217,11 @@ public class Constraint implements Cloneable {
      */
 
     public void setEnabled(boolean enabled) {
+        if (this.enabled == enabled)
+            return;
         this.enabled = enabled;
+        if (linearSpec != null)
+            linearSpec.recordChange(this, ChangeJournal.ENABLED);
     }
 
     /**
@@ -227,7 +232,7 @@ public class Constraint implements Cloneable {
     public int getIndex() {
         int i = -1;
         if (linearSpec != null) {
-            i = linearSpec.getConstraints().indexOf(this);
+            i = linearSpec.indexOf(this);
             if (i == -1)
                 throw new RuntimeException("Constraint not part of linearSpec.constraints.");
         }
@@ -408,10 +413,10 @@ public class Constraint implements Cloneable {
         return coefficients;
     }
 
-    private void notifyConstraintUpdated() {
+    private void notifyConstraintUpdated(int change) {
         if (linearSpec == null)
             return;
-        linearSpec.getSolver().update(this);
+        linearSpec.onConstraintUpdated(this, change);
     }
 
     /**
@@ -435,7 +440,7 @@ public class Constraint implements Cloneable {
         leftSide = summands;
         activateSummands();
 
-        notifyConstraintUpdated();
+        notifyConstraintUpdated(ChangeJournal.LEFT_SIDE);
     }
 
     private void deactivateSummands() {
@@ -531,7 +536,7 @@ public class Constraint implements Cloneable {
      */
     public void setOp(OperatorType value) {
         op = value;
-        notifyConstraintUpdated();
+        notifyConstraintUpdated(ChangeJournal.OPERATOR);
     }
 
     /**
@@ -552,12 +557,26 @@ public class Constraint implements Cloneable {
      */
     public void setRightSide(double value) {
         rightSide = value;
-        notifyConstraintUpdated();
+        notifyConstraintUpdated(ChangeJournal.RIGHT_SIDE);
+    }
+
+    /**
+     * Tests if the right side can vary without notification, i.e. if it is not tracked by the change journal.
+     */
+    public boolean hasDynamicRightSide() {
+        return dynamicRightSide != null;
+    }
+
+    /**
+     * @return the dynamic right side or null if the right side is constant
+     */
+    public IDynamicRightSide getDynamicRightSide() {
+        return dynamicRightSide;
     }
 
     public void setRightSide(IDynamicRightSide dynamicRightSide) {
         this.dynamicRightSide = dynamicRightSide;
-        notifyConstraintUpdated();
+        notifyConstraintUpdated(ChangeJournal.RIGHT_SIDE);
     }
 
     /**
@@ -581,7 +600,7 @@ public class Constraint implements Cloneable {
      */
     public void setPenalty(double value) {
         penalty = value;
-        notifyConstraintUpdated();
+        notifyConstraintUpdated(ChangeJournal.PENALTY);
     }
 
     public boolean isSatisfied(double tolerance) {
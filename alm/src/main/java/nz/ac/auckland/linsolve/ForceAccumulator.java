@@ -0,0 +1,50 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates the forces on the variables for the force solvers.
+ *
+ * The force sum, the k sum and the number of forces are stored in primitive arrays indexed by the column of the
+ * variable. The arrays are reused across sweeps and solves, i.e. accumulating forces does not allocate.
+ */
+class ForceAccumulator {
+    private double[] forceSums = new double[0];
+    private double[] kSums = new double[0];
+    private int[] nForces = new int[0];
+
+    /**
+     * Removes all forces. The arrays are only reallocated if the number of variables changed.
+     */
+    void reset(int nVariables) {
+        if (forceSums.length != nVariables) {
+            forceSums = new double[nVariables];
+            kSums = new double[nVariables];
+            nForces = new int[nVariables];
+            return;
+        }
+        Arrays.fill(forceSums, 0d);
+        Arrays.fill(kSums, 0d);
+        Arrays.fill(nForces, 0);
+    }
+
+    void addForce(int column, double k, double displacement) {
+        forceSums[column] += k * displacement;
+        kSums[column] += k;
+        nForces[column]++;
+    }
+
+    int getForceCount(int column) {
+        return nForces[column];
+    }
+
+    double getForceSum(int column) {
+        return forceSums[column];
+    }
+
+    double getZeroForceDisplacement(int column) {
+        if (nForces[column] == 0)
+            return 0;
+        return forceSums[column] / kSums[column];
+    }
+}
@@ -9,29 +9,11 @@ package nz.ac.auckland.linsolve;
 
 
 public class ForceSolver extends AbstractLinearSolver {
-    private class VariableForce {
-        private int nForces = 0;
-        private double forceSum = 0d;
-        private double kSum = 0d;
-
-        public void addForce(double k, double displacement) {
-            forceSum += k * displacement;
-            kSum += k;
-            nForces ++;
-        }
-
-        public void reset() {
-            nForces = 0;
-            forceSum = 0d;
-            kSum = 0d;
-        }
-
-        public double getZeroForceDisplacement() {
-            if (nForces == 0)
-                return 0;
-            return forceSum / kSum;
-        }
-    }
+    private CompiledLinearSpec spec;
+    private final ForceAccumulator forces = new ForceAccumulator();
+    private double tolerance;
+    // last solution that satisfied the hard constraints, only kept if the solve has a deadline
+    private double[] feasibleValues;
 
     @Override
     protected ResultType doSolve() {
@@ -41,8 +23,14 @@ public class ForceSolver extends AbstractLinearSolver {
         final double COOLING_FACTOR = 1.d;
         final int MAX_ITERATION = 5000;
 
-        for (Variable v : this.getLinearSpec().getVariables())
-            v.setValue(0.0);
+        // a warm start continues from the previous solution
+        if (!isWarmStart()) {
+            for (Variable v : this.getLinearSpec().getVariables())
+                v.setValue(0.0);
+        }
+
+        spec = compileLinearSpec();
+        tolerance = getLinearSpec().getTolerance();
 
         // do an initial Kaczmarz
         /*doKaczmarzHard();
@@ -54,133 +42,134 @@ public class ForceSolver extends AbstractLinearSolver {
             doKaczmarzHard();
         }*/
 
-        final double tolerance = getLinearSpec().getTolerance();
+        // the solution is only feasible after a hard phase of this solve
+        boolean hasFeasibleValues = false;
+        if (hasDeadline() && (feasibleValues == null || feasibleValues.length != spec.getVariableCount()))
+            feasibleValues = new double[spec.getVariableCount()];
+
+        SolveStats stats = getSolveStats();
         double prevError2 = Double.MAX_VALUE;
-        for (int i = 0; i < MAX_ITERATION; i++) {
+        for (int i = 0; ; i++) {
+            // Calculate the soft forces. This also measures the soft error of the result of the previous iteration,
+            // so the convergence of the previous iteration is checked before the forces are applied.
+            long startTime = System.nanoTime();
+            double error2 = calculateForcesSoft();
+            if (i > 0) {
+                notifyIteration(i - 1, error2);
+                double diff = Math.abs(prevError2 - error2);
+                prevError2 = error2;
+                if (diff < Math.pow(tolerance, 2)) {
+                    //System.out.println("Iterations: " + i);
+                    return ResultType.OPTIMAL;
+                }
+                if (i == MAX_ITERATION)
+                    break;
+                // the hard constraints have just been fixed
+                if (isDeadlineReached())
+                    return ResultType.BESTEFFORT;
+                if (hasDeadline()) {
+                    System.arraycopy(spec.values, 0, feasibleValues, 0, feasibleValues.length);
+                    hasFeasibleValues = true;
+                }
+            }
+
             // Optimize soft constraints.
-            doOptimizeForcesSoft(cooling);
-            // Fix hard constraints using Kaczmarz.
+            applyForces(cooling);
+            long softEndTime = System.nanoTime();
+            stats.addSoftPhaseTime(softEndTime - startTime);
+            // Fix hard constraints using Kaczmarz. A sweep without projections found all hard constraints satisfied.
             boolean feasible = false;
-            for (int a = 0; a < MAX_ITERATION; a++) {
-                if (allHardConstraintsSatisfied()) {
+            int a = 0;
+            for (; a < MAX_ITERATION; a++) {
+                int projections = doKaczmarzHard();
+                if (projections == 0) {
                     feasible = true;
                     break;
                 }
-                doKaczmarzHard();
+                stats.addProjections(projections);
+                // without a previous feasible solution, the hard constraints are fixed even if the deadline passed
+                if (hasFeasibleValues && isDeadlineReached())
+                    break;
+            }
+            stats.addHardPhaseTime(System.nanoTime() - softEndTime);
+            stats.addInnerIterations(a);
+            if (!feasible && hasFeasibleValues && isDeadlineReached()) {
+                System.arraycopy(feasibleValues, 0, spec.values, 0, feasibleValues.length);
+                return ResultType.BESTEFFORT;
             }
             if (!feasible) {
-                System.out.println("INFEASIBLE");
+                if (isDebug()) System.out.println("INFEASIBLE");
                 return ResultType.INFEASIBLE;
             }
 
             cooling *= COOLING_FACTOR;
-
-            // check the result
-            double error2 = error2SoftConstraints();
-            double diff = Math.abs(prevError2 - error2);
-            prevError2 = error2;
-            if (diff < Math.pow(tolerance, 2)) {
-                //System.out.println("Iterations: " + (i + 1));
-                return ResultType.OPTIMAL;
-            }
         }
 
-        System.out.println("SUBOPTIMAL");
+        if (isDebug()) System.out.println("SUBOPTIMAL");
         return ResultType.SUBOPTIMAL;
     }
 
-    @Override
-    public void onSolveFinished() {
-        getLinearSpec().cleanSolverCookies();
-    }
-
-    private boolean allHardConstraintsSatisfied() {
-        for (Constraint constraint : this.getLinearSpec().getConstraints()) {
-            if (!constraint.isHard())
-                continue;
-            if (!constraint.isSatisfied())
-                return false;
-        }
-        return true;
-    }
-
-    private double error2SoftConstraints() {
+    /**
+     * Calculates the forces of the soft constraints on the variables. The force is proportional to the displacement
+     * of the variable. The displacement is calculated using the Kaczmarz projection.
+     *
+     * @return the summed squared error of the soft constraints
+     */
+    private double calculateForcesSoft() {
+        forces.reset(spec.getVariableCount());
         double error2 = 0;
-        for (Constraint constraint : this.getLinearSpec().getConstraints()) {
-            if (constraint.isHard())
+        int projections = 0;
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (spec.hard[i])
+                continue;
+            double leftSide = spec.leftSide(i);
+            double residual = spec.residual(i, leftSide);
+            error2 += residual * residual;
+            if (Math.abs(residual) <= tolerance)
                 continue;
-            error2 += Math.pow(constraint.error(), 2);
-        }
-        return error2;
-    }
-
-    private VariableForce getVariableForce(Variable variable) {
-        if (variable.solverCookie == null)
-            variable.solverCookie = new VariableForce();
-        return (VariableForce)variable.solverCookie;
-    }
 
-    private void resetVariableForces() {
-        for (Variable variable : getLinearSpec().getVariables()) {
-            if (variable.solverCookie != null) {
-                ((VariableForce)variable.solverCookie).reset();
+            double p = spec.projection(i, leftSide);
+            projections++;
+            double k = getK(spec.penalties[i]);
+            for (int j = spec.rowOffsets[i]; j < spec.rowOffsets[i + 1]; j++) {
+                double displacement = p * spec.coefficients[j];
+                forces.addForce(spec.columns[j], k, displacement);
             }
         }
+        getSolveStats().addProjections(projections);
+        return error2;
     }
 
-    private void doOptimizeForcesSoft(double cooling) {
-        resetVariableForces();
-
-        // Calculate forces on each variable. The force is proportional to the displacement of the variable. The
-        // displacement is calculated using the Kaczmarz projection.
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
-            if (constraint.isHard())
-                continue;
-            if (constraint.isSatisfied())
-                continue;
-
-            double p = getKaczmarzProjection(constraint);
-            for (Summand summand : constraint.getLeftSide()) {
-                Variable variable = summand.getVar();
-                VariableForce variableForce = getVariableForce(variable);
-
-                double displacement = p * summand.getCoeff();
-                variableForce.addForce(getK(constraint.getPenalty()), displacement);
-            }
-        }
-        // Apply forces on the variables.
-        for (Variable variable : getLinearSpec().getVariables()) {
-            if (variable.solverCookie == null)
-                continue;
-            VariableForce variableForce = (VariableForce)variable.solverCookie;
-            if (variableForce.nForces == 0)
+    /**
+     * Applies the forces on the variables.
+     */
+    private void applyForces(double cooling) {
+        final double[] values = spec.values;
+        for (int v = 0; v < values.length; v++) {
+            if (forces.getForceCount(v) == 0)
                 continue;
 
-            double delta = cooling * variableForce.getZeroForceDisplacement();
-            variable.setValue(variable.getValue() + delta);
+            double delta = cooling * forces.getZeroForceDisplacement(v);
+            values[v] += delta;
         }
     }
 
-    private void doKaczmarzHard() {
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
-            if (!constraint.isHard() )
+    /**
+     * @return the number of projections, 0 if all hard constraints are satisfied
+     */
+    private int doKaczmarzHard() {
+        int projections = 0;
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (!spec.hard[i])
                 continue;
-            if (constraint.isSatisfied())
+            double leftSide = spec.leftSide(i);
+            if (Math.abs(spec.residual(i, leftSide)) <= tolerance)
                 continue;
 
-            double p = getKaczmarzProjection(constraint);
-            for (Summand summand : constraint.getLeftSide()) {
-                Variable variable = summand.getVar();
-                variable.setValue(variable.getValue() + p * summand.getCoeff());
-            }
+            spec.project(i, 1.d, leftSide);
+            projections++;
         }
-    }
-
-    private double getKaczmarzProjection(Constraint constraint) {
-        // calculate projection parameter (b_i - A_i*x)/|A_i|^2
-        double b = constraint.getRightSide();
-        Summand[] A = constraint.getLeftSide();
-        return (b - scalarProduct(A)) / euclidianNorm(A);
+        return projections;
     }
 
     /**
@@ -197,20 +186,4 @@ public class ForceSolver extends AbstractLinearSolver {
             return 1000;
         return penalty;
     }
-
-    private double scalarProduct(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands) {
-            ret += s.getCoeff() * s.getVar().getValue();
-        }
-        return ret;
-    }
-
-    private double euclidianNorm(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands) {
-            ret += s.getCoeff() * s.getCoeff();
-        }
-        return ret;
-    }
 }
@@ -8,32 +8,11 @@
 package nz.ac.auckland.linsolve;
 
 
-import java.util.List;
-
 public class ForceSolver2 extends AbstractLinearSolver {
-    private class VariableForce {
-        private int nForces = 0;
-        private double forceSum = 0d;
-        private double kSum = 0d;
-
-        public void addForce(double k, double displacement) {
-            forceSum += k * displacement;
-            kSum += k;
-            nForces ++;
-        }
-
-        public void reset() {
-            nForces = 0;
-            forceSum = 0d;
-            kSum = 0d;
-        }
-
-        public double getZeroForceDisplacement() {
-            if (nForces == 0)
-                return 0;
-            return forceSum / kSum;
-        }
-    }
+    private CompiledLinearSpec spec;
+    private final ForceAccumulator forces = new ForceAccumulator();
+    private double[] oldValues;
+    private double tolerance;
 
     @Override
     protected ResultType doSolve() {
@@ -43,8 +22,16 @@ public class ForceSolver2 extends AbstractLinearSolver {
         final double COOLING_FACTOR = 1.d;
         final int MAX_ITERATION = 5000;
 
-        for (Variable v : this.getLinearSpec().getVariables())
-            v.setValue(0.0);
+        // a warm start continues from the previous solution
+        if (!isWarmStart()) {
+            for (Variable v : this.getLinearSpec().getVariables())
+                v.setValue(0.0);
+        }
+
+        spec = compileLinearSpec();
+        if (oldValues == null || oldValues.length != spec.getVariableCount())
+            oldValues = new double[spec.getVariableCount()];
+        tolerance = getLinearSpec().getTolerance();
 
         // do an initial Kaczmarz
         //doKaczmarzHard();
@@ -56,7 +43,6 @@ public class ForceSolver2 extends AbstractLinearSolver {
             doKaczmarzHard();
         }*/
 
-        final double tolerance = getLinearSpec().getTolerance();
         double prevError = Double.MAX_VALUE;
         for (int i = 0; i < MAX_ITERATION; i++) {
             // Optimize soft constraints.
@@ -93,16 +79,11 @@ public class ForceSolver2 extends AbstractLinearSolver {
         return ResultType.SUBOPTIMAL;
     }
 
-    @Override
-    public void onSolveFinished() {
-        getLinearSpec().cleanSolverCookies();
-    }
-
     private boolean allHardConstraintsSatisfied() {
-        for (Constraint constraint : this.getLinearSpec().getConstraints()) {
-            if (!constraint.isHard())
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (!spec.hard[i])
                 continue;
-            if (!constraint.isSatisfied())
+            if (!spec.isSatisfied(i, tolerance))
                 return false;
         }
         return true;
@@ -111,10 +92,10 @@ public class ForceSolver2 extends AbstractLinearSolver {
     private double errorSoftConstraints() {
         double error = 0;
         int nSoftConstraints = 0;
-        for (Constraint constraint : this.getLinearSpec().getConstraints()) {
-            if (constraint.isHard())
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (spec.hard[i])
                 continue;
-            error += Math.pow(constraint.error(), 2);
+            error += Math.pow(spec.error(i), 2);
             nSoftConstraints++;
         }
         if (nSoftConstraints == 0)
@@ -122,153 +103,75 @@ public class ForceSolver2 extends AbstractLinearSolver {
         return Math.sqrt(error / nSoftConstraints);
     }
 
-    private VariableForce getVariableForce(Variable variable) {
-        if (variable.solverCookie == null)
-            variable.solverCookie = new VariableForce();
-        return (VariableForce)variable.solverCookie;
-    }
-
-    private void resetVariableForces() {
-        for (Variable variable : getLinearSpec().getVariables()) {
-            if (variable.solverCookie != null) {
-                ((VariableForce)variable.solverCookie).reset();
-            }
-        }
-    }
-
-    private boolean isSoftSatisfied(Constraint constraint) {
-        return constraint.isSatisfied(getLinearSpec().getTolerance());
-        /*if (constraint.getOp() == OperatorType.EQ)
-            return constraint.isSatisfied(getLinearSpec().getTolerance());
-
-        double leftSideSum = 0;
-        for (Summand summand : constraint.getLeftSide())
-            leftSideSum += summand.coeff * summand.var.getValue();
-        if (constraint.getOp() == OperatorType.GE && leftSideSum >= constraint.getRightSide())
-            return true;
-        if (constraint.getOp() == OperatorType.LE && leftSideSum <= constraint.getRightSide())
-            return true;
-        return false;*/
-    }
-
-    private void calculateForces(Constraint constraint) {
-        double p = getKaczmarzProjection(constraint);
-        for (Summand summand : constraint.getLeftSide()) {
-            Variable variable = summand.getVar();
-            VariableForce variableForce = getVariableForce(variable);
-
-            double displacement = p * summand.getCoeff();
-            variableForce.addForce(getK(constraint.getPenalty()), displacement);
+    private void calculateForces(int row) {
+        double p = spec.projection(row);
+        double k = getK(spec.penalties[row]);
+        for (int j = spec.rowOffsets[row]; j < spec.rowOffsets[row + 1]; j++) {
+            double displacement = p * spec.coefficients[j];
+            forces.addForce(spec.columns[j], k, displacement);
         }
     }
 
-    private void applyForces(List<Variable> variables, double cooling) {
-        for (Variable variable : variables) {
-            if (variable.solverCookie == null)
-                continue;
-            VariableForce variableForce = (VariableForce)variable.solverCookie;
-            if (variableForce.nForces == 0)
+    private void applyForces(double cooling) {
+        final double[] values = spec.values;
+        for (int v = 0; v < values.length; v++) {
+            if (forces.getForceCount(v) == 0)
                 continue;
 
-            double delta = cooling * variableForce.getZeroForceDisplacement();
-            variable.setValue(variable.getValue() + delta);
+            double delta = cooling * forces.getZeroForceDisplacement(v);
+            values[v] += delta;
         }
     }
 
     private void doOptimizeForcesSoft(double cooling) {
-        resetVariableForces();
+        forces.reset(spec.getVariableCount());
 
         // Calculate forces on each variable. The force is proportional to the displacement of the variable. The
         // displacement is calculated using the Kaczmarz projection.
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
-            if (constraint.isHard())
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (spec.hard[i])
                 continue;
-            if (constraint.getOp() != OperatorType.EQ)
+            if (spec.ops[i] != CompiledLinearSpec.OP_EQ)
                 continue;
 
-            calculateForces(constraint);
+            calculateForces(i);
         }
 
-        List<Variable> variables = getLinearSpec().getVariables();
-        double[] oldValues = new double[variables.size()];
-        for (int i = 0; i < variables.size(); i++) {
-            Variable variable = variables.get(i);
-            oldValues[i] = variable.getValue();
-        }
-        applyForces(variables, cooling);
+        final double[] values = spec.values;
+        System.arraycopy(values, 0, oldValues, 0, values.length);
+        applyForces(cooling);
 
         // inequalities
         boolean inequalitiesViolated = false;
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
             //if (constraint.isHard())
             //  continue;
-            if (constraint.getOp() == OperatorType.EQ)
+            if (spec.ops[i] == CompiledLinearSpec.OP_EQ)
                 continue;
-            if (constraint.isSatisfied(getLinearSpec().getTolerance()))
+            if (spec.isSatisfied(i, tolerance))
                 continue;
             if (!inequalitiesViolated) {
                 inequalitiesViolated = true;
                 // reset old values
-                for (int i = 0; i < variables.size(); i++) {
-                    Variable variable = variables.get(i);
-                    variable.setValue(oldValues[i]);
-                }
+                System.arraycopy(oldValues, 0, values, 0, values.length);
             }
-            calculateForces(constraint);
+            calculateForces(i);
         }
         if (inequalitiesViolated)
-            applyForces(variables, cooling);
-        /*
-        // inequalities
-        Constraint leastViolatedConstraint = null;
-        double error = Double.MAX_VALUE;
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
-            if (constraint.isHard())
-                continue;
-            if (constraint.getOp() == OperatorType.EQ)
-                continue;
-            if (constraint.isSatisfied(getLinearSpec().getTolerance()))
-                continue;
-            double currentError = constraint.error();
-            if (currentError < error) {
-                leastViolatedConstraint = constraint;
-                error = currentError;
-            }
-        }
-        if (leastViolatedConstraint != null) {
-            // reset old values
-            for (int i = 0; i < variables.size(); i++) {
-                Variable variable = variables.get(i);
-                variable.setValue(oldValues[i]);
-            }
-            calculateForces(leastViolatedConstraint);
-
-            applyForces(variables, cooling);
-        }*/
+            applyForces(cooling);
     }
 
     private void doKaczmarzHard() {
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
-            if (!constraint.isHard() )
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (!spec.hard[i])
                 continue;
-            if (constraint.isSatisfied(getLinearSpec().getTolerance()))
+            if (spec.isSatisfied(i, tolerance))
                 continue;
 
-            double p = getKaczmarzProjection(constraint);
-            for (Summand summand : constraint.getLeftSide()) {
-                Variable variable = summand.getVar();
-                variable.setValue(variable.getValue() + p * summand.getCoeff());
-            }
+            spec.project(i, 1.d);
         }
     }
 
-    private double getKaczmarzProjection(Constraint constraint) {
-        // calculate projection parameter (b_i - A_i*x)/|A_i|^2
-        double b = constraint.getRightSide();
-        Summand[] A = constraint.getLeftSide();
-        return (b - scalarProduct(A)) / euclidianNorm(A);
-    }
-
     /**
      * Translates a penalty value to a force value.
      *
@@ -283,20 +186,4 @@ public class ForceSolver2 extends AbstractLinearSolver {
             return 1000;
         return penalty;
     }
-
-    private double scalarProduct(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands) {
-            ret += s.getCoeff() * s.getVar().getValue();
-        }
-        return ret;
-    }
-
-    private double euclidianNorm(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands) {
-            ret += s.getCoeff() * s.getCoeff();
-        }
-        return ret;
-    }
 }
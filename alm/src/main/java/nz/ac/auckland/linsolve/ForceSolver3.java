@@ -9,29 +9,8 @@ package nz.ac.auckland.linsolve;
 
 
 public class ForceSolver3 extends AbstractLinearSolver {
-    private class VariableForce {
-        private int nForces = 0;
-        private double forceSum = 0d;
-        private double kSum = 0d;
-
-        public void addForce(double k, double displacement) {
-            forceSum += k * displacement;
-            kSum += k;
-            nForces ++;
-        }
-
-        public void reset() {
-            nForces = 0;
-            forceSum = 0d;
-            kSum = 0d;
-        }
-
-        public double getZeroForceDisplacement() {
-            if (nForces == 0)
-                return 0;
-            return forceSum / kSum;
-        }
-    }
+    private CompiledLinearSpec spec;
+    private final ForceAccumulator forces = new ForceAccumulator();
 
     @Override
     protected ResultType doSolve() {
@@ -41,6 +20,8 @@ public class ForceSolver3 extends AbstractLinearSolver {
         final double COOLING_FACTOR = 1.d;
         final int MAX_ITERATION = 5000;
 
+        spec = compileLinearSpec();
+
         final double tolerance = getLinearSpec().getTolerance();
         double prevError2 = Double.MAX_VALUE;
         for (int i = 0; i < MAX_ITERATION; i++) {
@@ -67,16 +48,12 @@ public class ForceSolver3 extends AbstractLinearSolver {
         return ResultType.SUBOPTIMAL;
     }
 
-    @Override
-    public void onSolveFinished() {
-        getLinearSpec().cleanSolverCookies();
-    }
-
     private boolean allHardConstraintsSatisfied() {
-        for (Constraint constraint : this.getLinearSpec().getConstraints()) {
-            if (!constraint.isHard())
+        final double tolerance = getLinearSpec().getTolerance();
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (!spec.hard[i])
                 continue;
-            if (!constraint.isSatisfied())
+            if (!spec.isSatisfied(i, tolerance))
                 return false;
         }
         return true;
@@ -84,37 +61,21 @@ public class ForceSolver3 extends AbstractLinearSolver {
 
     private double error2SoftConstraints() {
         double error2 = 0;
-        for (Constraint constraint : this.getLinearSpec().getConstraints()) {
-            if (constraint.isHard())
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (spec.hard[i])
                 continue;
-            error2 += Math.pow(constraint.error(), 2);
+            error2 += Math.pow(spec.error(i), 2);
         }
         return error2;
     }
 
-    private VariableForce getVariableForce(Variable variable) {
-        if (variable.solverCookie == null)
-            variable.solverCookie = new VariableForce();
-        return (VariableForce)variable.solverCookie;
-    }
-
-    private void resetVariableForces() {
-        for (Variable variable : getLinearSpec().getVariables()) {
-            if (variable.solverCookie != null) {
-                ((VariableForce)variable.solverCookie).reset();
-            }
-        }
-    }
-
-    private boolean isSatisfied(Constraint constraint) {
-        if (constraint.getOp() == OperatorType.EQ)
+    private boolean isSatisfied(int row) {
+        if (spec.ops[row] == CompiledLinearSpec.OP_EQ)
             return false;
-        double leftSideSum = 0;
-        for (Summand summand : constraint.getLeftSide())
-            leftSideSum += summand.coeff * summand.var.getValue();
-        if (constraint.getOp() == OperatorType.GE && leftSideSum > constraint.getRightSide())
+        double leftSideSum = spec.leftSide(row);
+        if (spec.ops[row] == CompiledLinearSpec.OP_GE && leftSideSum > spec.rightSides[row])
             return true;
-        if (constraint.getOp() == OperatorType.LE && leftSideSum < constraint.getRightSide())
+        if (spec.ops[row] == CompiledLinearSpec.OP_LE && leftSideSum < spec.rightSides[row])
             return true;
         return false;
     }
@@ -124,60 +85,49 @@ public class ForceSolver3 extends AbstractLinearSolver {
     }
 
     private void doOptimizeForcesSoft(double cooling) {
-        resetVariableForces();
+        forces.reset(spec.getVariableCount());
 
         // Calculate forces on each variable. The force is proportional to the displacement of the variable. The
         // displacement is calculated using the Kaczmarz projection.
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
-            if (constraint.getOp() != OperatorType.EQ)
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (spec.ops[i] != CompiledLinearSpec.OP_EQ)
                 continue;
 
-            double p = getKaczmarzProjection(constraint);
-            for (Summand summand : constraint.getLeftSide()) {
-                Variable variable = summand.getVar();
-                VariableForce variableForce = getVariableForce(variable);
-
-                double displacement = p * summand.getCoeff();
-                variableForce.addForce(getK(constraint.getPenalty()), displacement);
+            double p = spec.projection(i);
+            double k = getK(spec.penalties[i]);
+            for (int j = spec.rowOffsets[i]; j < spec.rowOffsets[i + 1]; j++) {
+                double displacement = p * spec.coefficients[j];
+                forces.addForce(spec.columns[j], k, displacement);
             }
         }
         // add contribution from inequalities
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
-            if (constraint.getOp() == OperatorType.EQ || isSatisfied(constraint))
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (spec.ops[i] == CompiledLinearSpec.OP_EQ || isSatisfied(i))
                 continue;
 
-            double p = getKaczmarzProjection(constraint);
-            for (Summand summand : constraint.getLeftSide()) {
-                Variable variable = summand.getVar();
-                VariableForce variableForce = getVariableForce(variable);
+            double p = spec.projection(i);
+            double k = getK(spec.penalties[i]);
+            for (int j = spec.rowOffsets[i]; j < spec.rowOffsets[i + 1]; j++) {
+                final int column = spec.columns[j];
 
-                double displacement = p * summand.getCoeff();
-                if (!sameSign(variableForce.forceSum, displacement)
-                        || Math.abs(variableForce.getZeroForceDisplacement()) < Math.abs(displacement))
-                    variableForce.addForce(getK(constraint.getPenalty()), displacement);
+                double displacement = p * spec.coefficients[j];
+                if (!sameSign(forces.getForceSum(column), displacement)
+                        || Math.abs(forces.getZeroForceDisplacement(column)) < Math.abs(displacement))
+                    forces.addForce(column, k, displacement);
             }
         }
 
         // Apply forces on the variables.
-        for (Variable variable : getLinearSpec().getVariables()) {
-            if (variable.solverCookie == null)
-                continue;
-            VariableForce variableForce = (VariableForce)variable.solverCookie;
-            if (variableForce.nForces == 0)
+        final double[] values = spec.values;
+        for (int v = 0; v < values.length; v++) {
+            if (forces.getForceCount(v) == 0)
                 continue;
 
-            double delta = cooling * variableForce.getZeroForceDisplacement();
-            variable.setValue(variable.getValue() + delta);
+            double delta = cooling * forces.getZeroForceDisplacement(v);
+            values[v] += delta;
         }
     }
 
-    private double getKaczmarzProjection(Constraint constraint) {
-        // calculate projection parameter (b_i - A_i*x)/|A_i|^2
-        double b = constraint.getRightSide();
-        Summand[] A = constraint.getLeftSide();
-        return (b - scalarProduct(A)) / euclidianNorm(A);
-    }
-
     /**
      * Translates a penalty value to a force value.
      *
@@ -194,20 +144,4 @@ public class ForceSolver3 extends AbstractLinearSolver {
             return penalty;
         return penalty;
     }
-
-    private double scalarProduct(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands) {
-            ret += s.getCoeff() * s.getVar().getValue();
-        }
-        return ret;
-    }
-
-    private double euclidianNorm(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands) {
-            ret += s.getCoeff() * s.getCoeff();
-        }
-        return ret;
-    }
 }
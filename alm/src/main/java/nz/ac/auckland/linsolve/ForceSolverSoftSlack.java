@@ -12,30 +12,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class ForceSolverSoftSlack extends AbstractLinearSolver {
-    private class VariableForce {
-        private int nForces = 0;
-        private double forceSum = 0d;
-        private double kSum = 0d;
-
-        public void addForce(double k, double displacement) {
-            forceSum += k * displacement;
-            kSum += k;
-            nForces ++;
-        }
-
-        public void reset() {
-            nForces = 0;
-            forceSum = 0d;
-            kSum = 0d;
-        }
-
-        public double getZeroForceDisplacement() {
-            if (nForces == 0)
-                return 0;
-            return forceSum / kSum;
-        }
-    }
-
     private List<Constraint> prepareConstraints(List<Variable> variablesOut) {
         variablesOut.addAll(getLinearSpec().getVariables());
 
@@ -69,6 +45,13 @@ public class ForceSolverSoftSlack extends AbstractLinearSolver {
         return out;
     }
 
+    // compiled prepared constraints
+    private CompiledLinearSpec spec;
+    // compiled original constraints of the linear spec, shares the solution vector with spec
+    private CompiledLinearSpec originalSpec;
+    private final ForceAccumulator forces = new ForceAccumulator();
+    private double tolerance;
+
     @Override
     protected ResultType doSolve() {
         initVariableValues();
@@ -79,8 +62,15 @@ public class ForceSolverSoftSlack extends AbstractLinearSolver {
         final double COOLING_FACTOR = 1.d;
         final int MAX_ITERATION = 1000;
 
-        for (Variable v : this.getLinearSpec().getVariables())
-            v.setValue(0.0);
+        // a warm start continues from the previous solution
+        if (!isWarmStart()) {
+            for (Variable v : this.getLinearSpec().getVariables())
+                v.setValue(0.0);
+        }
+
+        spec = compileLinearSpec(variables, constraints);
+        originalSpec = spec.compileConstraints(getLinearSpec().getConstraints());
+        tolerance = getLinearSpec().getTolerance();
 
         // do an initial Kaczmarz
         //doKaczmarzHard();
@@ -89,14 +79,13 @@ public class ForceSolverSoftSlack extends AbstractLinearSolver {
                 //System.out.println("Init Iterations: " + (i + 1));
                 break;
             }
-            doKaczmarzHard(constraints);
+            doKaczmarzHard();
         }
 
-        final double tolerance = getLinearSpec().getTolerance();
         double prevError2 = Double.MAX_VALUE;
         for (int i = 0; i < MAX_ITERATION; i++) {
             // Optimize soft constraints.
-            doOptimizeForcesSoft(constraints, variables, cooling);
+            doOptimizeForcesSoft(cooling);
             // Fix hard constraints using Kaczmarz.
             //doKaczmarzHard();
 
@@ -106,7 +95,7 @@ public class ForceSolverSoftSlack extends AbstractLinearSolver {
                     feasible = true;
                     break;
                 }
-                doKaczmarzHard(constraints);
+                doKaczmarzHard();
             }
             if (!feasible) {
                 System.out.println("INFEASIBLE");
@@ -129,16 +118,11 @@ public class ForceSolverSoftSlack extends AbstractLinearSolver {
         return ResultType.SUBOPTIMAL;
     }
 
-    @Override
-    public void onSolveFinished() {
-        getLinearSpec().cleanSolverCookies();
-    }
-
     private boolean allHardConstraintsSatisfied() {
-        for (Constraint constraint : this.getLinearSpec().getConstraints()) {
-            if (!constraint.isHard())
+        for (int i = 0; i < originalSpec.getConstraintCount(); i++) {
+            if (!originalSpec.hard[i])
                 continue;
-            if (!constraint.isSatisfied())
+            if (!originalSpec.isSatisfied(i, tolerance))
                 return false;
         }
         return true;
@@ -146,99 +130,68 @@ public class ForceSolverSoftSlack extends AbstractLinearSolver {
 
     private double error2SoftConstraints() {
         double error2 = 0;
-        for (Constraint constraint : this.getLinearSpec().getConstraints()) {
-            if (constraint.isHard())
+        for (int i = 0; i < originalSpec.getConstraintCount(); i++) {
+            if (originalSpec.hard[i])
                 continue;
-            error2 += Math.pow(constraint.error(), 2);
+            error2 += Math.pow(originalSpec.error(i), 2);
         }
         return error2;
     }
 
-    private VariableForce getVariableForce(Variable variable) {
-        if (variable.solverCookie == null)
-            variable.solverCookie = new VariableForce();
-        return (VariableForce)variable.solverCookie;
-    }
-
-    private void resetVariableForces(List<Variable> variables) {
-        for (Variable variable : variables) {
-            if (variable.solverCookie != null) {
-                ((VariableForce)variable.solverCookie).reset();
-            }
-        }
-    }
-
-    private boolean isSoftSatisfied(Constraint constraint) {
-        if (constraint.getOp() == OperatorType.EQ)
+    private boolean isSoftSatisfied(int row) {
+        if (spec.ops[row] == CompiledLinearSpec.OP_EQ)
             return false;
 
-        double leftSideSum = 0;
-        for (Summand summand : constraint.getLeftSide())
-            leftSideSum += summand.coeff * summand.var.getValue();
-        if (constraint.getOp() == OperatorType.GE && leftSideSum >= constraint.getRightSide())
+        double leftSideSum = spec.leftSide(row);
+        if (spec.ops[row] == CompiledLinearSpec.OP_GE && leftSideSum >= spec.rightSides[row])
             return true;
-        if (constraint.getOp() == OperatorType.LE && leftSideSum <= constraint.getRightSide())
+        if (spec.ops[row] == CompiledLinearSpec.OP_LE && leftSideSum <= spec.rightSides[row])
             return true;
         return false;
     }
 
-    private void doOptimizeForcesSoft(List<Constraint> constraints, List<Variable> variables, double cooling) {
-        resetVariableForces(variables);
+    private void doOptimizeForcesSoft(double cooling) {
+        forces.reset(spec.getVariableCount());
 
         // Calculate forces on each variable. The force is proportional to the displacement of the variable. The
         // displacement is calculated using the Kaczmarz projection.
-        for (Constraint constraint : constraints) {
-            if (constraint.isHard())
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (spec.hard[i])
                 continue;
-            if (isSoftSatisfied(constraint))
+            if (isSoftSatisfied(i))
                 continue;
             //if (constraint.getOp() != OperatorType.EQ && constraint.isSatisfied(getLinearSpec().getTolerance()))
               //  continue;
 
-            double p = getKaczmarzProjection(constraint);
-            for (Summand summand : constraint.getLeftSide()) {
-                Variable variable = summand.getVar();
-                VariableForce variableForce = getVariableForce(variable);
-
-                double displacement = p * summand.getCoeff();
-                variableForce.addForce(getK(constraint.getPenalty()), displacement);
+            double p = spec.projection(i);
+            double k = getK(spec.penalties[i]);
+            for (int j = spec.rowOffsets[i]; j < spec.rowOffsets[i + 1]; j++) {
+                double displacement = p * spec.coefficients[j];
+                forces.addForce(spec.columns[j], k, displacement);
             }
         }
         // Apply forces on the variables.
-        for (Variable variable : variables) {
-            if (variable.solverCookie == null)
-                continue;
-            VariableForce variableForce = (VariableForce)variable.solverCookie;
-            if (variableForce.nForces == 0)
+        final double[] values = spec.values;
+        for (int v = 0; v < values.length; v++) {
+            if (forces.getForceCount(v) == 0)
                 continue;
 
-            double delta = cooling * variableForce.getZeroForceDisplacement();
-            variable.setValue(variable.getValue() + delta);
+            double delta = cooling * forces.getZeroForceDisplacement(v);
+            values[v] += delta;
         }
     }
 
-    private void doKaczmarzHard(List<Constraint> constraints) {
-        for (Constraint constraint : constraints) {
-            if (!constraint.isHard() )
+    private void doKaczmarzHard() {
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (!spec.hard[i])
                 continue;
-            if (constraint.isSatisfied(getLinearSpec().getTolerance()))
+            if (spec.isSatisfied(i, tolerance))
                 continue;
 
-            double p = getKaczmarzProjection(constraint);
-            for (Summand summand : constraint.getLeftSide()) {
-                Variable variable = summand.getVar();
-                variable.setValue(variable.getValue() + p * summand.getCoeff());
-            }
+            spec.project(i, 1.d);
         }
     }
 
-    private double getKaczmarzProjection(Constraint constraint) {
-        // calculate projection parameter (b_i - A_i*x)/|A_i|^2
-        double b = constraint.getRightSide();
-        Summand[] A = constraint.getLeftSide();
-        return (b - scalarProduct(A)) / euclidianNorm(A);
-    }
-
     /**
      * Translates a penalty value to a force value.
      *
@@ -253,20 +206,4 @@ public class ForceSolverSoftSlack extends AbstractLinearSolver {
             return 100000;
         return penalty;
     }
-
-    private double scalarProduct(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands) {
-            ret += s.getCoeff() * s.getVar().getValue();
-        }
-        return ret;
-    }
-
-    private double euclidianNorm(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands) {
-            ret += s.getCoeff() * s.getCoeff();
-        }
-        return ret;
-    }
 }
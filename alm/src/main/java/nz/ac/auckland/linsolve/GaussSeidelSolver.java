@@ -2,7 +2,6 @@ package nz.ac.auckland.linsolve;
 
 import nz.ac.auckland.linsolve.pivots.PivotSummandSelector;
 
-import java.util.Collections;
 
 public class GaussSeidelSolver extends AbstractLinearSolver {
 
@@ -15,6 +14,8 @@ public class GaussSeidelSolver extends AbstractLinearSolver {
     ResultType lastSolvingResult = ResultType.ERROR;
     int requiredNoIterations = -1;
     int maxIterations;
+    int convergenceCheckInterval = 1;
+    boolean accelerationEnabled = false;
 
     public GaussSeidelSolver(PivotSummandSelector selector, int maxIterations) {
         super();
@@ -38,6 +39,34 @@ public class GaussSeidelSolver extends AbstractLinearSolver {
         this.pivotSummandSelector = pivotSummandSelector;
     }
 
+    /**
+     * Sets how often the convergence is checked. A relaxation step tracks the largest residual of the rows it relaxes;
+     * only if this estimate is close to 0, the errors of all constraints are calculated to confirm the convergence.
+     * With an interval of k this is done at most every k-th iteration.
+     */
+    public void setConvergenceCheckInterval(int convergenceCheckInterval) {
+        if (convergenceCheckInterval < 1)
+            throw new RuntimeException("Convergence check interval must be at least 1.");
+        this.convergenceCheckInterval = convergenceCheckInterval;
+    }
+
+    public int getConvergenceCheckInterval() {
+        return convergenceCheckInterval;
+    }
+
+    /**
+     * Enable/Disable the acceleration mode. Constraints with a dominant pivot summand are relaxed with a tuned
+     * over-relaxation instead of the fixed under-relaxation w and the iterates are extrapolated, see
+     * IterationAccelerator.
+     */
+    public void setAccelerationEnabled(boolean accelerationEnabled) {
+        this.accelerationEnabled = accelerationEnabled;
+    }
+
+    public boolean isAccelerationEnabled() {
+        return accelerationEnabled;
+    }
+
     public int getRequiredNoIterations() {
         return requiredNoIterations;
     }
@@ -49,6 +78,8 @@ public class GaussSeidelSolver extends AbstractLinearSolver {
         // these should be initialized somewhere. is it a good place?
         pivotSummandSelector.init(getLinearSpec());
         initVariableValues();
+        CompiledLinearSpec spec = compileLinearSpec();
+        int[] pivotPositions = getPivotPositions(spec);
 
         if (debug) {
             System.err.println("\n" + getLinearSpec().toString());
@@ -68,13 +99,29 @@ public class GaussSeidelSolver extends AbstractLinearSolver {
         if (debugSolution)
             System.err.println(getLinearSpec().getCurrentSolution() + "\n");
 
+        IterationAccelerator accelerator = null;
+        if (accelerationEnabled) {
+            accelerator = new IterationAccelerator(IterationAccelerator.DEFAULT_MEMORY);
+            accelerator.start(null, spec.getVariableCount());
+        }
+
         // system iteration loop
         for (iteration = 0; iteration < maxIterations; iteration++) {
             // perform one system iteration
-            doRelaxationStep();
+            double maxResidual;
+            if (accelerator != null) {
+                accelerator.beforeSweep(spec.values);
+                maxResidual = doRelaxationStep(spec, pivotPositions, accelerator.getRelaxation());
+                accelerator.afterSweep(spec.values, maxResidual);
+            } else
+                maxResidual = doRelaxationStep(spec, pivotPositions, w);
+            lastRelaxationStepMaxError = maxResidual;
+            notifyIteration(iteration, maxResidual);
+            if (!getLinearSpec().equalZero(maxResidual) || (iteration + 1) % convergenceCheckInterval != 0)
+                continue;
 
             // stop if max error over all constraints is close to 0
-            maxError = getLinearSpec().getMaxConstraintError();
+            maxError = spec.getMaxError();
             lastRelaxationStepMaxError = maxError;
 
             if (getLinearSpec().equalZero(maxError)) {
@@ -83,48 +130,114 @@ public class GaussSeidelSolver extends AbstractLinearSolver {
                 return ResultType.OPTIMAL;
             }
         }
+        if (getLinearSpec().equalZero(spec.getMaxError())) {
+            lastSolvingResult = ResultType.OPTIMAL;
+            requiredNoIterations = iteration;
+            return ResultType.OPTIMAL;
+        }
         lastSolvingResult = ResultType.INFEASIBLE;
 
 
         return ResultType.INFEASIBLE;
     }
 
+    /**
+     * Not supported, the pivot summands are selected for the constraints of the linear spec. The call is ignored, i.e.
+     * the linear spec is always solved as it is.
+     */
+    @Override
+    public void presolve() {
+
+    }
+
+    /**
+     * Presolving is not supported, see presolve().
+     *
+     * @throws RuntimeException if presolving is enabled
+     */
+    @Override
+    public void setPresolveEnabled(boolean presolveEnabled) {
+        if (presolveEnabled)
+            throw new RuntimeException("GaussSeidelSolver does not support presolving.");
+        super.setPresolveEnabled(false);
+    }
+
     @Override
     public void onSolveFinished() {
         getLinearSpec().cleanSolverCookies();
     }
 
-    protected void doRelaxationStep() {
+    /**
+     * Translates the pivot summands of the selector into positions in the compiled spec.
+     *
+     * @return the pivot position for each row, -1 if there is no pivot summand
+     */
+    private int[] getPivotPositions(CompiledLinearSpec spec) {
+        int[] pivotPositions = new int[spec.getConstraintCount()];
+        for (int i = 0; i < pivotPositions.length; i++) {
+            pivotPositions[i] = -1;
+            Constraint constraint = spec.getConstraints().get(i);
+            if (!constraint.isEnabled())
+                continue;
+            Summand chosenSummand = pivotSummandSelector.selectPivotSummand(constraint);
+            Summand[] leftSide = constraint.getLeftSide();
+            for (int j = 0; j < leftSide.length; j++) {
+                if (leftSide[j] == chosenSummand) {
+                    pivotPositions[i] = spec.getRowStart(i) + j;
+                    break;
+                }
+            }
+        }
+        return pivotPositions;
+    }
+
+    /**
+     * Relaxes all constraints once.
+     *
+     * @param dominantW the relaxation of constraints with a dominant pivot summand
+     * @return the largest residual of the constraints before they have been relaxed
+     */
+    protected double doRelaxationStep(CompiledLinearSpec spec, int[] pivotPositions, double dominantW) {
         double start = System.nanoTime();
 
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
-            if (!constraint.isEnabled())
+        final double tolerance = getLinearSpec().getTolerance();
+        final double[] values = spec.values;
+        double maxResidual = 0;
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            if (!spec.enabled[i])
                 continue;
             // check if constraint is an inequality
             // if yes, ignore it if it is satisfied
             // otherwise treat it as equality
-            if (constraint.getOp() != OperatorType.EQ
-                    && constraint.isSatisfied())
-                continue;
-
-            Summand chosenSummand = pivotSummandSelector
-                    .selectPivotSummand(constraint);
+            if (spec.ops[i] != CompiledLinearSpec.OP_EQ) {
+                double error = spec.error(i);
+                maxResidual = Math.max(maxResidual, error);
+                if (error <= tolerance)
+                    continue;
+            }
 
-            double w = determineW(chosenSummand.coeff, constraint.sumOfAllAbsoluteCoefficients());
-            // compute the new value for x_i
-            chosenSummand.var.setValue(w
-                    * constraint.newVarValue(chosenSummand) + (1 - w)
-                    * chosenSummand.var.getValue());
+            final int pivot = pivotPositions[i];
+            if (pivot < 0) {
+                maxResidual = Math.max(maxResidual, spec.error(i));
+                continue;
+            }
+            final int column = spec.columns[pivot];
+            double w = determineW(spec.coefficients[pivot], spec.sumOfAllAbsoluteCoefficients(i), dominantW);
+            // compute the new value for x_i; the residual of the row is a_pivot * (newValue - x_i)
+            final double newValue = spec.newVarValue(i, pivot);
+            maxResidual = Math.max(maxResidual, Math.abs(spec.coefficients[pivot] * (newValue - values[column])));
+            values[column] = w * newValue + (1 - w) * values[column];
         }
 
         double end = System.nanoTime();
         lastRelaxationStepTime = end - start;
+        return maxResidual;
     }
 
-    private double determineW(double chosenSummand, double absCoeffSum) {
+    private double determineW(double chosenSummand, double absCoeffSum, double dominantW) {
         double w;
         if (Math.abs(chosenSummand) > (absCoeffSum - Math.abs(chosenSummand))) {
-            w = this.w;
+            w = dominantW;
         } else {
             w = calculatesw(chosenSummand, absCoeffSum);
         }
@@ -152,7 +265,7 @@ public class GaussSeidelSolver extends AbstractLinearSolver {
     }
 
     public void sortConstraintsByDescendingPenalty() {
-        Collections.sort(getLinearSpec().constraints, new ConstraintComparatorByPenalty());
+        getLinearSpec().sortConstraintsByDescendingPenalty();
     }
 
     // Already in AbstractConflictResolutionStrategy
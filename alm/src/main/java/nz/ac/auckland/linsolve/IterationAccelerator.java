@@ -0,0 +1,290 @@
+package nz.ac.auckland.linsolve;
+
+/**
+ * Accelerates a fixed-point iteration x = g(x), e.g. a Kaczmarz or Gauss-Seidel sweep over a chain-like layout.
+ *
+ * The accelerator combines three techniques:
+ * <ul>
+ * <li>Adaptive over-relaxation: the sweeps start without over-relaxation. Once the ratio of successive residuals has
+ * settled, it is used as estimate of the convergence factor rho and the relaxation is set to Young's optimum
+ * 2 / (1 + sqrt(1 - rho)).</li>
+ * <li>Anderson extrapolation: the new iterate is the combination of the last sweep results that minimizes the change
+ * of the iterates in the least squares sense.</li>
+ * <li>Stagnation restart: if the residual did not improve for a while, the extrapolation history is dropped and the
+ * over-relaxation is reduced.</li>
+ * </ul>
+ *
+ * Usage: start() once, then for every sweep beforeSweep(), the sweep using getRelaxation() and afterSweep(). Only the
+ * given columns of the solution vector are touched, so independent components can be accelerated concurrently.
+ */
+class IterationAccelerator {
+    public static final int DEFAULT_MEMORY = 5;
+    static final double MAX_RELAXATION = 1.9;
+    // the relaxation is tuned once successive residual ratios differ by less than this
+    static final double RATIO_SETTLED = 0.05;
+    // sweeps that are needed before the residual ratio is trusted
+    static final int MIN_TUNING_SWEEPS = 3;
+
+    private final int memory;
+    private int[] columns;
+    private int nColumns;
+
+    private double relaxation;
+    private boolean tuned;
+    private int sweeps;
+    private double prevResidual;
+    private double prevRatio;
+    private double bestResidual;
+    private int sweepsWithoutProgress;
+    private int restarts;
+
+    // iterate before the sweep, sweep result and residual f = g(x) - x of the current and the previous sweep
+    private double[] x;
+    private double[] g;
+    private double[] f;
+    private double[] prevG;
+    private double[] prevF;
+    private boolean hasPrev;
+    // ring buffer of the differences of successive sweep results and residuals
+    private double[][] deltaG;
+    private double[][] deltaF;
+    private int historySize;
+    private int historyStart;
+    private double[] gramian;
+    private double[] rightSide;
+    private double[] gamma;
+
+    IterationAccelerator(int memory) {
+        this.memory = memory;
+        deltaG = new double[memory][];
+        deltaF = new double[memory][];
+        gramian = new double[memory * memory];
+        rightSide = new double[memory];
+        gamma = new double[memory];
+    }
+
+    /**
+     * Starts a new iteration.
+     *
+     * @param columns the accelerated columns or null for all nVariables columns
+     */
+    void start(int[] columns, int nVariables) {
+        this.columns = columns;
+        nColumns = columns == null ? nVariables : columns.length;
+        if (x == null || x.length != nColumns) {
+            x = new double[nColumns];
+            g = new double[nColumns];
+            f = new double[nColumns];
+            prevG = new double[nColumns];
+            prevF = new double[nColumns];
+            for (int i = 0; i < memory; i++) {
+                deltaG[i] = new double[nColumns];
+                deltaF[i] = new double[nColumns];
+            }
+        }
+        relaxation = 1;
+        tuned = false;
+        sweeps = 0;
+        prevResidual = Double.NaN;
+        prevRatio = Double.NaN;
+        bestResidual = Double.MAX_VALUE;
+        sweepsWithoutProgress = 0;
+        restarts = 0;
+        clearHistory();
+    }
+
+    /**
+     * The relaxation parameter for the next sweep.
+     */
+    double getRelaxation() {
+        return relaxation;
+    }
+
+    /**
+     * Number of stagnation restarts since start().
+     */
+    int getRestarts() {
+        return restarts;
+    }
+
+    private void clearHistory() {
+        hasPrev = false;
+        historySize = 0;
+        historyStart = 0;
+    }
+
+    private int column(int i) {
+        return columns == null ? i : columns[i];
+    }
+
+    void beforeSweep(double[] values) {
+        for (int i = 0; i < nColumns; i++)
+            x[i] = values[column(i)];
+    }
+
+    /**
+     * Takes the result of a sweep and replaces it with the accelerated iterate.
+     *
+     * @param values the solution vector after the sweep
+     * @param residual a residual measure of the sweep, e.g. the largest residual that has been projected
+     */
+    void afterSweep(double[] values, double residual) {
+        sweeps++;
+        if (!tuned)
+            tuneRelaxation(residual);
+        else if (isStagnating(residual)) {
+            restart();
+            return;
+        }
+        prevResidual = residual;
+        if (!tuned)
+            return;
+
+        for (int i = 0; i < nColumns; i++) {
+            g[i] = values[column(i)];
+            f[i] = g[i] - x[i];
+        }
+        if (hasPrev)
+            pushHistory();
+        double[] swap = prevG;
+        prevG = g;
+        g = swap;
+        swap = prevF;
+        prevF = f;
+        f = swap;
+        hasPrev = true;
+        if (historySize == 0)
+            return;
+
+        if (!solveLeastSquares()) {
+            restart();
+            return;
+        }
+        // x = g(x) - deltaG * gamma, the current sweep result is in prevG now
+        for (int i = 0; i < nColumns; i++) {
+            double value = prevG[i];
+            for (int h = 0; h < historySize; h++)
+                value -= gamma[h] * deltaG[(historyStart + h) % memory][i];
+            values[column(i)] = value;
+        }
+    }
+
+    /**
+     * Estimates the convergence factor from the residual ratio and sets the relaxation to Young's optimum once the
+     * ratio settled.
+     */
+    private void tuneRelaxation(double residual) {
+        if (!(prevResidual > 0))
+            return;
+        double ratio = residual / prevResidual;
+        if (sweeps >= MIN_TUNING_SWEEPS && Math.abs(ratio - prevRatio) < RATIO_SETTLED) {
+            if (ratio < 1) {
+                relaxation = Math.min(MAX_RELAXATION, 2 / (1 + Math.sqrt(1 - ratio)));
+                relaxation = 1 + (relaxation - 1) / (1 << Math.min(restarts, 30));
+            }
+            tuned = true;
+            bestResidual = residual;
+            sweepsWithoutProgress = 0;
+        }
+        prevRatio = ratio;
+    }
+
+    private boolean isStagnating(double residual) {
+        if (residual < bestResidual) {
+            bestResidual = residual;
+            sweepsWithoutProgress = 0;
+            return false;
+        }
+        sweepsWithoutProgress++;
+        return sweepsWithoutProgress > memory;
+    }
+
+    /**
+     * Drops the extrapolation history and tunes the relaxation again with a smaller over-relaxation.
+     */
+    private void restart() {
+        restarts++;
+        clearHistory();
+        relaxation = 1;
+        tuned = false;
+        sweeps = 0;
+        prevResidual = Double.NaN;
+        prevRatio = Double.NaN;
+    }
+
+    private void pushHistory() {
+        int slot;
+        if (historySize < memory)
+            slot = (historyStart + historySize++) % memory;
+        else {
+            slot = historyStart;
+            historyStart = (historyStart + 1) % memory;
+        }
+        double[] dG = deltaG[slot];
+        double[] dF = deltaF[slot];
+        for (int i = 0; i < nColumns; i++) {
+            dG[i] = g[i] - prevG[i];
+            dF[i] = f[i] - prevF[i];
+        }
+    }
+
+    /**
+     * Solves min |f - deltaF * gamma| using the regularized normal equations.
+     *
+     * @return false if the system is singular
+     */
+    private boolean solveLeastSquares() {
+        final int m = historySize;
+        double trace = 0;
+        for (int a = 0; a < m; a++) {
+            double[] dFa = deltaF[(historyStart + a) % memory];
+            for (int b = a; b < m; b++) {
+                double[] dFb = deltaF[(historyStart + b) % memory];
+                double sum = 0;
+                for (int i = 0; i < nColumns; i++)
+                    sum += dFa[i] * dFb[i];
+                gramian[a * m + b] = sum;
+                gramian[b * m + a] = sum;
+            }
+            trace += gramian[a * m + a];
+            double sum = 0;
+            for (int i = 0; i < nColumns; i++)
+                sum += dFa[i] * prevF[i];
+            rightSide[a] = sum;
+        }
+        if (!(trace > 0))
+            return false;
+        for (int a = 0; a < m; a++)
+            gramian[a * m + a] += 1e-10 * trace;
+
+        // Cholesky decomposition, the gramian is symmetric positive definite
+        for (int j = 0; j < m; j++) {
+            double diagonal = gramian[j * m + j];
+            for (int k = 0; k < j; k++)
+                diagonal -= gramian[j * m + k] * gramian[j * m + k];
+            if (!(diagonal > 0))
+                return false;
+            diagonal = Math.sqrt(diagonal);
+            gramian[j * m + j] = diagonal;
+            for (int i = j + 1; i < m; i++) {
+                double value = gramian[i * m + j];
+                for (int k = 0; k < j; k++)
+                    value -= gramian[i * m + k] * gramian[j * m + k];
+                gramian[i * m + j] = value / diagonal;
+            }
+        }
+        for (int i = 0; i < m; i++) {
+            double value = rightSide[i];
+            for (int k = 0; k < i; k++)
+                value -= gramian[i * m + k] * gamma[k];
+            gamma[i] = value / gramian[i * m + i];
+        }
+        for (int i = m - 1; i >= 0; i--) {
+            double value = gamma[i];
+            for (int k = i + 1; k < m; k++)
+                value -= gramian[k * m + i] * gamma[k];
+            gamma[i] = value / gramian[i * m + i];
+        }
+        return true;
+    }
+}
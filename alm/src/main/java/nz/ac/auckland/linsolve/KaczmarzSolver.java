@@ -1,5 +1,16 @@
 package nz.ac.auckland.linsolve;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import nz.ac.auckland.linsolve.rowselection.RowSelector;
+
 public class KaczmarzSolver extends AbstractLinearSolver {
 
     // TODO defaults should be moved to AbstractLinearSolver
@@ -10,64 +21,405 @@ public class KaczmarzSolver extends AbstractLinearSolver {
     private int iteration = GUI_ITERATION;
     private double lambda = DEFAULT_LAMBDA;
     private double tolerance = DEFAULT_TOLERANCE;
+    // version of the change journal at the end of the last solve
+    private long journalVersion = -1;
+    private boolean decompositionEnabled = false;
+    private ExecutorService executor;
+    private int convergenceCheckInterval = 1;
+    private boolean accelerationEnabled = false;
+    private RowSelector rowSelector;
+
+    /**
+     * Enable/Disable solving the independent components of the linear spec separately. Every component is swept
+     * until it converged on its own, i.e. small components are not swept again while a large one still converges.
+     *
+     * Only the KaczmarzSolver (and its subclasses) supports decomposition; the other solvers always solve the linear
+     * spec as a whole. It is also ignored if presolve is enabled or a snapshot is solved.
+     */
+    public void setDecompositionEnabled(boolean decompositionEnabled) {
+        this.decompositionEnabled = decompositionEnabled;
+    }
+
+    public boolean isDecompositionEnabled() {
+        return decompositionEnabled;
+    }
+
+    /**
+     * Sets the executor used to solve the components in parallel if decomposition is enabled. If null, the
+     * components are solved sequentially.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets how often the convergence is checked. A sweep tracks the largest residual it projects; only if this estimate
+     * is within the tolerance, the errors of all swept rows are calculated to confirm the convergence. With an interval
+     * of k this is done at most every k-th sweep.
+     */
+    public void setConvergenceCheckInterval(int convergenceCheckInterval) {
+        if (convergenceCheckInterval < 1)
+            throw new RuntimeException("Convergence check interval must be at least 1.");
+        this.convergenceCheckInterval = convergenceCheckInterval;
+    }
+
+    public int getConvergenceCheckInterval() {
+        return convergenceCheckInterval;
+    }
+
+    /**
+     * Enable/Disable the acceleration mode: the relaxation is tuned from the observed residual reduction and the
+     * iterates are extrapolated, see IterationAccelerator. This reduces the number of sweeps a lot for long chains of
+     * constraints, e.g. rows of many areas.
+     */
+    public void setAccelerationEnabled(boolean accelerationEnabled) {
+        this.accelerationEnabled = accelerationEnabled;
+    }
+
+    public boolean isAccelerationEnabled() {
+        return accelerationEnabled;
+    }
+
+    /**
+     * Sets the strategy that selects the rows to project, e.g. a GreedyRowSelector. An iteration then does as many
+     * projections as a sweep over the rows would do. If null, the rows are swept in list order.
+     *
+     * A selector keeps state, so the components are solved one after another when decomposition is enabled.
+     */
+    public void setRowSelector(RowSelector rowSelector) {
+        this.rowSelector = rowSelector;
+    }
+
+    public RowSelector getRowSelector() {
+        return rowSelector;
+    }
 
     @Override
     protected ResultType doSolve() {
-        lambda = DEFAULT_LAMBDA;
         initVariableValues();
+        ResultType result = doSolve(compileLinearSpec());
+        journalVersion = getLinearSpec().getChangeJournal().getVersion();
+        return result;
+    }
 
-        double maxError = Double.MAX_VALUE;
-        for (int i = 0; i < iteration && maxError > tolerance; i++) {
-            doIteration();
-            maxError = this.getLinearSpec().getMaxConstraintError();
-        }
+    @Override
+    protected ResultType doSolve(CompiledLinearSpec spec) {
+        lambda = DEFAULT_LAMBDA;
+        int[] rows = getRowsToSolve(spec);
+
+        boolean converged;
+        // the components refer to the rows of the linear spec
+        if (decompositionEnabled && !isPresolved() && !isSolvingSnapshot())
+            converged = solveComponents(spec, rows);
+        else
+            converged = solveRows(spec, rows);
 
-        if (maxError <= tolerance)
+        if (converged)
             return ResultType.OPTIMAL;
+        // all constraints are treated as hard constraints, i.e. there is no best effort solution
+        if (isDeadlineReached())
+            return ResultType.TIMEOUT;
         return ResultType.SUBOPTIMAL;
     }
 
-    protected void doIteration() {
-        for (Constraint c : this.getLinearSpec().getConstraints()) {
-            if (c.isEnabled() && (c.getOp() == OperatorType.EQ || !c.isSatisfied())) {
-                projectConstraint(c, lambda);
+    /**
+     * Sweeps over the given rows until they converged.
+     *
+     * @param rows the rows or null for all rows
+     * @return true if the rows converged
+     */
+    private boolean solveRows(CompiledLinearSpec spec, int[] rows) {
+        Sweep sweep = new Sweep();
+        IterationAccelerator accelerator = null;
+        if (accelerationEnabled) {
+            accelerator = new IterationAccelerator(IterationAccelerator.DEFAULT_MEMORY);
+            accelerator.start(getColumns(spec, rows), spec.getVariableCount());
+        }
+        if (rowSelector != null)
+            rowSelector.init(spec, rows, tolerance);
+        for (int i = 0; i < iteration; i++) {
+            double relaxation = accelerator != null ? accelerator.getRelaxation() : 1;
+            if (accelerator != null)
+                accelerator.beforeSweep(spec.values);
+            if (rowSelector != null)
+                doSelectedIteration(spec, rows, sweep, lambda * relaxation);
+            else
+                doIteration(spec, rows, sweep, lambda * relaxation);
+            if (accelerator != null) {
+                accelerator.afterSweep(spec.values, sweep.maxResidual);
+                // the extrapolation changed the values behind the back of the selector
+                if (rowSelector != null)
+                    rowSelector.init(spec, rows, tolerance);
+            }
+            // components may be solved concurrently
+            synchronized (this) {
+                getSolveStats().addProjections(sweep.projections);
+                notifyIteration(i, sweep.maxResidual);
+            }
+            if (sweep.maxResidual <= tolerance && (i + 1) % convergenceCheckInterval == 0) {
+                long startTime = System.nanoTime();
+                double maxError = spec.getMaxError(rows);
+                synchronized (this) {
+                    getSolveStats().addConvergenceCheckTime(System.nanoTime() - startTime);
+                }
+                if (maxError <= tolerance)
+                    return true;
+            }
+            if (isDeadlineReached())
+                break;
+        }
+        return spec.getMaxError(rows) <= tolerance;
+    }
+
+    /**
+     * Gets the variables of the given rows.
+     *
+     * @param rows the rows or null for all rows
+     * @return the columns in ascending order or null for all columns
+     */
+    private static int[] getColumns(CompiledLinearSpec spec, int[] rows) {
+        if (rows == null)
+            return null;
+        boolean[] used = new boolean[spec.getVariableCount()];
+        int nColumns = 0;
+        for (int i : rows) {
+            for (int p = spec.getRowStart(i); p < spec.getRowEnd(i); p++) {
+                if (!used[spec.getColumn(p)]) {
+                    used[spec.getColumn(p)] = true;
+                    nColumns++;
+                }
             }
         }
+        int[] columns = new int[nColumns];
+        nColumns = 0;
+        for (int j = 0; j < used.length; j++) {
+            if (used[j])
+                columns[nColumns++] = j;
+        }
+        return columns;
     }
 
     /**
-     * Constraint c has to have at least one summand with coefficient not zero
+     * Solves the components of the linear spec separately. Components do not share variables, so they can be solved
+     * in parallel on the same compiled spec.
      *
-     * @param c
-     * @param lambda
+     * @param rows the rows that have to be solved or null for all rows
+     * @return true if all components converged
      */
-    protected void projectConstraint(Constraint c, double lambda) {
-        double b = c.getRightSide();
-        Summand[] A = c.getLeftSide();
-
-        // calculate projection parameter (b_i - A_i*x)/|A_i|^2
-        double p = (b - scalarProduct(A)) / euclidianNorm(A);
-
-        double x = 0.0d;
-        for (Summand s : A) {
-            x = s.getVar().getValue();
-            // Actual projection formula
-            x = x + lambda * p * s.getCoeff();
-            s.getVar().setValue(x);
+    private boolean solveComponents(final CompiledLinearSpec spec, int[] rows) {
+        ConnectedComponents components = getLinearSpec().getConnectedComponents();
+        List<int[]> componentRows = new ArrayList<int[]>(components.getComponentCount());
+        for (int c = 0; c < components.getComponentCount(); c++) {
+            int[] subset = intersect(components.getRows(c), rows);
+            if (subset.length > 0)
+                componentRows.add(subset);
+        }
+
+        if (executor == null || rowSelector != null || componentRows.size() < 2) {
+            boolean converged = true;
+            for (int[] subset : componentRows) {
+                if (!solveRows(spec, subset))
+                    converged = false;
+            }
+            return converged;
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(componentRows.size());
+        for (final int[] subset : componentRows) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return solveRows(spec, subset);
+                }
+            });
+        }
+        boolean converged = true;
+        try {
+            for (Future<Boolean> future : executor.invokeAll(tasks)) {
+                if (!future.get())
+                    converged = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
         }
+        return converged;
     }
 
+    /**
+     * Intersects two ascending row lists.
+     *
+     * @param rows2 the second list or null for all rows
+     */
+    private static int[] intersect(int[] rows1, int[] rows2) {
+        if (rows2 == null)
+            return rows1;
+        int[] result = new int[Math.min(rows1.length, rows2.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < rows1.length && j < rows2.length) {
+            if (rows1[i] < rows2[j])
+                i++;
+            else if (rows1[i] > rows2[j])
+                j++;
+            else {
+                result[size++] = rows1[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Gets the rows that have to be solved. On a warm start after an optimal solve, only the constraints that are
+     * connected to a constraint that changed since the last solve have to be solved again.
+     *
+     * @return the rows in ascending order or null if all rows have to be solved
+     */
+    private int[] getRowsToSolve(CompiledLinearSpec spec) {
+        if (!isWarmStart() || getSolvingResult() != ResultType.OPTIMAL || spec.hasDynamicRightSides())
+            return null;
+        ChangeJournal journal = getLinearSpec().getChangeJournal();
+        if (!journal.isAvailableSince(journalVersion) || journal.hasStructuralChanges(journalVersion))
+            return null;
+
+        List<Constraint> affected = journal.getAffectedConstraints(journalVersion);
+        int[] rows = new int[affected.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = spec.getRow(affected.get(i));
+            if (rows[i] < 0)
+                return null;
+        }
+        // keep the order of a full sweep
+        Arrays.sort(rows);
+        return rows;
+    }
+
+    protected int doIteration(CompiledLinearSpec spec) {
+        Sweep sweep = new Sweep();
+        doIteration(spec, null, sweep, lambda);
+        return sweep.projections;
+    }
+
+    /**
+     * Result of a sweep.
+     */
+    private static class Sweep {
+        int projections;
+        // largest residual of the swept rows before they have been projected
+        double maxResidual;
+    }
+
+    /**
+     * Does one sweep over the given rows. The left side of a row is only calculated once; it is used to check if the
+     * row is satisfied, to track the residual and to project the row.
+     *
+     * @param rows the rows or null for all rows
+     * @param sweep receives the number of projections and the largest residual
+     * @param lambda the relaxation parameter of the projections
+     */
+    private void doIteration(CompiledLinearSpec spec, int[] rows, Sweep sweep, double lambda) {
+        final double specTolerance = getSpecTolerance();
+        final int n = rows == null ? spec.getConstraintCount() : rows.length;
+        int projections = 0;
+        double maxResidual = 0;
+        for (int r = 0; r < n; r++) {
+            int i = rows == null ? r : rows[r];
+            if (!spec.enabled[i])
+                continue;
+            final double leftSide = spec.leftSide(i);
+            final double residual = Math.abs(spec.residual(i, leftSide));
+            maxResidual = Math.max(maxResidual, residual);
+            if (spec.ops[i] == CompiledLinearSpec.OP_EQ || residual > specTolerance) {
+                spec.project(i, lambda, leftSide);
+                projections++;
+            }
+        }
+        sweep.projections = projections;
+        sweep.maxResidual = maxResidual;
+    }
+
+    /**
+     * Does as many projections as a sweep over the given rows, in the order of the row selector.
+     *
+     * @param rows the rows or null for all rows
+     * @param sweep receives the number of projections and the largest residual of the selected rows, 0 if the
+     *              selector found all rows satisfied
+     * @param lambda the relaxation parameter of the projections
+     */
+    private void doSelectedIteration(CompiledLinearSpec spec, int[] rows, Sweep sweep, double lambda) {
+        final double specTolerance = getSpecTolerance();
+        final int n = rows == null ? spec.getConstraintCount() : rows.length;
+        int projections = 0;
+        double maxResidual = 0;
+        for (int r = 0; r < n; r++) {
+            int i = rowSelector.selectRow();
+            if (i < 0) {
+                maxResidual = 0;
+                break;
+            }
+            final double leftSide = spec.leftSide(i);
+            final double residual = Math.abs(spec.residual(i, leftSide));
+            maxResidual = Math.max(maxResidual, residual);
+            if (spec.ops[i] == CompiledLinearSpec.OP_EQ || residual > specTolerance) {
+                spec.project(i, lambda, leftSide);
+                rowSelector.onProjected(i);
+                projections++;
+            }
+        }
+        sweep.projections = projections;
+        sweep.maxResidual = maxResidual;
+    }
+
+    /**
+     * Projects the variable values onto the hyperplane of a constraint.
+     *
+     * @deprecated the solver works on the compiled linear spec, use CompiledLinearSpec.project(int, double)
+     */
+    @Deprecated
+    protected void projectConstraint(Constraint c, double lambda) {
+        CompiledLinearSpec spec = compileConstraint(c);
+        spec.project(0, lambda);
+        spec.writeBack();
+    }
+
+    /**
+     * Calculates A_i * x for the current variable values.
+     *
+     * @deprecated use CompiledLinearSpec.leftSide(int)
+     */
+    @Deprecated
     protected double scalarProduct(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands)
-            ret += s.getCoeff() * s.getVar().getValue();
-        return ret;
+        return compileConstraint(new Constraint(summands, OperatorType.EQ, 0)).leftSide(0);
     }
 
+    /**
+     * Calculates |A_i|^2.
+     *
+     * @deprecated use CompiledLinearSpec.getRowNorm2(int)
+     */
+    @Deprecated
     protected double euclidianNorm(Summand[] summands) {
-        double ret = 0.0d;
-        for (Summand s : summands)
-            ret += s.getCoeff() * s.getCoeff();
-        return ret;
+        return compileConstraint(new Constraint(summands, OperatorType.EQ, 0)).getRowNorm2(0);
+    }
+
+    /**
+     * Compiles a single constraint over its own variables.
+     */
+    private static CompiledLinearSpec compileConstraint(Constraint constraint) {
+        List<Variable> variables = new ArrayList<Variable>();
+        for (Summand summand : constraint.getLeftSide()) {
+            if (!variables.contains(summand.getVar()))
+                variables.add(summand.getVar());
+        }
+        return CompiledLinearSpec.compile(variables, Collections.singletonList(constraint));
     }
 }
@@ -2,7 +2,10 @@ package nz.ac.auckland.linsolve;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Specification for a linear system. It contains variables and constraints.
@@ -27,9 +30,43 @@ public class LinearSpec {
     ArrayList<Constraint> constraints = new ArrayList<Constraint>(); // list of constraints in the spec
     private LinearSolver solver; // the linear solver which is used for solving the spec
     private long solvingTime = 0l;
+    // incremented when variables or constraints are added, removed or reordered or when a left side changes
+    private long structureVersion = 0l;
+    private final ChangeJournal changeJournal = new ChangeJournal(this);
+    // components of the current structure version, computed on demand
+    private ConnectedComponents connectedComponents;
+    private final List<IConstraintListener> constraintListeners = new ArrayList<IConstraintListener>();
+    // nesting depth of beginUpdate()/endUpdate()
+    private int updateDepth = 0;
+    // changes that are delivered to the solver and the listeners at the end of the update
+    private final Map<Constraint, PendingChange> pendingChanges = new LinkedHashMap<Constraint, PendingChange>();
+
+    private static class PendingChange {
+        // if the constraint was part of the spec when the update started
+        final boolean wasContained;
+        int changes;
+
+        PendingChange(boolean wasContained) {
+            this.wasContained = wasContained;
+        }
+    }
+
+    /**
+     * Listener for constraint changes, e.g. to invalidate results that have been derived from the constraints.
+     */
+    public interface IConstraintListener {
+        /**
+         * Called after a constraint of the spec changed, was added or was removed.
+         *
+         * @param change the ChangeJournal flags of the change
+         */
+        void onConstraintChanged(Constraint constraint, int change);
+    }
 
     public void setConstraints(ArrayList<Constraint> constraints) {
         this.constraints = constraints;
+        reindexConstraints();
+        onStructureChanged();
     }
 
     public LinearSolver getSolver() {
@@ -67,6 +104,135 @@ public class LinearSpec {
         this.tolerance = tolerance;
     }
 
+    /**
+     * Returns the version of the structure of the spec. The version changes when variables or constraints are added,
+     * removed or reordered or when the left side of a constraint changes. It does not change when only right sides,
+     * operators, penalties or the enabled state of constraints change.
+     */
+    public long getStructureVersion() {
+        return structureVersion;
+    }
+
+    void onStructureChanged() {
+        structureVersion++;
+    }
+
+    /**
+     * Returns the journal of the constraint changes since the last solve.
+     */
+    public ChangeJournal getChangeJournal() {
+        return changeJournal;
+    }
+
+    /**
+     * Returns the independent subproblems of the spec. The components are cached until the structure changes.
+     */
+    public ConnectedComponents getConnectedComponents() {
+        if (connectedComponents == null || connectedComponents.getStructureVersion() != structureVersion)
+            connectedComponents = ConnectedComponents.compute(this);
+        return connectedComponents;
+    }
+
+    public void addConstraintListener(IConstraintListener listener) {
+        constraintListeners.add(listener);
+    }
+
+    public void removeConstraintListener(IConstraintListener listener) {
+        constraintListeners.remove(listener);
+    }
+
+    /**
+     * Starts an update of the spec. Until the matching endUpdate() the solver and the constraint listeners are not
+     * notified about constraint changes; they get one notification per changed constraint when the update ends.
+     * Updates can be nested. Solving during an update delivers the changes collected so far.
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+    /**
+     * Ends an update, see beginUpdate().
+     */
+    public void endUpdate() {
+        if (updateDepth == 0)
+            throw new RuntimeException("endUpdate() without beginUpdate().");
+        updateDepth--;
+        if (updateDepth == 0)
+            flushUpdate();
+    }
+
+    public boolean isUpdating() {
+        return updateDepth > 0;
+    }
+
+    /**
+     * Delivers the changes of the current update collected so far, e.g. before results are derived from the spec.
+     */
+    public void flushUpdate() {
+        if (pendingChanges.isEmpty())
+            return;
+        List<Map.Entry<Constraint, PendingChange>> entries
+                = new ArrayList<Map.Entry<Constraint, PendingChange>>(pendingChanges.entrySet());
+        pendingChanges.clear();
+
+        boolean added = false;
+        for (Map.Entry<Constraint, PendingChange> entry : entries) {
+            Constraint constraint = entry.getKey();
+            PendingChange pending = entry.getValue();
+            boolean isContained = contains(constraint);
+            if (pending.wasContained && !isContained)
+                solver.remove(constraint);
+            else if (!pending.wasContained && isContained) {
+                solver.add(constraint);
+                added = true;
+            } else if (isContained) {
+                if ((pending.changes & ChangeJournal.REMOVED) != 0) {
+                    // removed and added again
+                    solver.remove(constraint);
+                    solver.add(constraint);
+                    added = true;
+                } else if ((pending.changes & ~ChangeJournal.ENABLED) != 0)
+                    solver.update(constraint);
+            }
+        }
+        if (added)
+            solver.removePresolved();
+
+        for (Map.Entry<Constraint, PendingChange> entry : entries) {
+            for (IConstraintListener listener : constraintListeners)
+                listener.onConstraintChanged(entry.getKey(), entry.getValue().changes);
+        }
+    }
+
+    /**
+     * Records a constraint change in the journal and notifies the listeners.
+     *
+     * @return false if the change is delivered at the end of the current update, i.e. if the solver should not be
+     * notified now
+     */
+    boolean recordChange(Constraint constraint, int change) {
+        changeJournal.record(constraint, change);
+        if (updateDepth > 0) {
+            PendingChange pending = pendingChanges.get(constraint);
+            if (pending == null) {
+                pending = new PendingChange((change & ChangeJournal.ADDED) == 0);
+                pendingChanges.put(constraint, pending);
+            }
+            pending.changes |= change;
+            return false;
+        }
+        for (IConstraintListener listener : constraintListeners)
+            listener.onConstraintChanged(constraint, change);
+        return true;
+    }
+
+    void onConstraintUpdated(Constraint constraint, int change) {
+        if ((change & ChangeJournal.STRUCTURAL_CHANGES) != 0)
+            onStructureChanged();
+        if (recordChange(constraint, change))
+            solver.update(constraint);
+    }
+
     void cleanSolverCookies() {
         for (Variable variable : getVariables())
             variable.setSolverCookie(null);
@@ -99,23 +265,76 @@ public class LinearSpec {
      * @return false if the variable is already in the specification
      */
     protected boolean addVariableIfNotInSpec(Variable variable) {
-        if (variables.contains(variable))
+        if (contains(variable))
             return false;
+        variable.index = variables.size();
         variables.add(variable);
+        onStructureChanged();
         getSolver().add(variable);
         return true;
     }
 
     /**
      * Removes a variable from spec.
+     *
+     * The last variable in the list is moved into the slot of the removed variable, i.e. the variable order is not
+     * preserved.
      */
     protected boolean removeVariable(Variable variable) {
-        if (!variables.remove(variable))
+        int index = indexOf(variable);
+        if (index < 0)
             return false;
+        Variable last = variables.remove(variables.size() - 1);
+        if (last != variable) {
+            variables.set(index, last);
+            last.index = index;
+        }
+        variable.index = -1;
+        onStructureChanged();
         getSolver().remove(variable);
         return true;
     }
 
+    /**
+     * Checks if a variable is part of this spec.
+     */
+    public boolean contains(Variable variable) {
+        return indexOf(variable) >= 0;
+    }
+
+    /**
+     * Gets the index of a variable in the variable list.
+     *
+     * @return the index or -1 if the variable is not part of this spec
+     */
+    public int indexOf(Variable variable) {
+        if (variable == null)
+            return -1;
+        int index = variable.index;
+        if (index < 0)
+            return -1;
+        if (index < variables.size() && variables.get(index) == variable)
+            return index;
+        // the variable list has been modified from outside
+        index = variables.indexOf(variable);
+        if (index >= 0)
+            reindexVariables();
+        return index;
+    }
+
+    private void reindexVariables() {
+        boolean changed = false;
+        for (int i = 0; i < variables.size(); i++) {
+            Variable variable = variables.get(i);
+            if (variable.index == i)
+                continue;
+            variable.index = i;
+            changed = true;
+        }
+        if (changed)
+            onStructureChanged();
+    }
+
     /**
      * Returns a list of constraints defined in this spec.
      */
@@ -129,26 +348,82 @@ public class LinearSpec {
      * @return the new constraint
      */
     public boolean addConstraint(Constraint constraint) {
-        if (constraints.contains(constraint))
+        if (contains(constraint))
             return false;
+        constraint.index = constraints.size();
         constraints.add(constraint);
-        solver.add(constraint);
-        solver.removePresolved();
+        onStructureChanged();
+        if (recordChange(constraint, ChangeJournal.ADDED)) {
+            solver.add(constraint);
+            solver.removePresolved();
+        }
         constraint.onConstraintAddedToLinearSpec(this);
         return true;
     }
 
     /**
      * removes a constraint from specification.
+     *
+     * The last constraint in the list is moved into the slot of the removed constraint, i.e. the constraint order is
+     * not preserved.
      */
     public boolean removeConstraint(Constraint constraint) {
-        if (!constraints.remove(constraint))
+        int index = indexOf(constraint);
+        if (index < 0)
             return false;
-        solver.remove(constraint);
+        Constraint last = constraints.remove(constraints.size() - 1);
+        if (last != constraint) {
+            constraints.set(index, last);
+            last.index = index;
+        }
+        constraint.index = -1;
+        onStructureChanged();
+        if (recordChange(constraint, ChangeJournal.REMOVED))
+            solver.remove(constraint);
         constraint.onConstraintRemovedFromLinearSpec(this);
         return true;
     }
 
+    /**
+     * Checks if a constraint is part of this spec.
+     */
+    public boolean contains(Constraint constraint) {
+        return indexOf(constraint) >= 0;
+    }
+
+    /**
+     * Gets the index of a constraint in the constraint list.
+     *
+     * @return the index or -1 if the constraint is not part of this spec
+     */
+    public int indexOf(Constraint constraint) {
+        if (constraint == null)
+            return -1;
+        int index = constraint.index;
+        if (index < 0)
+            return -1;
+        if (index < constraints.size() && constraints.get(index) == constraint)
+            return index;
+        // the constraint list has been modified from outside, e.g. sorted
+        index = constraints.indexOf(constraint);
+        if (index >= 0)
+            reindexConstraints();
+        return index;
+    }
+
+    private void reindexConstraints() {
+        boolean changed = false;
+        for (int i = 0; i < constraints.size(); i++) {
+            Constraint constraint = constraints.get(i);
+            if (constraint.index == i)
+                continue;
+            constraint.index = i;
+            changed = true;
+        }
+        if (changed)
+            onStructureChanged();
+    }
+
     /**
      * Creates a summand with one variable.
      */
@@ -286,14 +561,57 @@ public class LinearSpec {
         return maxError;
     }
 
+    public double getMaxSoftConstraintError() {
+        double maxError = 0;
+        for (Constraint constraint : constraints) {
+            if (!constraint.isEnabled() || constraint.isHard())
+                continue;
+            double error = constraint.error();
+            maxError = Math.max(maxError, error);
+        }
+        return maxError;
+    }
+
+    /**
+     * Compiles the spec into an array based view. The view is not updated when the spec changes.
+     */
+    public CompiledLinearSpec compile() {
+        return CompiledLinearSpec.compile(variables, constraints);
+    }
+
     public void sortConstraintsByDescendingPenalty() {
-        Collections.sort(constraints, new ConstraintComparatorByPenalty());
+        sortConstraints(new ConstraintComparatorByPenalty());
+    }
+
+    public void sortConstraints(Comparator<Constraint> comparator) {
+        Collections.sort(constraints, comparator);
+        reindexConstraints();
     }
 
     public ResultType solve() {
+        flushUpdate();
         long start = System.currentTimeMillis();
         ResultType resultType = solver.solve();
         solvingTime = System.currentTimeMillis() - start;
+        changeJournal.clear();
+        solver.onSolveFinished();
+        return resultType;
+    }
+
+    /**
+     * Solves the spec within a deadline, see AbstractLinearSolver.solve(long). Solvers that are not derived from
+     * AbstractLinearSolver ignore the deadline.
+     *
+     * @param deadlineNanos the deadline in System.nanoTime() time
+     */
+    public ResultType solve(long deadlineNanos) {
+        if (!(solver instanceof AbstractLinearSolver))
+            return solve();
+        flushUpdate();
+        long start = System.currentTimeMillis();
+        ResultType resultType = ((AbstractLinearSolver)solver).solve(deadlineNanos);
+        solvingTime = System.currentTimeMillis() - start;
+        changeJournal.clear();
         solver.onSolveFinished();
         return resultType;
     }
@@ -314,6 +632,15 @@ public class LinearSpec {
         return internalSolvingTime;
     }
 
+    /**
+     * Takes an immutable snapshot of the enabled and disabled constraints, the variables and their values. The
+     * snapshot can be solved concurrently without changing the variables, see AbstractLinearSolver.solve(
+     * LinearSpecSnapshot).
+     */
+    public LinearSpecSnapshot snapshot() {
+        return new LinearSpecSnapshot(CompiledLinearSpec.compile(variables, constraints), tolerance);
+    }
+
     /**
      * Returns the solution in form of a string.
      */
@@ -0,0 +1,89 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable copy of the problem of a linear spec: the compiled constraints, the variable values at the time of the
+ * snapshot and the variables themselves as ids for mapping a Solution back.
+ *
+ * A snapshot is not affected by later changes of the linear spec and can be solved by many solvers concurrently, see
+ * AbstractLinearSolver.solve(LinearSpecSnapshot). Every solve works on its own copy of the mutable parts.
+ */
+public final class LinearSpecSnapshot {
+    // never modified after construction
+    private final CompiledLinearSpec spec;
+    private final double tolerance;
+
+    LinearSpecSnapshot(CompiledLinearSpec spec, double tolerance) {
+        this.spec = spec;
+        this.tolerance = tolerance;
+        // same as AbstractLinearSolver.initVariableValues()
+        for (int i = 0; i < spec.values.length; i++) {
+            if (Double.isNaN(spec.values[i]))
+                spec.values[i] = 0;
+        }
+    }
+
+    /**
+     * Takes a snapshot of a compiled spec, e.g. of a subset of the constraints of a linear spec. The current solution
+     * vector of the compiled spec is used as start values.
+     */
+    public static LinearSpecSnapshot of(CompiledLinearSpec spec, double tolerance) {
+        return new LinearSpecSnapshot(spec.copy(), tolerance);
+    }
+
+    /**
+     * Gets a snapshot with a different right side of a constraint, e.g. a different content size. The snapshots share
+     * the left sides of the constraints.
+     *
+     * @param constraint a constraint of the snapshot
+     * @param rightSide the new right side
+     */
+    public LinearSpecSnapshot withRightSide(Constraint constraint, double rightSide) {
+        int row = spec.getRow(constraint);
+        if (row < 0)
+            throw new RuntimeException("Constraint is not part of the snapshot.");
+        CompiledLinearSpec copy = spec.copy();
+        copy.rightSides[row] = rightSide;
+        return new LinearSpecSnapshot(copy, tolerance);
+    }
+
+    /**
+     * Creates the working copy of a solve.
+     */
+    CompiledLinearSpec createSpec() {
+        return spec.copy();
+    }
+
+    /**
+     * The variables of the snapshot, the list index is the index into the values of a Solution.
+     */
+    public List<Variable> getVariables() {
+        return Collections.unmodifiableList(spec.variables);
+    }
+
+    /**
+     * Gets the index of a variable.
+     *
+     * @return the index or -1 if the variable is not part of the snapshot
+     */
+    public int indexOf(Variable variable) {
+        int index = variable.index;
+        if (index >= 0 && index < spec.variables.size() && spec.variables.get(index) == variable)
+            return index;
+        return spec.variables.indexOf(variable);
+    }
+
+    public int getVariableCount() {
+        return spec.getVariableCount();
+    }
+
+    public int getConstraintCount() {
+        return spec.getConstraintCount();
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+}
@@ -8,6 +8,7 @@
 package nz.ac.auckland.linsolve;
 
 
+import org.ojalgo.matrix.decomposition.LU;
 import org.ojalgo.matrix.store.MatrixStore;
 import org.ojalgo.matrix.store.PrimitiveDenseStore;
 import org.ojalgo.optimisation.Optimisation;
@@ -17,14 +18,58 @@ import java.util.ArrayList;
 import java.util.List;
 
 
+/**
+ * Solves the linear spec as a quadratic program using ojAlgo.
+ *
+ * If warm start is enabled, the assembled matrices are kept between solves. As long as the structure of the spec and
+ * the types of the constraints (soft, hard equality or hard inequality) did not change, only the right sides are
+ * rebuilt. If there are no hard inequalities, the KKT system is solved directly and its factorization is reused as
+ * well.
+ */
 public class OJAlgoSolver extends AbstractLinearSolver {
+    private static final byte SOFT = 0;
+    private static final byte HARD_EQ = 1;
+    private static final byte HARD_LE = 2;
+    private static final byte HARD_GE = 3;
+
+    // system of the last solve
+    private byte[] constraintTypes;
+    private List<Constraint> softConstraints;
+    private List<Constraint> hardEqualityConstraints;
+    private List<Constraint> hardInequalityConstraints;
+    private PrimitiveDenseStore hardEqA;
+    private PrimitiveDenseStore hardEqB;
+    private PrimitiveDenseStore hardIneqA;
+    private PrimitiveDenseStore hardIneqB;
+    private PrimitiveDenseStore softA;
+    private PrimitiveDenseStore softB;
+    private MatrixStore<Double> Q;
+    // factorized KKT system, only used if there are no hard inequalities
+    private LU<Double> kkt;
+
+    private static byte getType(Constraint constraint) {
+        if (!constraint.isHard())
+            return SOFT;
+        switch (constraint.getOp()) {
+            case LE:
+                return HARD_LE;
+            case GE:
+                return HARD_GE;
+            default:
+                return HARD_EQ;
+        }
+    }
+
+    private static double getFactor(Constraint constraint) {
+        if (constraint.isHard() && constraint.getOp() == OperatorType.GE)
+            return -1d;
+        return 1d;
+    }
 
     private void fillMatrix(PrimitiveDenseStore a, PrimitiveDenseStore b, List<Constraint> constraints) {
         for (int i = 0; i < constraints.size(); i++) {
             Constraint constraint = constraints.get(i);
-            double factor = 1d;
-            if (constraint.isHard() && constraint.getOp() == OperatorType.GE)
-                factor = -1d;
+            double factor = getFactor(constraint);
 
             for (Summand summand : constraint.getLeftSide())
                 a.set(i, summand.getVar().getIndex(), summand.getCoeff() * factor);
@@ -32,14 +77,33 @@ public class OJAlgoSolver extends AbstractLinearSolver {
         }
     }
 
-    @Override
-    protected ResultType doSolve() {
-        List<Variable> variables = getLinearSpec().getVariables();
+    private void fillRightSides(PrimitiveDenseStore b, List<Constraint> constraints) {
+        for (int i = 0; i < constraints.size(); i++) {
+            Constraint constraint = constraints.get(i);
+            b.set(i, 0, constraint.getRightSide() * getFactor(constraint));
+        }
+    }
 
-        List<Constraint> softConstraints = new ArrayList<Constraint>();
-        List<Constraint> hardEqualityConstraints = new ArrayList<Constraint>();
-        List<Constraint> hardInequalityConstraints = new ArrayList<Constraint>();
-        for (Constraint constraint : getLinearSpec().getConstraints()) {
+    private boolean hasSameConstraintTypes() {
+        List<Constraint> constraints = getLinearSpec().getConstraints();
+        if (constraintTypes == null || constraintTypes.length != constraints.size())
+            return false;
+        for (int i = 0; i < constraintTypes.length; i++) {
+            if (constraintTypes[i] != getType(constraints.get(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private void assemble(List<Variable> variables) {
+        List<Constraint> constraints = getLinearSpec().getConstraints();
+        constraintTypes = new byte[constraints.size()];
+        softConstraints = new ArrayList<Constraint>();
+        hardEqualityConstraints = new ArrayList<Constraint>();
+        hardInequalityConstraints = new ArrayList<Constraint>();
+        for (int i = 0; i < constraints.size(); i++) {
+            Constraint constraint = constraints.get(i);
+            constraintTypes[i] = getType(constraint);
             if (constraint.isHard()) {
                 if (constraint.getOp() == OperatorType.EQ)
                     hardEqualityConstraints.add(constraint);
@@ -49,39 +113,125 @@ public class OJAlgoSolver extends AbstractLinearSolver {
                 softConstraints.add(constraint);
         }
 
-        PrimitiveDenseStore hardEqA = PrimitiveDenseStore.FACTORY.makeZero(hardEqualityConstraints.size(),
-                variables.size());
-        PrimitiveDenseStore hardEqB = PrimitiveDenseStore.FACTORY.makeZero(hardEqualityConstraints.size(), 1);
+        hardEqA = PrimitiveDenseStore.FACTORY.makeZero(hardEqualityConstraints.size(), variables.size());
+        hardEqB = PrimitiveDenseStore.FACTORY.makeZero(hardEqualityConstraints.size(), 1);
         fillMatrix(hardEqA, hardEqB, hardEqualityConstraints);
 
-        PrimitiveDenseStore hardIneqA = PrimitiveDenseStore.FACTORY.makeZero(hardInequalityConstraints.size(),
-                variables.size());
-        PrimitiveDenseStore hardIneqB = PrimitiveDenseStore.FACTORY.makeZero(hardInequalityConstraints.size(), 1);
+        hardIneqA = PrimitiveDenseStore.FACTORY.makeZero(hardInequalityConstraints.size(), variables.size());
+        hardIneqB = PrimitiveDenseStore.FACTORY.makeZero(hardInequalityConstraints.size(), 1);
         fillMatrix(hardIneqA, hardIneqB, hardInequalityConstraints);
 
-        ConvexSolver.Builder builder = ConvexSolver.getBuilder().equalities(hardEqA, hardEqB)
-                .inequalities(hardIneqA, hardIneqB);
-
+        softA = null;
+        softB = null;
+        Q = null;
         if (softConstraints.size() > 0) {
-            PrimitiveDenseStore softA = PrimitiveDenseStore.FACTORY.makeZero(softConstraints.size(),
-                    variables.size());
-            PrimitiveDenseStore softB = PrimitiveDenseStore.FACTORY.makeZero(softConstraints.size(), 1);
+            softA = PrimitiveDenseStore.FACTORY.makeZero(softConstraints.size(), variables.size());
+            softB = PrimitiveDenseStore.FACTORY.makeZero(softConstraints.size(), 1);
             fillMatrix(softA, softB, softConstraints);
-            MatrixStore<Double> Q = softA.transpose().multiply(softA);
-            MatrixStore<Double> C = softA.transpose().multiply(softB);
-            builder.objective(Q, C);
+            Q = softA.transpose().multiply(softA);
         }
 
-        ConvexSolver solver = builder.build();
+        kkt = null;
+        if (isWarmStartEnabled() && Q != null && hardInequalityConstraints.size() == 0)
+            kkt = factorizeKKT(variables.size());
+    }
 
-        long startTime = System.currentTimeMillis();
-        final Optimisation.Result result = solver.solve();
-        internalSolvingTime = System.currentTimeMillis() - startTime;
+    /**
+     * Factorizes the KKT system of the equality constrained problem:
+     * | Q  A^T | | x      |   | C |
+     * | A  0   | | lambda | = | b |
+     *
+     * @return the factorization or null if the system is singular
+     */
+    private LU<Double> factorizeKKT(int nVariables) {
+        final int nEqualities = hardEqualityConstraints.size();
+        PrimitiveDenseStore system = PrimitiveDenseStore.FACTORY.makeZero(nVariables + nEqualities,
+                nVariables + nEqualities);
+        for (int i = 0; i < nVariables; i++) {
+            for (int j = 0; j < nVariables; j++)
+                system.set(i, j, Q.doubleValue(i, j));
+        }
+        for (int i = 0; i < nEqualities; i++) {
+            for (int j = 0; j < nVariables; j++) {
+                double value = hardEqA.doubleValue(i, j);
+                system.set(nVariables + i, j, value);
+                system.set(j, nVariables + i, value);
+            }
+        }
+        LU<Double> lu = LU.PRIMITIVE.make();
+        if (!lu.decompose(system) || !lu.isSolvable())
+            return null;
+        return lu;
+    }
 
-        for (int i = 0; i < variables.size(); i++)
-            variables.get(i).setValue(result.doubleValue(i));
+    private MatrixStore<Double> solveKKT(MatrixStore<Double> C, int nVariables) {
+        final int nEqualities = hardEqualityConstraints.size();
+        PrimitiveDenseStore rightSide = PrimitiveDenseStore.FACTORY.makeZero(nVariables + nEqualities, 1);
+        for (int i = 0; i < nVariables; i++)
+            rightSide.set(i, 0, C.doubleValue(i, 0));
+        for (int i = 0; i < nEqualities; i++)
+            rightSide.set(nVariables + i, 0, hardEqB.doubleValue(i, 0));
+        return kkt.solve(rightSide);
+    }
+
+    @Override
+    protected ResultType doSolve() {
+        List<Variable> variables = getLinearSpec().getVariables();
+
+        if (isWarmStart() && hasSameConstraintTypes()) {
+            // only the right sides changed
+            fillRightSides(hardEqB, hardEqualityConstraints);
+            fillRightSides(hardIneqB, hardInequalityConstraints);
+            if (softB != null)
+                fillRightSides(softB, softConstraints);
+        } else
+            assemble(variables);
+
+        MatrixStore<Double> C = null;
+        if (softA != null)
+            C = softA.transpose().multiply(softB);
+
+        if (kkt != null) {
+            long startTime = System.currentTimeMillis();
+            MatrixStore<Double> solution = solveKKT(C, variables.size());
+            internalSolvingTime = System.currentTimeMillis() - startTime;
+
+            for (int i = 0; i < variables.size(); i++)
+                variables.get(i).setValue(solution.doubleValue(i, 0));
+        } else {
+            ConvexSolver.Builder builder = ConvexSolver.getBuilder().equalities(hardEqA, hardEqB)
+                    .inequalities(hardIneqA, hardIneqB);
+            if (Q != null)
+                builder.objective(Q, C);
+
+            ConvexSolver solver = builder.build();
+
+            long startTime = System.currentTimeMillis();
+            final Optimisation.Result result = solver.solve();
+            internalSolvingTime = System.currentTimeMillis() - startTime;
+
+            for (int i = 0; i < variables.size(); i++)
+                variables.get(i).setValue(result.doubleValue(i));
+        }
+
+        if (!isWarmStartEnabled())
+            clearSystem();
 
         return ResultType.OPTIMAL;
     }
-}
 
+    private void clearSystem() {
+        constraintTypes = null;
+        softConstraints = null;
+        hardEqualityConstraints = null;
+        hardInequalityConstraints = null;
+        hardEqA = null;
+        hardEqB = null;
+        hardIneqA = null;
+        hardIneqB = null;
+        softA = null;
+        softB = null;
+        Q = null;
+        kkt = null;
+    }
+}
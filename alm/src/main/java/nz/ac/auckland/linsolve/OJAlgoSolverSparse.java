@@ -7,16 +7,35 @@
  */
 package nz.ac.auckland.linsolve;
 
-import org.ojalgo.matrix.store.MatrixStore;
 import org.ojalgo.matrix.store.SparseStore;
 import org.ojalgo.optimisation.Optimisation;
 import org.ojalgo.optimisation.convex.ConvexSolver;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
+/**
+ * Solves the soft constraints in the least squares sense using the convex solver of ojAlgo.
+ *
+ * The objective is the penalty weighted normal equations Q = A_s^T W A_s and C = A_s^T W b_s of the soft
+ * constraints. They are assembled in a single pass over the soft constraints: the k summands of a constraint add k * k
+ * entries to Q. The positions of these entries in Q are computed once and reused as long as the structure of the
+ * linear spec and the set of soft constraints do not change.
+ */
 public class OJAlgoSolverSparse extends AbstractLinearSolver {
+    // pattern of Q, see updatePattern()
+    private long patternStructureVersion = -1;
+    private boolean[] patternHard;
+    // position in entryValues of every summand pair of the soft constraints, in the order of the constraints
+    private int[] entryPositions;
+    private int[] entryRows;
+    private int[] entryColumns;
+    private double[] entryValues;
+    private SparseStore<Double> q;
 
     private void fillMatrix(SparseStore a, SparseStore b, List<Constraint> constraints) {
         for (int i = 0; i < constraints.size(); i++) {
@@ -31,6 +50,89 @@ public class OJAlgoSolverSparse extends AbstractLinearSolver {
         }
     }
 
+    /**
+     * Builds the pattern of Q if the structure of the linear spec or the set of soft constraints changed.
+     */
+    private void updatePattern(List<Constraint> softConstraints, int nVariables) {
+        final List<Constraint> constraints = getLinearSpec().getConstraints();
+        boolean[] hard = new boolean[constraints.size()];
+        for (int i = 0; i < hard.length; i++)
+            hard[i] = constraints.get(i).isHard();
+        if (patternStructureVersion == getLinearSpec().getStructureVersion() && Arrays.equals(patternHard, hard))
+            return;
+
+        int nPairs = 0;
+        for (Constraint constraint : softConstraints)
+            nPairs += constraint.getLeftSide().length * constraint.getLeftSide().length;
+        entryPositions = new int[nPairs];
+        Map<Long, Integer> positions = new HashMap<Long, Integer>();
+        List<Integer> rows = new ArrayList<Integer>();
+        List<Integer> columns = new ArrayList<Integer>();
+        int pair = 0;
+        for (Constraint constraint : softConstraints) {
+            for (Summand summand1 : constraint.getLeftSide()) {
+                for (Summand summand2 : constraint.getLeftSide()) {
+                    int row = summand1.getVar().getIndex();
+                    int column = summand2.getVar().getIndex();
+                    Long key = (long)row * nVariables + column;
+                    Integer position = positions.get(key);
+                    if (position == null) {
+                        position = rows.size();
+                        positions.put(key, position);
+                        rows.add(row);
+                        columns.add(column);
+                    }
+                    entryPositions[pair++] = position;
+                }
+            }
+        }
+        entryRows = new int[rows.size()];
+        entryColumns = new int[rows.size()];
+        for (int i = 0; i < entryRows.length; i++) {
+            entryRows[i] = rows.get(i);
+            entryColumns[i] = columns.get(i);
+        }
+        entryValues = new double[entryRows.length];
+        q = SparseStore.makePrimitive(nVariables, nVariables);
+
+        patternStructureVersion = getLinearSpec().getStructureVersion();
+        patternHard = hard;
+    }
+
+    /**
+     * Fills Q = A_s^T W A_s and C = A_s^T W b_s, the weights are the penalties of the soft constraints relative to
+     * the largest penalty.
+     */
+    private void fillObjective(List<Constraint> softConstraints, SparseStore<Double> c) {
+        Arrays.fill(entryValues, 0);
+        double[] weightedRightSides = new double[(int)c.countRows()];
+        // Scaling the objective does not change the solution. However, the convex solver of ojAlgo diverges for
+        // scaled down objectives, so the largest weight is scaled to 1.
+        double maxPenalty = 0;
+        for (Constraint constraint : softConstraints)
+            maxPenalty = Math.max(maxPenalty, constraint.getPenalty());
+        if (maxPenalty == 0)
+            maxPenalty = 1;
+        int pair = 0;
+        for (Constraint constraint : softConstraints) {
+            final double weight = constraint.getPenalty() / maxPenalty;
+            final double weightedRightSide = weight * constraint.getRightSide();
+            for (Summand summand1 : constraint.getLeftSide()) {
+                final double weightedCoefficient = weight * summand1.getCoeff();
+                for (Summand summand2 : constraint.getLeftSide())
+                    entryValues[entryPositions[pair++]] += weightedCoefficient * summand2.getCoeff();
+                weightedRightSides[summand1.getVar().getIndex()] += weightedRightSide * summand1.getCoeff();
+            }
+        }
+        // the pattern of Q is fixed, i.e. all entries are overwritten
+        for (int i = 0; i < entryValues.length; i++)
+            q.set(entryRows[i], entryColumns[i], entryValues[i]);
+        for (int j = 0; j < weightedRightSides.length; j++) {
+            if (weightedRightSides[j] != 0)
+                c.set(j, 0, weightedRightSides[j]);
+        }
+    }
+
     @Override
     protected ResultType doSolve() {
         List<Variable> variables = getLinearSpec().getVariables();
@@ -62,13 +164,10 @@ public class OJAlgoSolverSparse extends AbstractLinearSolver {
                 .inequalities(hardIneqA, hardIneqB);
 
         if (softConstraints.size() > 0) {
-            SparseStore<Double> softA = SparseStore.makePrimitive(softConstraints.size(),
-                    variables.size());
-            SparseStore<Double> softB = SparseStore.makePrimitive(softConstraints.size(), 1);
-            fillMatrix(softA, softB, softConstraints);
-            MatrixStore<Double> Q = softA.transpose().multiply(softA);
-            MatrixStore<Double> C = softA.transpose().multiply(softB);
-            builder.objective(Q, C);
+            updatePattern(softConstraints, variables.size());
+            SparseStore<Double> c = SparseStore.makePrimitive(variables.size(), 1);
+            fillObjective(softConstraints, c);
+            builder.objective(q, c);
         }
 
         long startTime = System.currentTimeMillis();
@@ -0,0 +1,230 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Kaczmarz solver that projects blocks of constraints concurrently.
+ *
+ * The constraints are colored such that constraints of the same color do not share a variable. The projections of
+ * the constraints of one color are independent of each other, i.e. they can be done in place and in parallel without
+ * changing the result of the sweep. A sweep processes the colors one after another. Colors with only a few
+ * constraints are projected on the calling thread to avoid the synchronization overhead.
+ */
+public class ParallelKaczmarzSolver extends AbstractLinearSolver {
+    public static final int DEFAULT_MIN_PARALLEL_ROWS = 256;
+
+    private int iteration = KaczmarzSolver.GUI_ITERATION;
+    private double lambda = KaczmarzSolver.DEFAULT_LAMBDA;
+    private double tolerance = KaczmarzSolver.DEFAULT_TOLERANCE;
+    private final ExecutorService executor;
+    private final int nTasks;
+    private int minParallelRows = DEFAULT_MIN_PARALLEL_ROWS;
+
+    // coloring of the compiled spec of the last solve
+    private CompiledLinearSpec coloredSpec;
+    // rows of color c are colorRows[colorOffsets[c]] to colorRows[colorOffsets[c + 1] - 1]
+    private int[] colorOffsets;
+    private int[] colorRows;
+    // projection tasks of every color, null if the color is projected on the calling thread
+    private List<List<Callable<Void>>> colorTasks;
+    private List<Callable<Double>> errorTasks;
+
+    /**
+     * @param executor the executor that runs the projections
+     * @param nTasks number of tasks the constraints of a color are split into, e.g. the number of threads
+     */
+    public ParallelKaczmarzSolver(ExecutorService executor, int nTasks) {
+        this.executor = executor;
+        this.nTasks = nTasks;
+    }
+
+    /**
+     * Sets the minimal number of constraints of a color that are projected in parallel.
+     */
+    public void setMinParallelRows(int minParallelRows) {
+        this.minParallelRows = minParallelRows;
+        coloredSpec = null;
+    }
+
+    public int getMinParallelRows() {
+        return minParallelRows;
+    }
+
+    @Override
+    protected ResultType doSolve() {
+        initVariableValues();
+        return doSolve(compileLinearSpec());
+    }
+
+    @Override
+    protected ResultType doSolve(CompiledLinearSpec spec) {
+        if (spec != coloredSpec)
+            color(spec);
+
+        double maxError = Double.MAX_VALUE;
+        for (int i = 0; i < iteration && maxError > tolerance; i++) {
+            doIteration(spec);
+            maxError = getMaxError(spec);
+        }
+        if (!isWarmStartEnabled())
+            coloredSpec = null;
+
+        if (maxError <= tolerance)
+            return ResultType.OPTIMAL;
+        return ResultType.SUBOPTIMAL;
+    }
+
+    /**
+     * Greedy coloring: every row gets the smallest color that is not used by a previous row sharing a variable.
+     */
+    private void color(final CompiledLinearSpec spec) {
+        final int nRows = spec.getConstraintCount();
+        final int nColumns = spec.getVariableCount();
+        // rows of every column
+        int[] columnOffsets = new int[nColumns + 1];
+        for (int p = 0; p < spec.getRowStart(nRows); p++)
+            columnOffsets[spec.getColumn(p) + 1]++;
+        for (int j = 0; j < nColumns; j++)
+            columnOffsets[j + 1] += columnOffsets[j];
+        int[] columnRows = new int[columnOffsets[nColumns]];
+        int[] fill = columnOffsets.clone();
+        for (int i = 0; i < nRows; i++) {
+            for (int p = spec.getRowStart(i); p < spec.getRowEnd(i); p++)
+                columnRows[fill[spec.getColumn(p)]++] = i;
+        }
+
+        int[] rowColors = new int[nRows];
+        // forbidden[c] == i if color c is used by a neighbour of row i
+        int[] forbidden = new int[nRows + 1];
+        Arrays.fill(forbidden, -1);
+        int nColors = 0;
+        for (int i = 0; i < nRows; i++) {
+            for (int p = spec.getRowStart(i); p < spec.getRowEnd(i); p++) {
+                final int column = spec.getColumn(p);
+                for (int q = columnOffsets[column]; q < columnOffsets[column + 1]; q++) {
+                    final int row = columnRows[q];
+                    if (row >= i)
+                        break;
+                    forbidden[rowColors[row]] = i;
+                }
+            }
+            int color = 0;
+            while (forbidden[color] == i)
+                color++;
+            rowColors[i] = color;
+            nColors = Math.max(nColors, color + 1);
+        }
+
+        colorOffsets = new int[nColors + 1];
+        for (int i = 0; i < nRows; i++)
+            colorOffsets[rowColors[i] + 1]++;
+        for (int c = 0; c < nColors; c++)
+            colorOffsets[c + 1] += colorOffsets[c];
+        colorRows = new int[nRows];
+        fill = colorOffsets.clone();
+        for (int i = 0; i < nRows; i++)
+            colorRows[fill[rowColors[i]]++] = i;
+
+        colorTasks = new ArrayList<List<Callable<Void>>>(nColors);
+        for (int c = 0; c < nColors; c++) {
+            final int start = colorOffsets[c];
+            final int end = colorOffsets[c + 1];
+            if (executor == null || end - start < minParallelRows) {
+                colorTasks.add(null);
+                continue;
+            }
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nTasks);
+            for (int t = 0; t < nTasks; t++) {
+                final int chunkStart = start + (int)((long)(end - start) * t / nTasks);
+                final int chunkEnd = start + (int)((long)(end - start) * (t + 1) / nTasks);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        project(spec, chunkStart, chunkEnd);
+                        return null;
+                    }
+                });
+            }
+            colorTasks.add(tasks);
+        }
+
+        errorTasks = null;
+        if (executor != null && nRows >= minParallelRows) {
+            errorTasks = new ArrayList<Callable<Double>>(nTasks);
+            for (int t = 0; t < nTasks; t++) {
+                final int chunkStart = (int)((long)nRows * t / nTasks);
+                final int chunkEnd = (int)((long)nRows * (t + 1) / nTasks);
+                errorTasks.add(new Callable<Double>() {
+                    @Override
+                    public Double call() {
+                        return getMaxError(spec, chunkStart, chunkEnd);
+                    }
+                });
+            }
+        }
+        coloredSpec = spec;
+    }
+
+    /**
+     * Projects the rows colorRows[start] to colorRows[end - 1].
+     */
+    private void project(CompiledLinearSpec spec, int start, int end) {
+        final double specTolerance = getSpecTolerance();
+        for (int r = start; r < end; r++) {
+            int i = colorRows[r];
+            if (spec.enabled[i] && (spec.ops[i] == CompiledLinearSpec.OP_EQ || !spec.isSatisfied(i, specTolerance)))
+                spec.project(i, lambda);
+        }
+    }
+
+    private static double getMaxError(CompiledLinearSpec spec, int start, int end) {
+        double maxError = 0;
+        for (int i = start; i < end; i++) {
+            if (spec.enabled[i])
+                maxError = Math.max(maxError, spec.error(i));
+        }
+        return maxError;
+    }
+
+    /**
+     * Does one sweep, color by color.
+     */
+    protected void doIteration(CompiledLinearSpec spec) {
+        for (int c = 0; c < colorTasks.size(); c++) {
+            List<Callable<Void>> tasks = colorTasks.get(c);
+            if (tasks == null)
+                project(spec, colorOffsets[c], colorOffsets[c + 1]);
+            else
+                invokeAll(tasks);
+        }
+    }
+
+    private double getMaxError(CompiledLinearSpec spec) {
+        if (errorTasks == null)
+            return spec.getMaxError();
+        double maxError = 0;
+        for (Double error : invokeAll(errorTasks))
+            maxError = Math.max(maxError, error);
+        return maxError;
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> future : executor.invokeAll(tasks))
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,353 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduced version of a linear spec and the mapping of its solution back to the original variables (presolve and
+ * postsolve).
+ *
+ * The reduction is done on the enabled constraints:
+ * <ul>
+ * <li>hard equalities with one variable, e.g. the x = 0 constraint of the left tab, fix the variable. Fixed variables
+ * are substituted into the other constraints.</li>
+ * <li>hard equalities with two variables alias one variable to the other, i.e. x = s * y + o. Chains of such
+ * equalities collapse into a single variable.</li>
+ * <li>constraints whose variables are all fixed or aliased to each other become constant and are dropped, e.g. a min
+ * size inequality between two fixed tabs. If such a hard constraint is violated the spec is not reduced. Min size
+ * inequalities that are only implied by other constraints are not detected.</li>
+ * <li>hard inequalities with the same left side are merged into the tightest one</li>
+ * </ul>
+ * The remaining constraints are expressed in the remaining (root) variables and are stored as new constraints that
+ * are not part of the linear spec. Solvers solve these instead of the original constraints; postsolve() then sets the
+ * fixed and aliased variables.
+ *
+ * The model depends on the right sides, operators, penalties and enabled states of the constraints. It is valid as
+ * long as the change journal of the linear spec did not record a change, see isValid().
+ */
+public class PresolvedSpec {
+    // coefficients below this are considered to be zero after substitution
+    static final double ZERO = 1e-12;
+
+    private final LinearSpec linearSpec;
+    private final long journalVersion;
+    private final long structureVersion;
+    private final boolean cacheable;
+
+    private final List<Variable> variables;
+    // x_j = scale[j] * x_root[j] + offset[j], root[j] == -1 if x_j is fixed to offset[j]
+    private final int[] root;
+    private final double[] scale;
+    private final double[] offset;
+
+    private final List<Variable> reducedVariables = new ArrayList<Variable>();
+    private final List<Constraint> reducedConstraints = new ArrayList<Constraint>();
+    private CompiledLinearSpec compiledSpec;
+
+    private PresolvedSpec(LinearSpec linearSpec) {
+        this.linearSpec = linearSpec;
+        journalVersion = linearSpec.getChangeJournal().getVersion();
+        structureVersion = linearSpec.getStructureVersion();
+        variables = new ArrayList<Variable>(linearSpec.getVariables());
+        final int n = variables.size();
+        root = new int[n];
+        scale = new double[n];
+        offset = new double[n];
+        for (int j = 0; j < n; j++) {
+            root[j] = j;
+            scale[j] = 1;
+        }
+        boolean hasDynamicRightSides = false;
+        for (Constraint constraint : linearSpec.getConstraints()) {
+            if (constraint.hasDynamicRightSide())
+                hasDynamicRightSides = true;
+        }
+        cacheable = !hasDynamicRightSides;
+    }
+
+    /**
+     * Presolves the enabled constraints of a linear spec.
+     *
+     * @return the presolved model or null if the substitution violates a hard constraint, i.e. the spec can't be
+     * reduced
+     */
+    public static PresolvedSpec presolve(LinearSpec linearSpec) {
+        PresolvedSpec presolvedSpec = new PresolvedSpec(linearSpec);
+        if (!presolvedSpec.reduce())
+            return null;
+        return presolvedSpec;
+    }
+
+    /**
+     * Checks if the model still matches the linear spec.
+     */
+    public boolean isValid() {
+        return cacheable && linearSpec.getStructureVersion() == structureVersion
+                && linearSpec.getChangeJournal().getVersion() == journalVersion;
+    }
+
+    /**
+     * Left side of a constraint expressed in root variables: the coefficient of every root column and the constant
+     * part.
+     */
+    private class ReducedRow {
+        final Map<Integer, Double> coefficients = new HashMap<Integer, Double>();
+        double constant = 0;
+
+        ReducedRow(Constraint constraint) {
+            for (Summand summand : constraint.getLeftSide()) {
+                int column = linearSpec.indexOf(summand.getVar());
+                int rootColumn = find(column);
+                double coefficient = summand.getCoeff();
+                constant += coefficient * offset[column];
+                if (rootColumn < 0)
+                    continue;
+                Double sum = coefficients.get(rootColumn);
+                coefficients.put(rootColumn, (sum == null ? 0 : sum) + coefficient * scale[column]);
+            }
+            double maxCoefficient = 0;
+            for (Double coefficient : coefficients.values())
+                maxCoefficient = Math.max(maxCoefficient, Math.abs(coefficient));
+            List<Integer> zeros = new ArrayList<Integer>();
+            for (Map.Entry<Integer, Double> entry : coefficients.entrySet()) {
+                if (Math.abs(entry.getValue()) <= ZERO * Math.max(1, maxCoefficient))
+                    zeros.add(entry.getKey());
+            }
+            for (Integer column : zeros)
+                coefficients.remove(column);
+        }
+    }
+
+    /**
+     * Finds the root of a column and makes scale and offset relative to the root.
+     *
+     * @return the root column or -1 if the column is fixed
+     */
+    private int find(int column) {
+        int parent = root[column];
+        if (parent < 0 || parent == column)
+            return parent;
+        int rootColumn = find(parent);
+        // x = s * parent + o and parent = s' * root + o'
+        if (rootColumn < 0) {
+            offset[column] = scale[column] * offset[parent] + offset[column];
+            scale[column] = 0;
+        } else {
+            offset[column] = scale[column] * offset[parent] + offset[column];
+            scale[column] = scale[column] * scale[parent];
+        }
+        root[column] = rootColumn;
+        return rootColumn;
+    }
+
+    private boolean isHardEquality(Constraint constraint) {
+        return constraint.isEnabled() && constraint.isHard() && constraint.getOp() == OperatorType.EQ;
+    }
+
+    private boolean reduce() {
+        final List<Constraint> constraints = linearSpec.getConstraints();
+        final double tolerance = linearSpec.getTolerance();
+        boolean[] eliminated = new boolean[constraints.size()];
+        // substitute the hard equalities until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < constraints.size(); i++) {
+                Constraint constraint = constraints.get(i);
+                if (eliminated[i] || !isHardEquality(constraint))
+                    continue;
+                ReducedRow row = new ReducedRow(constraint);
+                double rightSide = constraint.getRightSide() - row.constant;
+                if (row.coefficients.size() == 0) {
+                    if (Math.abs(rightSide) > tolerance)
+                        return false;
+                    eliminated[i] = true;
+                } else if (row.coefficients.size() == 1) {
+                    Map.Entry<Integer, Double> entry = row.coefficients.entrySet().iterator().next();
+                    fix(entry.getKey(), rightSide / entry.getValue());
+                    eliminated[i] = true;
+                    changed = true;
+                } else if (row.coefficients.size() == 2) {
+                    // a * x + b * y = r -> x = -b / a * y + r / a
+                    Integer[] columns = row.coefficients.keySet().toArray(new Integer[2]);
+                    int x = Math.max(columns[0], columns[1]);
+                    int y = Math.min(columns[0], columns[1]);
+                    double a = row.coefficients.get(x);
+                    double b = row.coefficients.get(y);
+                    root[x] = y;
+                    scale[x] = -b / a;
+                    offset[x] = rightSide / a;
+                    eliminated[i] = true;
+                    changed = true;
+                }
+            }
+        }
+
+        // express the remaining constraints in root variables
+        boolean[] used = new boolean[variables.size()];
+        Map<RowKey, RowKey> hardInequalities = new HashMap<RowKey, RowKey>();
+        for (int i = 0; i < constraints.size(); i++) {
+            Constraint constraint = constraints.get(i);
+            if (eliminated[i] || !constraint.isEnabled())
+                continue;
+            ReducedRow row = new ReducedRow(constraint);
+            final double rightSide = constraint.getRightSide() - row.constant;
+            if (row.coefficients.size() == 0) {
+                // a violated hard constraint must stay visible to the solver
+                if (constraint.isHard() && !isSatisfied(constraint.getOp(), rightSide, tolerance))
+                    return false;
+                continue;
+            }
+            RowKey key = null;
+            if (constraint.isHard() && constraint.getOp() != OperatorType.EQ) {
+                key = new RowKey(row, constraint.getOp(), rightSide);
+                RowKey existing = hardInequalities.get(key);
+                if (existing != null) {
+                    // keep the tighter bound
+                    if (key.op == OperatorType.GE ? key.rightSide > existing.rightSide
+                            : key.rightSide < existing.rightSide) {
+                        existing.rightSide = key.rightSide;
+                        existing.constraint.setRightSide(key.rightSide / existing.factor);
+                    }
+                    continue;
+                }
+            }
+
+            int[] columns = new int[row.coefficients.size()];
+            int k = 0;
+            for (Integer column : row.coefficients.keySet())
+                columns[k++] = column;
+            Arrays.sort(columns);
+            Summand[] summands = new Summand[columns.length];
+            for (k = 0; k < columns.length; k++) {
+                summands[k] = new Summand(row.coefficients.get(columns[k]), variables.get(columns[k]));
+                used[columns[k]] = true;
+            }
+            Constraint reduced = new Constraint(summands, constraint.getOp(), rightSide, constraint.getPenalty());
+            reducedConstraints.add(reduced);
+            if (key != null) {
+                key.constraint = reduced;
+                hardInequalities.put(key, key);
+            }
+        }
+        for (int j = 0; j < variables.size(); j++) {
+            if (used[j])
+                reducedVariables.add(variables.get(j));
+        }
+        return true;
+    }
+
+    /**
+     * Checks a constant row, i.e. 0 (op) rightSide.
+     */
+    private static boolean isSatisfied(OperatorType op, double rightSide, double tolerance) {
+        if (op == OperatorType.GE)
+            return rightSide <= tolerance;
+        if (op == OperatorType.LE)
+            return rightSide >= -tolerance;
+        return Math.abs(rightSide) <= tolerance;
+    }
+
+    private void fix(int column, double value) {
+        root[column] = -1;
+        scale[column] = 0;
+        offset[column] = value;
+    }
+
+    /**
+     * Normalized left side of a reduced row: the columns are sorted and the coefficients are scaled such that the
+     * first one is 1. The operator and the right side are adjusted accordingly.
+     */
+    private static class RowKey {
+        final int[] columns;
+        final double[] coefficients;
+        final OperatorType op;
+        // normalized left side = factor * left side
+        final double factor;
+        double rightSide;
+        // the reduced constraint of the row
+        Constraint constraint;
+
+        RowKey(ReducedRow row, OperatorType op, double rightSide) {
+            columns = new int[row.coefficients.size()];
+            int k = 0;
+            for (Integer column : row.coefficients.keySet())
+                columns[k++] = column;
+            Arrays.sort(columns);
+            factor = 1 / row.coefficients.get(columns[0]);
+            coefficients = new double[columns.length];
+            for (k = 0; k < columns.length; k++)
+                coefficients[k] = row.coefficients.get(columns[k]) * factor;
+            if (factor < 0 && op != OperatorType.EQ)
+                op = op == OperatorType.GE ? OperatorType.LE : OperatorType.GE;
+            this.op = op;
+            this.rightSide = rightSide * factor;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof RowKey))
+                return false;
+            RowKey other = (RowKey)object;
+            return op == other.op && Arrays.equals(columns, other.columns)
+                    && Arrays.equals(coefficients, other.coefficients);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * op.hashCode() + Arrays.hashCode(columns)) + Arrays.hashCode(coefficients);
+        }
+    }
+
+    /**
+     * Gets the compiled view of the reduced constraints. The view is reused as long as the model is used, i.e. warm
+     * starts can continue from the previous solution.
+     */
+    public CompiledLinearSpec compile() {
+        if (compiledSpec == null)
+            compiledSpec = CompiledLinearSpec.compile(reducedVariables, reducedConstraints);
+        else
+            compiledSpec.refresh();
+        return compiledSpec;
+    }
+
+    /**
+     * Sets the fixed and aliased variables from the values of the root variables.
+     */
+    public void postsolve() {
+        for (int j = 0; j < variables.size(); j++) {
+            int rootColumn = find(j);
+            if (rootColumn == j)
+                continue;
+            if (rootColumn < 0)
+                variables.get(j).setValue(offset[j]);
+            else
+                variables.get(j).setValue(scale[j] * variables.get(rootColumn).getValue() + offset[j]);
+        }
+    }
+
+    public int getOriginalVariableCount() {
+        return variables.size();
+    }
+
+    public int getOriginalConstraintCount() {
+        return linearSpec.getConstraints().size();
+    }
+
+    /**
+     * The variables of the reduced constraints, a subset of the variables of the linear spec.
+     */
+    public List<Variable> getVariables() {
+        return reducedVariables;
+    }
+
+    /**
+     * The reduced constraints. They are not part of the linear spec.
+     */
+    public List<Constraint> getConstraints() {
+        return reducedConstraints;
+    }
+}
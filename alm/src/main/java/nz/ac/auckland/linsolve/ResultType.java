@@ -6,7 +6,10 @@ package nz.ac.auckland.linsolve;
 public enum ResultType {
     NOMEMORY(-2), ERROR(-1), OPTIMAL(0), SUBOPTIMAL(1), INFEASIBLE(2), UNBOUNDED(3),
     DEGENERATE(4), NUMFAILURE(5), USERABORT(6), TIMEOUT(7), PRESOLVED(9), PROCFAIL(10),
-    PROCBREAK(11), FEASFOUND(12), NOFEASFOUND(13);
+    PROCBREAK(11), FEASFOUND(12), NOFEASFOUND(13),
+    // the solve has been stopped at its deadline, the hard constraints are satisfied but the soft constraints are
+    // not optimized yet
+    BESTEFFORT(14);
 
     @SuppressWarnings("unused")
     private int value;
@@ -50,6 +53,8 @@ public enum ResultType {
                 return FEASFOUND;
             case 13:
                 return NOFEASFOUND;
+            case 14:
+                return BESTEFFORT;
             default:
                 return ERROR;
         }
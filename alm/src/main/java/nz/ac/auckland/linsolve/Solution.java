@@ -0,0 +1,49 @@
+package nz.ac.auckland.linsolve;
+
+/**
+ * Solution of a LinearSpecSnapshot. The solution is detached from the variables until it is applied.
+ */
+public final class Solution {
+    private final LinearSpecSnapshot snapshot;
+    private final double[] values;
+    private final ResultType result;
+
+    Solution(LinearSpecSnapshot snapshot, double[] values, ResultType result) {
+        this.snapshot = snapshot;
+        this.values = values;
+        this.result = result;
+    }
+
+    public LinearSpecSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public ResultType getResult() {
+        return result;
+    }
+
+    /**
+     * Gets the value of a variable of the snapshot.
+     */
+    public double getValue(Variable variable) {
+        int index = snapshot.indexOf(variable);
+        if (index < 0)
+            throw new RuntimeException("Variable '" + variable + "' is not part of the snapshot.");
+        return values[index];
+    }
+
+    /**
+     * Gets a copy of the values, in the order of the variables of the snapshot.
+     */
+    public double[] getValues() {
+        return values.clone();
+    }
+
+    /**
+     * Sets the values of the variables of the snapshot.
+     */
+    public void apply() {
+        for (int i = 0; i < values.length; i++)
+            snapshot.getVariables().get(i).setValue(values[i]);
+    }
+}
@@ -0,0 +1,130 @@
+package nz.ac.auckland.linsolve;
+
+/**
+ * Statistics of a single solve.
+ *
+ * The total time, the result and the final errors are filled in by AbstractLinearSolver for every solver. The other
+ * fields are solver-specific and stay 0 if a solver does not report them:
+ * <ul>
+ * <li>outer iterations: solvers that call AbstractLinearSolver.notifyIteration(), e.g. the Kaczmarz sweeps or the
+ * force solver iterations</li>
+ * <li>projections: KaczmarzSolver and ForceSolver</li>
+ * <li>convergence check time: KaczmarzSolver</li>
+ * <li>inner iterations and soft/hard phase times: ForceSolver only</li>
+ * </ul>
+ * The direct solvers, e.g. the OJAlgo and the sparse least squares solvers, only report the common fields.
+ *
+ * All times are in nanoseconds.
+ */
+public class SolveStats {
+    private ResultType result;
+    private int outerIterations = 0;
+    private long innerIterations = 0;
+    private long softPhaseTime = 0;
+    private long hardPhaseTime = 0;
+    private long convergenceCheckTime = 0;
+    private long totalTime = 0;
+    private long projections = 0;
+    private double maxHardError = Double.NaN;
+    private double maxSoftError = Double.NaN;
+
+    void finish(ResultType result, long totalTime, double maxHardError, double maxSoftError) {
+        this.result = result;
+        this.totalTime = totalTime;
+        this.maxHardError = maxHardError;
+        this.maxSoftError = maxSoftError;
+    }
+
+    public void addOuterIteration() {
+        outerIterations++;
+    }
+
+    public void addInnerIterations(long iterations) {
+        innerIterations += iterations;
+    }
+
+    /**
+     * Adds time spent on optimizing the soft constraints, e.g. applying the forces of the force solvers.
+     */
+    public void addSoftPhaseTime(long time) {
+        softPhaseTime += time;
+    }
+
+    /**
+     * Adds time spent on satisfying the hard constraints, e.g. Kaczmarz projections of the hard constraints.
+     */
+    public void addHardPhaseTime(long time) {
+        hardPhaseTime += time;
+    }
+
+    public void addConvergenceCheckTime(long time) {
+        convergenceCheckTime += time;
+    }
+
+    public void addProjections(long projections) {
+        this.projections += projections;
+    }
+
+    public ResultType getResult() {
+        return result;
+    }
+
+    public int getOuterIterations() {
+        return outerIterations;
+    }
+
+    /**
+     * Solver-specific, only reported by ForceSolver: the hard phase sweeps of all outer iterations.
+     */
+    public long getInnerIterations() {
+        return innerIterations;
+    }
+
+    /**
+     * Solver-specific, only reported by ForceSolver.
+     */
+    public long getSoftPhaseTime() {
+        return softPhaseTime;
+    }
+
+    /**
+     * Solver-specific, only reported by ForceSolver.
+     */
+    public long getHardPhaseTime() {
+        return hardPhaseTime;
+    }
+
+    public long getConvergenceCheckTime() {
+        return convergenceCheckTime;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public long getProjections() {
+        return projections;
+    }
+
+    /**
+     * Max error of the enabled hard constraints after the solve.
+     */
+    public double getMaxHardError() {
+        return maxHardError;
+    }
+
+    /**
+     * Max error of the enabled soft constraints after the solve.
+     */
+    public double getMaxSoftError() {
+        return maxSoftError;
+    }
+
+    @Override
+    public String toString() {
+        return "result: " + result + ", iterations: " + outerIterations + "/" + innerIterations + ", time (ns): "
+                + totalTime + " (soft: " + softPhaseTime + ", hard: " + hardPhaseTime + ", convergence check: "
+                + convergenceCheckTime + "), projections: " + projections + ", max hard error: " + maxHardError
+                + ", max soft error: " + maxSoftError;
+    }
+}
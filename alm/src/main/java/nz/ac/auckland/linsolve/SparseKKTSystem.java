@@ -0,0 +1,267 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.Arrays;
+
+/**
+ * Sparse, quasi-definite KKT system of a compiled linear spec.
+ *
+ * The soft constraints form the penalty weighted normal equations, the hard constraints are rows of the KKT system:
+ * | A_s^T W A_s + rI   A_h^T | | x      |   | A_s^T W b_s + r x_0 |
+ * | A_h                -dI   | | lambda | = | b_h                 |
+ * The small regularizations r and d make the system factorizable in any order. Iterative refinement removes the
+ * error introduced by d and the primal regularization keeps variables that are not determined by the constraints at
+ * their previous values x_0.
+ *
+ * Hard inequalities are rows in the form a * x <= b. Optionally, a soft inequality gets a slack variable t, i.e. it
+ * is turned into the hard inequality a * x - t <= b and the term w * t^2 of the objective. Otherwise, soft
+ * inequalities are part of the normal equations if they are active.
+ *
+ * The pattern contains all constraints, rows of inactive constraints are decoupled. Thus, the ordering and the
+ * symbolic factorization are only computed once and the system can be factorized for different active sets.
+ */
+class SparseKKTSystem {
+    static final double PRIMAL_REGULARIZATION = 1e-8;
+    static final double DUAL_REGULARIZATION = 1e-8;
+    static final int REFINEMENT_STEPS = 2;
+
+    final CompiledLinearSpec spec;
+    private final boolean[] hard;
+    final int nVariables;
+    // number of variables plus slack variables
+    final int nPrimal;
+    // KKT row of every constraint, -1 for constraints that are part of the normal equations
+    final int[] kktRows;
+    // slack variable of every constraint, -1 for constraints without slack
+    final int[] slacks;
+
+    // positions of the entries of every constraint in the value array, see the constructor
+    private final int[] entryOffsets;
+    private final int[] entryPositions;
+    private final int[] diagonalPositions;
+    private final SparseLDL ldl;
+    private final double[] matrixValues;
+    private final double[] rightSide;
+    private final double[] residual;
+    private final boolean[] coupled;
+
+    /**
+     * Builds and analyses the pattern of the system.
+     *
+     * For a constraint of the normal equations with k summands, the positions of the k * k entries are stored in
+     * entryPositions. For a KKT row, the positions of the entries in the row and in the column are stored for every
+     * summand.
+     *
+     * @param spec the compiled spec
+     * @param slackSoftInequalities if soft inequalities should get a slack variable
+     */
+    SparseKKTSystem(CompiledLinearSpec spec, boolean slackSoftInequalities) {
+        this.spec = spec;
+        hard = spec.hard.clone();
+        final int nRows = spec.getConstraintCount();
+        nVariables = spec.getVariableCount();
+        kktRows = new int[nRows];
+        slacks = new int[nRows];
+        int primal = nVariables;
+        for (int i = 0; i < nRows; i++) {
+            slacks[i] = -1;
+            if (slackSoftInequalities && !spec.isHard(i) && spec.getOp(i) != CompiledLinearSpec.OP_EQ)
+                slacks[i] = primal++;
+        }
+        nPrimal = primal;
+        int size = nPrimal;
+        for (int i = 0; i < nRows; i++)
+            kktRows[i] = spec.isHard(i) || slacks[i] >= 0 ? size++ : -1;
+
+        // collect the pattern column by column
+        int[][] columnEntries = new int[size][];
+        int[] columnSizes = new int[size];
+        for (int node = 0; node < size; node++) {
+            columnEntries[node] = new int[4];
+            addEntry(columnEntries, columnSizes, node, node);
+        }
+        for (int i = 0; i < nRows; i++) {
+            final int start = spec.getRowStart(i);
+            final int end = spec.getRowEnd(i);
+            if (slacks[i] >= 0) {
+                addEntry(columnEntries, columnSizes, kktRows[i], slacks[i]);
+                addEntry(columnEntries, columnSizes, slacks[i], kktRows[i]);
+            }
+            for (int a = start; a < end; a++) {
+                if (kktRows[i] >= 0) {
+                    addEntry(columnEntries, columnSizes, kktRows[i], spec.getColumn(a));
+                    addEntry(columnEntries, columnSizes, spec.getColumn(a), kktRows[i]);
+                    continue;
+                }
+                for (int b = start; b < end; b++)
+                    addEntry(columnEntries, columnSizes, spec.getColumn(a), spec.getColumn(b));
+            }
+        }
+        int[] columnPointers = new int[size + 1];
+        for (int node = 0; node < size; node++) {
+            Arrays.sort(columnEntries[node], 0, columnSizes[node]);
+            int unique = 0;
+            for (int p = 0; p < columnSizes[node]; p++) {
+                if (unique == 0 || columnEntries[node][unique - 1] != columnEntries[node][p])
+                    columnEntries[node][unique++] = columnEntries[node][p];
+            }
+            columnSizes[node] = unique;
+            columnPointers[node + 1] = columnPointers[node] + unique;
+        }
+        int[] rowIndices = new int[columnPointers[size]];
+        for (int node = 0; node < size; node++)
+            System.arraycopy(columnEntries[node], 0, rowIndices, columnPointers[node], columnSizes[node]);
+
+        ldl = new SparseLDL(size, columnPointers, rowIndices);
+
+        diagonalPositions = new int[size];
+        for (int node = 0; node < size; node++)
+            diagonalPositions[node] = ldl.getPosition(node, node);
+        entryOffsets = new int[nRows + 1];
+        for (int i = 0; i < nRows; i++) {
+            int k = spec.getRowEnd(i) - spec.getRowStart(i);
+            entryOffsets[i + 1] = entryOffsets[i] + (kktRows[i] >= 0 ? 2 * k : k * k);
+        }
+        entryPositions = new int[entryOffsets[nRows]];
+        for (int i = 0; i < nRows; i++) {
+            final int start = spec.getRowStart(i);
+            final int end = spec.getRowEnd(i);
+            int position = entryOffsets[i];
+            for (int a = start; a < end; a++) {
+                if (kktRows[i] >= 0) {
+                    entryPositions[position++] = ldl.getPosition(kktRows[i], spec.getColumn(a));
+                    entryPositions[position++] = ldl.getPosition(spec.getColumn(a), kktRows[i]);
+                    continue;
+                }
+                for (int b = start; b < end; b++)
+                    entryPositions[position++] = ldl.getPosition(spec.getColumn(a), spec.getColumn(b));
+            }
+        }
+
+        matrixValues = new double[rowIndices.length];
+        rightSide = new double[size];
+        residual = new double[size];
+        coupled = new boolean[size];
+    }
+
+    private static void addEntry(int[][] columnEntries, int[] columnSizes, int row, int column) {
+        if (columnSizes[column] == columnEntries[column].length)
+            columnEntries[column] = Arrays.copyOf(columnEntries[column], columnEntries[column].length * 2);
+        columnEntries[column][columnSizes[column]++] = row;
+    }
+
+    /**
+     * Tests if the system has been built for the given compiled spec and the same hard constraints.
+     */
+    boolean isValidFor(CompiledLinearSpec spec) {
+        return this.spec == spec && Arrays.equals(hard, spec.hard);
+    }
+
+    int getSize() {
+        return rightSide.length;
+    }
+
+    /**
+     * Factor that turns an inequality into the form a * x <= b.
+     */
+    static double getFactor(CompiledLinearSpec spec, int row) {
+        return spec.getOp(row) == CompiledLinearSpec.OP_GE ? -1d : 1d;
+    }
+
+    /**
+     * Value of a * x - b of a KKT row in the form a * x <= b.
+     *
+     * @param solution values of the primal variables
+     */
+    double getRowValue(int row, double[] solution) {
+        final double factor = getFactor(spec, row);
+        double value = 0;
+        for (int a = spec.getRowStart(row); a < spec.getRowEnd(row); a++)
+            value += spec.getCoefficient(a) * solution[spec.getColumn(a)];
+        value = factor * (value - spec.getRightSide(row));
+        if (slacks[row] >= 0)
+            value -= solution[slacks[row]];
+        return value;
+    }
+
+    /**
+     * Assembles and factorizes the system.
+     *
+     * @param active which constraints are active, equalities are always active
+     * @param center values the primal regularization pulls towards
+     * @return false if the factorization failed
+     */
+    boolean factorize(boolean[] active, double[] center) {
+        Arrays.fill(matrixValues, 0d);
+        Arrays.fill(rightSide, 0d);
+        Arrays.fill(coupled, false);
+        for (int j = 0; j < nPrimal; j++) {
+            matrixValues[diagonalPositions[j]] = PRIMAL_REGULARIZATION;
+            rightSide[j] = PRIMAL_REGULARIZATION * center[j];
+        }
+
+        for (int i = 0; i < kktRows.length; i++) {
+            final int start = spec.getRowStart(i);
+            final int end = spec.getRowEnd(i);
+            int position = entryOffsets[i];
+            final boolean isActive = spec.isEnabled(i) && (active[i] || spec.getOp(i) == CompiledLinearSpec.OP_EQ);
+            if (slacks[i] >= 0 && spec.isEnabled(i))
+                matrixValues[diagonalPositions[slacks[i]]] += spec.getPenalty(i);
+
+            final int kktRow = kktRows[i];
+            if (kktRow >= 0) {
+                if (!isActive) {
+                    // decoupled, i.e. lambda = 0
+                    matrixValues[diagonalPositions[kktRow]] = -1d;
+                    continue;
+                }
+                final double factor = getFactor(spec, i);
+                for (int a = start; a < end; a++) {
+                    final double coefficient = factor * spec.getCoefficient(a);
+                    matrixValues[entryPositions[position++]] += coefficient;
+                    matrixValues[entryPositions[position++]] += coefficient;
+                }
+                if (slacks[i] >= 0) {
+                    matrixValues[ldl.getPosition(kktRow, slacks[i])] = -1d;
+                    matrixValues[ldl.getPosition(slacks[i], kktRow)] = -1d;
+                }
+                matrixValues[diagonalPositions[kktRow]] = -DUAL_REGULARIZATION;
+                rightSide[kktRow] = factor * spec.getRightSide(i);
+                coupled[kktRow] = true;
+                continue;
+            }
+
+            if (!isActive)
+                continue;
+            final double weight = spec.getPenalty(i);
+            final double weightedRightSide = weight * spec.getRightSide(i);
+            for (int a = start; a < end; a++) {
+                final double weightedCoefficient = weight * spec.getCoefficient(a);
+                for (int b = start; b < end; b++)
+                    matrixValues[entryPositions[position++]] += weightedCoefficient * spec.getCoefficient(b);
+                rightSide[spec.getColumn(a)] += weightedRightSide * spec.getCoefficient(a);
+            }
+        }
+        return ldl.factorize(matrixValues);
+    }
+
+    /**
+     * Solves the factorized system and refines the solution against the system without dual regularization.
+     *
+     * @param solution the solution, the primal variables are followed by the multipliers of the KKT rows
+     */
+    void solve(double[] solution) {
+        System.arraycopy(rightSide, 0, solution, 0, solution.length);
+        ldl.solve(solution);
+        for (int step = 0; step < REFINEMENT_STEPS; step++) {
+            ldl.multiply(matrixValues, solution, residual);
+            for (int node = 0; node < residual.length; node++) {
+                if (coupled[node])
+                    residual[node] += DUAL_REGULARIZATION * solution[node];
+                residual[node] = rightSide[node] - residual[node];
+            }
+            ldl.solve(residual);
+            for (int node = 0; node < solution.length; node++)
+                solution[node] += residual[node];
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package nz.ac.auckland.linsolve;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Sparse LDL^T factorization of a symmetric matrix.
+ *
+ * The sparsity pattern is given once; it is reordered using a minimum degree ordering to reduce the fill-in and
+ * analysed symbolically. Afterwards, matrices with this pattern can be factorized and solved any number of times.
+ *
+ * The factorization does no pivoting, i.e. it only works for matrices that are factorizable in any symmetric order,
+ * e.g. positive definite or quasi-definite matrices.
+ *
+ * The numeric part follows the up-looking algorithm of T. A. Davis, "Algorithm 849: A concise sparse Cholesky
+ * factorization package", ACM TOMS 31(4), 2005.
+ */
+public class SparseLDL {
+    private final int n;
+    // full symmetric pattern in compressed column format, row indices sorted within each column
+    private final int[] columnPointers;
+    private final int[] rowIndices;
+
+    // ordering, permutation[k] is the original index of the k-th pivot
+    private final int[] permutation;
+    private final int[] inversePermutation;
+
+    // symbolic factorization
+    private final int[] parent;
+    private final int[] lPointers;
+
+    // numeric factorization
+    private final int[] lNonZeros;
+    private final int[] lRowIndices;
+    private final double[] lValues;
+    private final double[] d;
+
+    // work arrays
+    private final double[] y;
+    private final int[] pattern;
+    private final int[] flag;
+    private final double[] x;
+
+    /**
+     * @param n dimension of the matrix
+     * @param columnPointers column j has the entries columnPointers[j] to columnPointers[j + 1] - 1
+     * @param rowIndices row indices of the entries, both triangles and the diagonal must be present
+     */
+    public SparseLDL(int n, int[] columnPointers, int[] rowIndices) {
+        this.n = n;
+        this.columnPointers = columnPointers;
+        this.rowIndices = rowIndices;
+
+        permutation = minimumDegreeOrdering();
+        inversePermutation = new int[n];
+        for (int k = 0; k < n; k++)
+            inversePermutation[permutation[k]] = k;
+
+        parent = new int[n];
+        lNonZeros = new int[n];
+        flag = new int[n];
+        lPointers = new int[n + 1];
+        symbolic();
+
+        lRowIndices = new int[lPointers[n]];
+        lValues = new double[lPointers[n]];
+        d = new double[n];
+        y = new double[n];
+        pattern = new int[n];
+        x = new double[n];
+    }
+
+    public int getDimension() {
+        return n;
+    }
+
+    /**
+     * Returns the position of an entry in the value array or -1 if the entry is not part of the pattern.
+     */
+    public int getPosition(int row, int column) {
+        int position = Arrays.binarySearch(rowIndices, columnPointers[column], columnPointers[column + 1], row);
+        if (position < 0)
+            return -1;
+        return position;
+    }
+
+    /**
+     * Number of non-zeros of L, i.e. a measure for the fill-in of the ordering.
+     */
+    public int getFactorNonZeros() {
+        return lPointers[n];
+    }
+
+    /**
+     * Minimum degree ordering on the explicit elimination graph.
+     */
+    private int[] minimumDegreeOrdering() {
+        int[][] adjacency = new int[n][];
+        int[] degree = new int[n];
+        for (int j = 0; j < n; j++) {
+            adjacency[j] = new int[columnPointers[j + 1] - columnPointers[j]];
+            for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++) {
+                int i = rowIndices[p];
+                if (i != j)
+                    adjacency[j][degree[j]++] = i;
+            }
+        }
+
+        PriorityQueue<Long> queue = new PriorityQueue<Long>(Math.max(1, n));
+        for (int j = 0; j < n; j++)
+            queue.add(((long)degree[j] << 32) | j);
+
+        boolean[] eliminated = new boolean[n];
+        int[] marker = new int[n];
+        Arrays.fill(marker, -1);
+        int[] ordering = new int[n];
+        int k = 0;
+        while (k < n) {
+            long entry = queue.poll();
+            int v = (int)(entry & 0xffffffffL);
+            if (eliminated[v] || (int)(entry >>> 32) != degree[v])
+                continue;
+            eliminated[v] = true;
+            ordering[k++] = v;
+
+            // connect all neighbours of v with each other
+            final int[] neighbours = adjacency[v];
+            final int nNeighbours = degree[v];
+            for (int a = 0; a < nNeighbours; a++) {
+                int u = neighbours[a];
+                int[] uAdjacency = adjacency[u];
+                int uDegree = 0;
+                // remove eliminated nodes and mark the remaining
+                for (int b = 0; b < degree[u]; b++) {
+                    int w = uAdjacency[b];
+                    if (eliminated[w])
+                        continue;
+                    marker[w] = u;
+                    uAdjacency[uDegree++] = w;
+                }
+                marker[u] = u;
+                for (int b = 0; b < nNeighbours; b++) {
+                    int w = neighbours[b];
+                    if (marker[w] == u)
+                        continue;
+                    marker[w] = u;
+                    if (uDegree == uAdjacency.length)
+                        uAdjacency = Arrays.copyOf(uAdjacency, Math.max(4, uAdjacency.length * 2));
+                    uAdjacency[uDegree++] = w;
+                }
+                adjacency[u] = uAdjacency;
+                degree[u] = uDegree;
+                queue.add(((long)uDegree << 32) | u);
+            }
+            adjacency[v] = null;
+        }
+        return ordering;
+    }
+
+    /**
+     * Computes the elimination tree and the number of non-zeros of each column of L.
+     */
+    private void symbolic() {
+        for (int k = 0; k < n; k++) {
+            parent[k] = -1;
+            flag[k] = k;
+            lNonZeros[k] = 0;
+            final int kk = permutation[k];
+            for (int p = columnPointers[kk]; p < columnPointers[kk + 1]; p++) {
+                int i = inversePermutation[rowIndices[p]];
+                if (i >= k)
+                    continue;
+                for (; flag[i] != k; i = parent[i]) {
+                    if (parent[i] == -1)
+                        parent[i] = k;
+                    lNonZeros[i]++;
+                    flag[i] = k;
+                }
+            }
+        }
+        lPointers[0] = 0;
+        for (int k = 0; k < n; k++)
+            lPointers[k + 1] = lPointers[k] + lNonZeros[k];
+    }
+
+    /**
+     * Factorizes a matrix with the pattern given in the constructor.
+     *
+     * @param values the values of the entries in the order of the row indices
+     * @return false if a zero pivot occurred
+     */
+    public boolean factorize(double[] values) {
+        for (int k = 0; k < n; k++) {
+            // nonzero pattern of the k-th row of L
+            y[k] = 0;
+            int top = n;
+            flag[k] = k;
+            lNonZeros[k] = 0;
+            final int kk = permutation[k];
+            for (int p = columnPointers[kk]; p < columnPointers[kk + 1]; p++) {
+                int i = inversePermutation[rowIndices[p]];
+                if (i > k)
+                    continue;
+                y[i] += values[p];
+                int length = 0;
+                for (; flag[i] != k; i = parent[i]) {
+                    pattern[length++] = i;
+                    flag[i] = k;
+                }
+                while (length > 0)
+                    pattern[--top] = pattern[--length];
+            }
+            // numerical values of the k-th row of L
+            d[k] = y[k];
+            y[k] = 0;
+            for (; top < n; top++) {
+                final int i = pattern[top];
+                final double yi = y[i];
+                y[i] = 0;
+                final int end = lPointers[i] + lNonZeros[i];
+                int p = lPointers[i];
+                for (; p < end; p++)
+                    y[lRowIndices[p]] -= lValues[p] * yi;
+                final double lki = yi / d[i];
+                d[k] -= lki * yi;
+                lRowIndices[p] = k;
+                lValues[p] = lki;
+                lNonZeros[i]++;
+            }
+            if (d[k] == 0d)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Solves the factorized system in place.
+     *
+     * @param b the right side, overwritten with the solution
+     */
+    public void solve(double[] b) {
+        for (int k = 0; k < n; k++)
+            x[k] = b[permutation[k]];
+        // L x = b
+        for (int j = 0; j < n; j++) {
+            final double xj = x[j];
+            for (int p = lPointers[j]; p < lPointers[j + 1]; p++)
+                x[lRowIndices[p]] -= lValues[p] * xj;
+        }
+        // D x = b
+        for (int j = 0; j < n; j++)
+            x[j] /= d[j];
+        // L^T x = b
+        for (int j = n - 1; j >= 0; j--) {
+            double xj = x[j];
+            for (int p = lPointers[j]; p < lPointers[j + 1]; p++)
+                xj -= lValues[p] * x[lRowIndices[p]];
+            x[j] = xj;
+        }
+        for (int k = 0; k < n; k++)
+            b[permutation[k]] = x[k];
+    }
+
+    /**
+     * Calculates out = A * in for a matrix with the pattern given in the constructor.
+     */
+    public void multiply(double[] values, double[] in, double[] out) {
+        Arrays.fill(out, 0, n, 0d);
+        for (int j = 0; j < n; j++) {
+            final double inj = in[j];
+            for (int p = columnPointers[j]; p < columnPointers[j + 1]; p++)
+                out[rowIndices[p]] += values[p] * inj;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package nz.ac.auckland.linsolve;
+
+/**
+ * Direct sparse solver that minimizes the penalty weighted squared error of the soft constraints subject to the hard
+ * constraints.
+ *
+ * Most constraints of a layout are differences of two tabs, i.e. the normal equations of the soft constraints are a
+ * weighted graph Laplacian plus diagonal terms. The normal equations are assembled directly from the compiled spec
+ * and the hard constraints are added as rows of a quasi-definite KKT system, see SparseKKTSystem. The system is
+ * factorized with a sparse LDL^T using a fill-reducing ordering.
+ *
+ * Inequalities are handled by an outer active-set loop: violated inequalities are added to the system and hard
+ * inequalities with a negative multiplier are released until the active set does not change anymore. Only the
+ * numeric factorization is redone for a new active set.
+ */
+public class SparseLeastSquaresSolver extends AbstractLinearSolver {
+    public static final int MAX_ACTIVE_SET_ITERATIONS = 200;
+    public static final double DEFAULT_TOLERANCE = 1e-8;
+
+    private double tolerance = DEFAULT_TOLERANCE;
+
+    // system of the last solve, reused as long as the compiled spec is reused
+    private SparseKKTSystem system;
+    private double[] solution;
+    private double[] initialValues;
+    private boolean[] active;
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    protected ResultType doSolve() {
+        initVariableValues();
+        return doSolve(compileLinearSpec());
+    }
+
+    @Override
+    protected ResultType doSolve(CompiledLinearSpec spec) {
+        if (system == null || !system.isValidFor(spec)) {
+            system = new SparseKKTSystem(spec, false);
+            solution = new double[system.getSize()];
+            initialValues = new double[system.nVariables];
+            active = new boolean[spec.getConstraintCount()];
+        }
+
+        long startTime = System.currentTimeMillis();
+        final double[] values = spec.getValues();
+        System.arraycopy(values, 0, initialValues, 0, initialValues.length);
+        initActiveSet(spec);
+
+        ResultType result = ResultType.SUBOPTIMAL;
+        for (int iteration = 0; iteration < MAX_ACTIVE_SET_ITERATIONS; iteration++) {
+            if (!system.factorize(active, initialValues)) {
+                result = ResultType.NUMFAILURE;
+                break;
+            }
+            system.solve(solution);
+            System.arraycopy(solution, 0, values, 0, values.length);
+
+            if (!updateActiveSet(spec)) {
+                result = ResultType.OPTIMAL;
+                break;
+            }
+        }
+        internalSolvingTime = System.currentTimeMillis() - startTime;
+
+        if (!isWarmStartEnabled())
+            system = null;
+        return result;
+    }
+
+    /**
+     * Starts with the equalities and the inequalities that are violated or tight at the initial values, i.e. a feasible
+     * start usually needs no or only a few changes of the active set.
+     */
+    private void initActiveSet(CompiledLinearSpec spec) {
+        for (int i = 0; i < active.length; i++) {
+            if (spec.getOp(i) == CompiledLinearSpec.OP_EQ)
+                active[i] = true;
+            else
+                active[i] = SparseKKTSystem.getFactor(spec, i) * (spec.leftSide(i) - spec.getRightSide(i)) > -tolerance;
+        }
+    }
+
+    /**
+     * Adds violated inequalities and removes inequalities that are not binding anymore.
+     *
+     * @return true if the active set changed
+     */
+    private boolean updateActiveSet(CompiledLinearSpec spec) {
+        boolean changed = false;
+        for (int i = 0; i < active.length; i++) {
+            if (!spec.isEnabled(i) || spec.getOp(i) == CompiledLinearSpec.OP_EQ)
+                continue;
+            final int kktRow = system.kktRows[i];
+            final double violation = SparseKKTSystem.getFactor(spec, i) * (spec.leftSide(i) - spec.getRightSide(i));
+            if (active[i]) {
+                if (kktRow >= 0 ? solution[kktRow] < -tolerance : violation < -tolerance) {
+                    active[i] = false;
+                    changed = true;
+                }
+            } else if (violation > tolerance) {
+                active[i] = true;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
@@ -11,6 +11,7 @@ import java.util.List;
 public class Variable {
 	Object solverCookie;
 	public LinearSpec ls; // linear spec that this variable belongs to
+	int index = -1; // slot in the variable list of the linear spec, maintained by the linear spec
 	double value = Double.NaN; // value of the variable
 	String name; // name of the variable
 	final List<Constraint> activeConstraints = new ArrayList<Constraint>();
@@ -72,13 +73,13 @@ public class Variable {
 	}
 
 	/**
-	 * Gets 1-based index of the variable.
+	 * Gets the index of the variable in the variable list of its linear spec.
 	 * 
-	 * @return the index of the variable
+	 * @return the index of the variable or -1 if not part of a linear spec
 	 */
 	public int getIndex() {
 		if (ls != null)
-			return ls.getVariables().indexOf(this);
+			return ls.indexOf(this);
 		return -1;
 	}
 
@@ -0,0 +1,129 @@
+package nz.ac.auckland.linsolve.rowselection;
+
+import java.util.Arrays;
+
+import nz.ac.auckland.linsolve.CompiledLinearSpec;
+
+/**
+ * Selects the row with the largest error (max-residual or greedy Kaczmarz).
+ *
+ * The errors of the rows are kept in an indexed max-heap. A projection only changes the variables of the projected
+ * row, so only the errors of the rows sharing a variable with it are updated afterwards.
+ */
+public class GreedyRowSelector implements RowSelector {
+    private CompiledLinearSpec spec;
+    private double tolerance;
+
+    // rows of every column
+    private int[] columnOffsets;
+    private int[] columnRows;
+
+    // max-heap of the rows by error; position[row] is the heap position of a row or -1 if it is not in the heap
+    private int[] heap;
+    private int heapSize;
+    private int[] position;
+    private double[] errors;
+
+    @Override
+    public void init(CompiledLinearSpec spec, int[] rows, double tolerance) {
+        this.tolerance = tolerance;
+        final int nRows = spec.getConstraintCount();
+        if (spec != this.spec) {
+            this.spec = spec;
+            buildColumnRows(spec);
+            heap = new int[nRows];
+            position = new int[nRows];
+            errors = new double[nRows];
+        }
+
+        Arrays.fill(position, -1);
+        heapSize = 0;
+        final int n = rows == null ? nRows : rows.length;
+        for (int r = 0; r < n; r++) {
+            int row = rows == null ? r : rows[r];
+            if (!spec.isEnabled(row))
+                continue;
+            errors[row] = spec.error(row);
+            position[row] = heapSize;
+            heap[heapSize++] = row;
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--)
+            siftDown(i);
+    }
+
+    private void buildColumnRows(CompiledLinearSpec spec) {
+        final int nRows = spec.getConstraintCount();
+        final int nColumns = spec.getVariableCount();
+        columnOffsets = new int[nColumns + 1];
+        for (int p = 0; p < spec.getRowStart(nRows); p++)
+            columnOffsets[spec.getColumn(p) + 1]++;
+        for (int j = 0; j < nColumns; j++)
+            columnOffsets[j + 1] += columnOffsets[j];
+        columnRows = new int[columnOffsets[nColumns]];
+        int[] fill = columnOffsets.clone();
+        for (int i = 0; i < nRows; i++) {
+            for (int p = spec.getRowStart(i); p < spec.getRowEnd(i); p++)
+                columnRows[fill[spec.getColumn(p)]++] = i;
+        }
+    }
+
+    @Override
+    public int selectRow() {
+        if (heapSize == 0 || errors[heap[0]] <= tolerance)
+            return -1;
+        return heap[0];
+    }
+
+    @Override
+    public void onProjected(int row) {
+        for (int p = spec.getRowStart(row); p < spec.getRowEnd(row); p++) {
+            final int column = spec.getColumn(p);
+            for (int q = columnOffsets[column]; q < columnOffsets[column + 1]; q++) {
+                final int neighbour = columnRows[q];
+                final int i = position[neighbour];
+                if (i < 0)
+                    continue;
+                final double error = spec.error(neighbour);
+                final double oldError = errors[neighbour];
+                errors[neighbour] = error;
+                if (error > oldError)
+                    siftUp(i);
+                else if (error < oldError)
+                    siftDown(i);
+            }
+        }
+    }
+
+    private void siftUp(int i) {
+        final int row = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (errors[heap[parent]] >= errors[row])
+                break;
+            move(heap[parent], i);
+            i = parent;
+        }
+        move(row, i);
+    }
+
+    private void siftDown(int i) {
+        final int row = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && errors[heap[child + 1]] > errors[heap[child]])
+                child++;
+            if (errors[heap[child]] <= errors[row])
+                break;
+            move(heap[child], i);
+            i = child;
+        }
+        move(row, i);
+    }
+
+    private void move(int row, int i) {
+        heap[i] = row;
+        position[row] = i;
+    }
+}
@@ -0,0 +1,77 @@
+package nz.ac.auckland.linsolve.rowselection;
+
+import java.util.Random;
+
+import nz.ac.auckland.linsolve.CompiledLinearSpec;
+
+/**
+ * Randomized Kaczmarz: samples the rows with a probability proportional to |A_i|^2 (Strohmer and Vershynin).
+ *
+ * The selector never knows if all rows are satisfied, i.e. the solver has to check the convergence itself.
+ */
+public class RandomizedRowSelector implements RowSelector {
+    private final Random random;
+
+    private int[] rows;
+    // cumulative row norms of the sampled rows
+    private double[] cumulativeNorms;
+    private int nRows;
+
+    public RandomizedRowSelector() {
+        this(new Random());
+    }
+
+    /**
+     * @param seed seed of the random generator, e.g. to get reproducible layouts
+     */
+    public RandomizedRowSelector(long seed) {
+        this(new Random(seed));
+    }
+
+    private RandomizedRowSelector(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public void init(CompiledLinearSpec spec, int[] rows, double tolerance) {
+        final int n = rows == null ? spec.getConstraintCount() : rows.length;
+        if (this.rows == null || this.rows.length < n) {
+            this.rows = new int[n];
+            cumulativeNorms = new double[n];
+        }
+        nRows = 0;
+        double sum = 0;
+        for (int r = 0; r < n; r++) {
+            int row = rows == null ? r : rows[r];
+            if (!spec.isEnabled(row) || spec.getRowNorm2(row) == 0)
+                continue;
+            sum += spec.getRowNorm2(row);
+            this.rows[nRows] = row;
+            cumulativeNorms[nRows] = sum;
+            nRows++;
+        }
+    }
+
+    @Override
+    public int selectRow() {
+        if (nRows == 0)
+            return -1;
+        double sample = random.nextDouble() * cumulativeNorms[nRows - 1];
+        // first row whose cumulative norm is larger than the sample
+        int low = 0;
+        int high = nRows - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulativeNorms[middle] <= sample)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return rows[low];
+    }
+
+    @Override
+    public void onProjected(int row) {
+
+    }
+}
@@ -0,0 +1,31 @@
+package nz.ac.auckland.linsolve.rowselection;
+
+import nz.ac.auckland.linsolve.CompiledLinearSpec;
+
+/**
+ * Selects the order in which a projection solver projects the constraints, i.e. the rows of a compiled spec.
+ *
+ * A selector keeps state between the selections, so one selector must not be used by multiple solves at the same
+ * time.
+ */
+public interface RowSelector {
+
+    /**
+     * Prepares the selection.
+     *
+     * @param spec the compiled spec, its solution vector is the current solution
+     * @param rows the rows to select from in ascending order or null for all rows
+     * @param tolerance rows with a smaller error do not need to be projected
+     */
+    void init(CompiledLinearSpec spec, int[] rows, double tolerance);
+
+    /**
+     * @return the next row to project or -1 if the selector knows that all rows are satisfied within the tolerance
+     */
+    int selectRow();
+
+    /**
+     * Is called after a selected row has been projected, i.e. the values of its variables changed.
+     */
+    void onProjected(int row);
+}
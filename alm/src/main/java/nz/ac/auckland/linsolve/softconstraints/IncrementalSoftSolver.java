@@ -0,0 +1,329 @@
+package nz.ac.auckland.linsolve.softconstraints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import nz.ac.auckland.linsolve.AbstractLinearSolver;
+import nz.ac.auckland.linsolve.CompiledLinearSpec;
+import nz.ac.auckland.linsolve.Constraint;
+import nz.ac.auckland.linsolve.KaczmarzSolver;
+import nz.ac.auckland.linsolve.LinearSpecSnapshot;
+import nz.ac.auckland.linsolve.ResultType;
+import nz.ac.auckland.linsolve.SparseLeastSquaresSolver;
+import nz.ac.auckland.linsolve.Variable;
+
+/**
+ * Conflict resolution strategy that detects conflicts incrementally.
+ *
+ * Like the AddingSoftSolver, the constraints are added in the order of descending penalty and a constraint that
+ * conflicts with the already accepted constraints is disabled. However, the inner solver is not called for every
+ * constraint. Instead, the accepted constraints are kept in a compiled spec whose solution is updated incrementally:
+ * <ul>
+ * <li>if the new constraint is satisfied by the current solution, it is accepted without any solving</li>
+ * <li>otherwise, only the connected component of the new constraint, i.e. the accepted constraints that share a
+ * variable with it directly or indirectly, is solved again using a few Kaczmarz sweeps, starting from the current
+ * solution</li>
+ * <li>if the sweeps do not converge, the rows of the component are solved directly: a SparseLeastSquaresSolver
+ * minimizes the squared errors of the soft rows subject to the hard rows. The minimum is zero if and only if the rows
+ * are consistent, i.e. slow convergence of the sweeps is not mistaken for a conflict. If the minimum is not zero, the
+ * new constraint is in conflict; it is disabled and the solution of the component is restored.</li>
+ * </ul>
+ * Finally, the inner solver solves the accepted constraints once.
+ *
+ * Constraints that are disabled when the solve starts are left alone, except for the constraints this solver disabled
+ * itself in the previous solve; they are tried again.
+ */
+public class IncrementalSoftSolver extends AbstractSoftSolver {
+    public static final int DEFAULT_MAX_SWEEPS = 5;
+
+    private double tolerance = KaczmarzSolver.DEFAULT_TOLERANCE;
+    private int maxSweeps = DEFAULT_MAX_SWEEPS;
+    private final SparseLeastSquaresSolver componentSolver = new SparseLeastSquaresSolver();
+    // the constraints that have been disabled by the last solve
+    private final Set<Constraint> disabledConstraints = new HashSet<Constraint>();
+
+    private CompiledLinearSpec spec;
+    // union-find over the variables of the accepted constraints
+    private int[] parent;
+    // linked lists of the accepted rows of every component, indexed by the root variable
+    private int[] firstRow;
+    private int[] lastRow;
+    private int[] nextRow;
+    private int[] componentRows;
+    private double[] savedValues;
+    // column of a variable in the compiled component, -1 if the variable is not part of the component
+    private int[] componentColumns;
+    private int conflicts;
+    private int localSolves;
+    private int directSolves;
+
+    public IncrementalSoftSolver(AbstractLinearSolver solver) {
+        super(solver);
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Sets the tolerance within which a constraint counts as satisfied while the constraints are added.
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public int getMaxSweeps() {
+        return maxSweeps;
+    }
+
+    /**
+     * Sets the number of sweeps after which a component that did not converge is solved directly.
+     */
+    public void setMaxSweeps(int maxSweeps) {
+        this.maxSweeps = maxSweeps;
+    }
+
+    /**
+     * Number of constraints that have been disabled by the last solve.
+     */
+    public int getConflictCount() {
+        return conflicts;
+    }
+
+    /**
+     * Number of constraints of the last solve that were not satisfied when they were added, i.e. whose component had
+     * to be solved again.
+     */
+    public int getLocalSolveCount() {
+        return localSolves;
+    }
+
+    /**
+     * Number of local solves of the last solve that did not converge within the max sweeps, i.e. whose component has
+     * been solved directly.
+     */
+    public int getDirectSolveCount() {
+        return directSolves;
+    }
+
+    @Override
+    protected ResultType doSolve() {
+        // the constraints of other linear specs are kept, e.g. while the solver solves a copy of the linear spec
+        for (Iterator<Constraint> it = disabledConstraints.iterator(); it.hasNext(); ) {
+            Constraint constraint = it.next();
+            if (!getLinearSpec().contains(constraint))
+                continue;
+            constraint.setEnabled(true);
+            it.remove();
+        }
+        sortConstraints();
+        initVariableValues();
+        List<Constraint> constraints = getLinearSpec().getConstraints();
+        spec = CompiledLinearSpec.compile(getLinearSpec().getVariables(), constraints);
+        init();
+
+        conflicts = 0;
+        localSolves = 0;
+        directSolves = 0;
+        final double[] values = spec.getValues();
+        for (int row = 0; row < spec.getConstraintCount(); row++) {
+            if (!spec.isEnabled(row) || spec.getRowStart(row) == spec.getRowEnd(row))
+                continue;
+            if (spec.error(row) <= tolerance) {
+                accept(row);
+                continue;
+            }
+
+            localSolves++;
+            int nRows = collectComponentRows(row);
+            for (int i = 0; i < nRows; i++)
+                saveValues(componentRows[i], values);
+            if (solveRows(nRows) || solveComponent(nRows)) {
+                accept(row);
+                continue;
+            }
+            for (int i = 0; i < nRows; i++)
+                restoreValues(componentRows[i], values);
+            conflicts++;
+        }
+
+        // disable the conflicting constraints and let the inner solver continue from the incremental solution
+        for (int row = 0; row < constraints.size(); row++) {
+            if (!spec.isEnabled(row) || isAccepted(row))
+                continue;
+            constraints.get(row).setEnabled(false);
+            disabledConstraints.add(constraints.get(row));
+        }
+        spec.writeBack();
+        spec = null;
+        if (isDebug()) System.out.println(getLinearSpec());
+        return getLinearSolver().solve();
+    }
+
+    private void init() {
+        final int nVariables = spec.getVariableCount();
+        final int nRows = spec.getConstraintCount();
+        parent = new int[nVariables];
+        firstRow = new int[nVariables];
+        lastRow = new int[nVariables];
+        for (int j = 0; j < nVariables; j++) {
+            parent[j] = j;
+            firstRow[j] = -1;
+            lastRow[j] = -1;
+        }
+        // nextRow[row] == -2 marks rows that are not accepted
+        nextRow = new int[nRows];
+        for (int i = 0; i < nRows; i++)
+            nextRow[i] = -2;
+        componentRows = new int[nRows];
+        savedValues = new double[nVariables];
+        componentColumns = new int[nVariables];
+        Arrays.fill(componentColumns, -1);
+    }
+
+    private boolean isAccepted(int row) {
+        return nextRow[row] != -2;
+    }
+
+    private int find(int column) {
+        int root = column;
+        while (parent[root] != root)
+            root = parent[root];
+        while (parent[column] != root) {
+            int next = parent[column];
+            parent[column] = root;
+            column = next;
+        }
+        return root;
+    }
+
+    /**
+     * Adds a row to the accepted rows and merges the components of its variables.
+     */
+    private void accept(int row) {
+        int root = find(spec.getColumn(spec.getRowStart(row)));
+        for (int p = spec.getRowStart(row) + 1; p < spec.getRowEnd(row); p++) {
+            int other = find(spec.getColumn(p));
+            if (other == root)
+                continue;
+            parent[other] = root;
+            // append the rows of the other component
+            if (firstRow[other] >= 0) {
+                if (firstRow[root] < 0)
+                    firstRow[root] = firstRow[other];
+                else
+                    nextRow[lastRow[root]] = firstRow[other];
+                lastRow[root] = lastRow[other];
+            }
+        }
+        nextRow[row] = -1;
+        if (firstRow[root] < 0)
+            firstRow[root] = row;
+        else
+            nextRow[lastRow[root]] = row;
+        lastRow[root] = row;
+    }
+
+    /**
+     * Collects the accepted rows of the components of the variables of a row, followed by the row itself.
+     *
+     * @return the number of collected rows
+     */
+    private int collectComponentRows(int row) {
+        int nRows = 0;
+        for (int p = spec.getRowStart(row); p < spec.getRowEnd(row); p++) {
+            int root = find(spec.getColumn(p));
+            // skip components that have already been collected
+            boolean collected = false;
+            for (int q = spec.getRowStart(row); q < p; q++) {
+                if (find(spec.getColumn(q)) == root) {
+                    collected = true;
+                    break;
+                }
+            }
+            if (collected)
+                continue;
+            for (int i = firstRow[root]; i >= 0; i = nextRow[i])
+                componentRows[nRows++] = i;
+        }
+        componentRows[nRows++] = row;
+        return nRows;
+    }
+
+    private void saveValues(int row, double[] values) {
+        for (int p = spec.getRowStart(row); p < spec.getRowEnd(row); p++)
+            savedValues[spec.getColumn(p)] = values[spec.getColumn(p)];
+    }
+
+    private void restoreValues(int row, double[] values) {
+        for (int p = spec.getRowStart(row); p < spec.getRowEnd(row); p++)
+            values[spec.getColumn(p)] = savedValues[spec.getColumn(p)];
+    }
+
+    /**
+     * Solves the first nRows component rows directly. Only the rows and variables of the component are compiled. The
+     * solve starts from the saved values, i.e. from the solution of the accepted rows.
+     *
+     * @return true if the rows are consistent; the solution is then stored in the values of the spec
+     */
+    private boolean solveComponent(int nRows) {
+        directSolves++;
+        final double[] values = spec.getValues();
+        final List<Variable> variables = new ArrayList<Variable>();
+        final List<Constraint> rows = new ArrayList<Constraint>(nRows);
+        final List<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < nRows; i++) {
+            final int row = componentRows[i];
+            rows.add(spec.getConstraints().get(row));
+            for (int p = spec.getRowStart(row); p < spec.getRowEnd(row); p++) {
+                final int column = spec.getColumn(p);
+                if (componentColumns[column] >= 0)
+                    continue;
+                componentColumns[column] = columns.size();
+                columns.add(column);
+                variables.add(spec.getVariables().get(column));
+            }
+        }
+        CompiledLinearSpec component = CompiledLinearSpec.compile(variables, rows);
+        final double[] componentValues = component.getValues();
+        for (int k = 0; k < columns.size(); k++) {
+            componentValues[k] = savedValues[columns.get(k)];
+            componentColumns[columns.get(k)] = -1;
+        }
+
+        double[] solution = componentSolver.solve(LinearSpecSnapshot.of(component, tolerance)).getValues();
+        System.arraycopy(solution, 0, componentValues, 0, solution.length);
+        // a solution that satisfies all rows proves that they are consistent, whatever the result of the solve
+        if (component.getMaxError() > tolerance)
+            return false;
+        for (int k = 0; k < columns.size(); k++)
+            values[columns.get(k)] = solution[k];
+        return true;
+    }
+
+    /**
+     * Kaczmarz sweeps over the first nRows component rows.
+     *
+     * @return true if the rows converged
+     */
+    private boolean solveRows(int nRows) {
+        for (int sweep = 0; sweep < maxSweeps; sweep++) {
+            double maxResidual = 0;
+            for (int i = 0; i < nRows; i++) {
+                final int row = componentRows[i];
+                final double leftSide = spec.leftSide(row);
+                final double residual = Math.abs(spec.residual(row, leftSide));
+                maxResidual = Math.max(maxResidual, residual);
+                if (spec.getOp(row) == CompiledLinearSpec.OP_EQ || residual > tolerance)
+                    spec.project(row, 1, leftSide);
+            }
+            if (maxResidual <= tolerance)
+                return true;
+        }
+        return false;
+    }
+}
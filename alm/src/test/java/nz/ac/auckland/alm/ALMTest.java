@@ -12,9 +12,19 @@ import nz.ac.auckland.alm.algebra.Fragment;
 import nz.ac.auckland.alm.algebra.FragmentUtils;
 import nz.ac.auckland.alm.algebra.string.Parser;
 import nz.ac.auckland.alm.algebra.string.StringReader;
+import nz.ac.auckland.alm.android.AbstractViewInfoParser;
 import nz.ac.auckland.linsolve.Constraint;
+import nz.ac.auckland.linsolve.ForceSolver;
+import nz.ac.auckland.linsolve.LinearSolver;
+import nz.ac.auckland.linsolve.OperatorType;
 import nz.ac.auckland.linsolve.ResultType;
 import nz.ac.auckland.linsolve.Summand;
+import nz.ac.auckland.linsolve.Variable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class ALMTest extends TestCase {
@@ -70,6 +80,47 @@ public class ALMTest extends TestCase {
         //assertFuzzyEqual(150, 300, maxSize);
     }
 
+    public void testSizeInvalidation() throws Exception {
+        LayoutSpec layoutSpec = new LayoutSpec();
+        layoutSpec.setHorizontalSpacing(H_SPACING);
+        layoutSpec.setVerticalSpacing(V_SPACING);
+
+        XTab x0 = new XTab();
+        YTab y0 = new YTab();
+        Area area = addDefaultArea(layoutSpec, layoutSpec.getLeft(), layoutSpec.getTop(), x0, y0);
+        addDefaultArea(layoutSpec, x0, layoutSpec.getTop(), layoutSpec.getRight(), y0);
+        addDefaultArea(layoutSpec, layoutSpec.getLeft(), y0, x0, layoutSpec.getBottom());
+        assertFuzzyEqual(MIN_WIDTH * 2 + H_SPACING, MIN_HEIGHT * 2 + V_SPACING, layoutSpec.getMinSize());
+        assertFuzzyEqual(PREF_WIDTH * 2 + H_SPACING, PREF_HEIGHT * 2 + V_SPACING, layoutSpec.getPreferredSize());
+        assertEquals(0, layoutSpec.invalidSizes);
+
+        // a preferred size only affects the preferred size
+        area.setPreferredSize(PREF_WIDTH, PREF_HEIGHT);
+        assertEquals(0, layoutSpec.invalidSizes);
+        area.setPreferredSize(PREF_WIDTH * 2, PREF_HEIGHT);
+        assertEquals(LayoutSpec.PREFERRED_WIDTH, layoutSpec.invalidSizes);
+        layoutSpec.getMinSize();
+        assertEquals(LayoutSpec.PREFERRED_WIDTH, layoutSpec.invalidSizes);
+        layoutSpec.getPreferredSize();
+        assertEquals(0, layoutSpec.invalidSizes);
+
+        area.setMinSize(MIN_WIDTH, MIN_HEIGHT * 2);
+        assertEquals(LayoutSpec.VERTICAL_SIZES, layoutSpec.invalidSizes);
+        assertFuzzyEqual(MIN_WIDTH * 2 + H_SPACING, MIN_HEIGHT * 3 + V_SPACING, layoutSpec.getMinSize());
+        layoutSpec.getPreferredSize();
+
+        // custom constraints report their changes through the linear spec
+        Constraint constraint = layoutSpec.addConstraint(-1, layoutSpec.getLeft(), 1, x0, OperatorType.GE, 100);
+        assertEquals(LayoutSpec.HORIZONTAL_SIZES, layoutSpec.invalidSizes);
+        assertFuzzyEqual(100 + MIN_WIDTH + H_SPACING / 2, layoutSpec.getMinSize().getWidth());
+        layoutSpec.getPreferredSize();
+        constraint.setRightSide(200);
+        assertEquals(LayoutSpec.HORIZONTAL_SIZES, layoutSpec.invalidSizes);
+        assertFuzzyEqual(200 + MIN_WIDTH + H_SPACING / 2, layoutSpec.getMinSize().getWidth());
+        layoutSpec.removeConstraint(constraint);
+        assertFuzzyEqual(MIN_WIDTH * 2 + H_SPACING, layoutSpec.getMinSize().getWidth());
+    }
+
     public void testMinPrefMaxSizes2() throws Exception {
         LayoutSpec layoutSpec = new LayoutSpec();
         layoutSpec.setHorizontalSpacing(H_SPACING);
@@ -260,6 +311,173 @@ public class ALMTest extends TestCase {
         assertEqualClones(layoutSpec, clone);
     }
 
+    public void testSolveForSizes() throws Exception {
+        LayoutSpec layoutSpec = createPinWheel();
+        List<Area.Size> sizes = new ArrayList<Area.Size>();
+        sizes.add(new Area.Size(600, 400));
+        sizes.add(new Area.Size(300, 200));
+        sizes.add(new Area.Size(450, 300));
+        List<double[]> results = layoutSpec.solveForSizes(sizes);
+        assertEquals(sizes.size(), results.size());
+
+        LayoutSpec.ISolverFactory solverFactory = new LayoutSpec.ISolverFactory() {
+            @Override
+            public LinearSolver create() {
+                return new ForceSolver();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<double[]> parallelResults = layoutSpec.solveForSizes(sizes, executor, 2, solverFactory);
+        executor.shutdown();
+
+        for (int i = 0; i < sizes.size(); i++) {
+            Area.Size size = sizes.get(i);
+            layoutSpec.setRight(size.getWidth());
+            layoutSpec.setBottom(size.getHeight());
+            layoutSpec.solve();
+            for (Variable variable : layoutSpec.linearSpec.getVariables()) {
+                assertEquals(variable.getValue(), layoutSpec.getTabPosition(results.get(i), variable), 1);
+                assertEquals(variable.getValue(), layoutSpec.getTabPosition(parallelResults.get(i), variable), 1);
+            }
+        }
+    }
+
+    private void assertTabGraphSizes(LayoutSpec layoutSpec) throws Exception {
+        layoutSpec.tabGraphSizesEnabled = false;
+        layoutSpec.invalidateLayout();
+        Area.Size minSize = layoutSpec.getMinSize();
+        Area.Size prefSize = layoutSpec.getPreferredSize();
+
+        layoutSpec.tabGraphSizesEnabled = true;
+        layoutSpec.invalidateLayout();
+        assertFuzzyEqual(minSize.getWidth(), minSize.getHeight(), layoutSpec.getMinSize());
+        assertFuzzyEqual(prefSize.getWidth(), prefSize.getHeight(), layoutSpec.getPreferredSize());
+    }
+
+    public void testTabGraphSizes() throws Exception {
+        LayoutSpec layoutSpec = createPinWheel();
+        TabGraphSizeCalculator sizeCalculator = new TabGraphSizeCalculator(layoutSpec);
+        assertFalse(Double.isNaN(sizeCalculator.calculateMinSize(true)));
+        assertFalse(Double.isNaN(sizeCalculator.calculateMinSize(false)));
+        assertTabGraphSizes(layoutSpec);
+        // the min size has been solved on a copy of the linear spec
+        int nConstraints = layoutSpec.linearSpec.getConstraints().size();
+        layoutSpec.tabGraphSizesEnabled = false;
+        layoutSpec.invalidateLayout();
+        layoutSpec.getMinSize();
+        layoutSpec.tabGraphSizesEnabled = true;
+        assertEquals(nConstraints, layoutSpec.linearSpec.getConstraints().size());
+        for (IArea area : layoutSpec.getAreas())
+            assertFuzzyEqual(PREF_WIDTH, PREF_HEIGHT, ((Area)area).getPreferredSize());
+
+        // the aspect ratio can't be handled on the tab graph
+        Area area = (Area)layoutSpec.getAreas().get(0);
+        area.setAspectRatio(1);
+        sizeCalculator = new TabGraphSizeCalculator(layoutSpec);
+        assertTrue(Double.isNaN(sizeCalculator.calculateMinSize(true)));
+        assertTabGraphSizes(layoutSpec);
+    }
+
+    private double[] solveSize(LayoutSpec layoutSpec, double width, double height) {
+        layoutSpec.setRight(width);
+        layoutSpec.setBottom(height);
+        layoutSpec.solve();
+        double[] values = new double[layoutSpec.linearSpec.getVariables().size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = layoutSpec.linearSpec.getVariables().get(i).getValue();
+        return values;
+    }
+
+    public void testSolutionCache() throws Exception {
+        LayoutSpec layoutSpec = createPinWheel();
+        layoutSpec.setSolutionCacheCapacity(2);
+        double[] values = solveSize(layoutSpec, 300, 300);
+        solveSize(layoutSpec, 400, 300);
+        assertEquals(0, layoutSpec.getSolutionCacheHits());
+        assertEquals(2, layoutSpec.getSolutionCacheMisses());
+
+        double[] cachedValues = solveSize(layoutSpec, 300.2, 300);
+        assertEquals(1, layoutSpec.getSolutionCacheHits());
+        for (int i = 0; i < values.length; i++)
+            assertEquals(values[i], cachedValues[i]);
+
+        // 400x300 is the least recently used solution
+        solveSize(layoutSpec, 500, 500);
+        solveSize(layoutSpec, 400, 300);
+        assertEquals(1, layoutSpec.getSolutionCacheHits());
+        assertEquals(4, layoutSpec.getSolutionCacheMisses());
+
+        // other changes clear the cache
+        ((Area)layoutSpec.getAreas().get(0)).setMinSize(50, 50);
+        solveSize(layoutSpec, 500, 500);
+        assertEquals(1, layoutSpec.getSolutionCacheHits());
+        assertEquals(5, layoutSpec.getSolutionCacheMisses());
+    }
+
+    public void testMeasurementCache() throws Exception {
+        final int[] maxSpec = {1000};
+        AbstractViewInfoParser<String> parser = new AbstractViewInfoParser<String>() {
+            @Override
+            protected String getClassName(String component) {
+                return component;
+            }
+
+            @Override
+            protected Area.Size getRootViewSize(String component) {
+                return new Area.Size(1000, 1000);
+            }
+
+            @Override
+            protected Area.Size getLayoutParams(String component) {
+                return new Area.Size(WRAP_CONTENT, WRAP_CONTENT);
+            }
+
+            @Override
+            protected Area.Size getMinSizeRaw(String component) {
+                return new Area.Size(-1, -1);
+            }
+
+            @Override
+            protected Area.Size measure(String component, int widthSpec, int heightSpec) {
+                return new Area.Size(component.length() * 10, 20);
+            }
+
+            @Override
+            protected Area.Size getPreferredSizeRaw(String component) {
+                return getMeasuredSize(component, 0, 0);
+            }
+
+            @Override
+            protected Area.Size getMaxSizeRaw(String component) {
+                return getMeasuredSize(component, maxSpec[0], maxSpec[0]);
+            }
+        };
+
+        String label = "label";
+        // the min size falls back to the preferred size
+        assertFuzzyEqual(50, 20, parser.getMinSize(label, Area.UNDEFINED_SIZE));
+        assertFuzzyEqual(50, 20, parser.getPreferredSize(label, Area.UNDEFINED_SIZE));
+        assertEquals(1, parser.getMeasureCount(label));
+        parser.getMaxSize(label);
+        assertEquals(2, parser.getMeasureCount(label));
+
+        parser.invalidateMeasurements(label);
+        parser.getPreferredSize(label, Area.UNDEFINED_SIZE);
+        assertEquals(3, parser.getMeasureCount(label));
+        assertEquals(3, parser.getMeasureCount());
+
+        // only the most recently used measure specs are kept
+        for (int i = 1; i <= AbstractViewInfoParser.MAX_MEASUREMENTS; i++) {
+            maxSpec[0] = i;
+            parser.getMaxSize(label);
+        }
+        assertEquals(3 + AbstractViewInfoParser.MAX_MEASUREMENTS, parser.getMeasureCount(label));
+        parser.getMaxSize(label);
+        assertEquals(3 + AbstractViewInfoParser.MAX_MEASUREMENTS, parser.getMeasureCount(label));
+        parser.getPreferredSize(label, Area.UNDEFINED_SIZE);
+        assertEquals(4 + AbstractViewInfoParser.MAX_MEASUREMENTS, parser.getMeasureCount(label));
+    }
+
     private IArea createArea(String id) {
         Area area = new Area();
         area.setId(id);
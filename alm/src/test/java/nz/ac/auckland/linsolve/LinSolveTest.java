@@ -9,10 +9,21 @@ package nz.ac.auckland.linsolve;
 
 import junit.framework.TestCase;
 import nz.ac.auckland.alm.*;
+import nz.ac.auckland.linsolve.pivots.DeterministicPivotSummandSelector;
+import nz.ac.auckland.linsolve.rowselection.GreedyRowSelector;
+import nz.ac.auckland.linsolve.rowselection.RandomizedRowSelector;
+import nz.ac.auckland.linsolve.softconstraints.GroupingSoftSolver;
+import nz.ac.auckland.linsolve.softconstraints.IncrementalSoftSolver;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class LinSolveTest extends TestCase {
@@ -51,6 +62,678 @@ public class LinSolveTest extends TestCase {
         assertEquals(0, linearSpec.getConstraints().size());
     }
 
+    public void testCompiledLinearSpec() {
+        LinearSpec linearSpec = new LinearSpec();
+        Variable x1 = new Variable();
+        Variable x2 = new Variable();
+        x1.setValue(2);
+        x2.setValue(5);
+        linearSpec.addConstraint(1, x1, OperatorType.EQ, 2);
+        linearSpec.addConstraint(-1, x1, 1, x2, OperatorType.GE, 10, 0.5);
+
+        CompiledLinearSpec spec = linearSpec.compile();
+        assertEquals(2, spec.getVariableCount());
+        assertEquals(2, spec.getConstraintCount());
+        assertEquals(1, spec.getRowEnd(0) - spec.getRowStart(0));
+        assertEquals(2, spec.getRowEnd(1) - spec.getRowStart(1));
+        assertTrue(spec.isHard(0));
+        assertFalse(spec.isHard(1));
+        assertEquals(CompiledLinearSpec.OP_GE, spec.getOp(1));
+        for (int i = 0; i < spec.getConstraintCount(); i++) {
+            Constraint constraint = linearSpec.getConstraints().get(i);
+            assertEquals(constraint.residual(), spec.residual(i));
+        }
+
+        // project the soft constraint and write the result back
+        spec.project(1, 1);
+        assertEquals(0d, spec.residual(1), 1e-10);
+        assertEquals(5d, x2.getValue());
+        spec.writeBack();
+        assertEquals(0d, linearSpec.getConstraints().get(1).residual(), 1e-10);
+    }
+
+    public void testIndices() {
+        LinearSpec linearSpec = new LinearSpec();
+        Variable x1 = new Variable();
+        Variable x2 = new Variable();
+        Variable x3 = new Variable();
+        Constraint c1 = linearSpec.addConstraint(1, x1, OperatorType.EQ, 2);
+        Constraint c2 = linearSpec.addConstraint(1, x2, OperatorType.EQ, 5, 0.5);
+        Constraint c3 = linearSpec.addConstraint(1, x3, -1, x1, OperatorType.GE, 10);
+        assertEquals(1, x2.getIndex());
+        assertEquals(2, c3.getIndex());
+
+        // the last entry moves into the free slot
+        linearSpec.removeConstraint(c2);
+        assertFalse(linearSpec.contains(c2));
+        assertFalse(linearSpec.contains(x2));
+        assertEquals(-1, c2.getIndex());
+        assertEquals(1, c3.getIndex());
+        assertEquals(1, x3.getIndex());
+        assertSame(x3, linearSpec.getVariables().get(x3.getIndex()));
+
+        // indices are still valid after the list has been reordered from outside
+        Collections.reverse(linearSpec.getConstraints());
+        assertEquals(1, c1.getIndex());
+        assertEquals(0, c3.getIndex());
+        assertFalse(linearSpec.addConstraint(c1));
+    }
+
+    private Constraint addWarmStartTestSpec(LinearSpec linearSpec) {
+        Variable left = new Variable();
+        Variable right = new Variable();
+        linearSpec.addConstraint(1, left, OperatorType.EQ, 0);
+        Constraint rightConstraint = linearSpec.addConstraint(1, right, OperatorType.EQ, 400);
+        Variable x = addInterval(linearSpec, left, 10, 100);
+        x = addInterval(linearSpec, x, 20, 150);
+        linearSpec.addConstraint(1, right, -1, x, OperatorType.GE, 30);
+        linearSpec.addConstraint(1, right, -1, x, OperatorType.EQ, 80, 0.5);
+        return rightConstraint;
+    }
+
+    public void testWarmStart() {
+        ForceSolver warmSolver = new ForceSolver();
+        warmSolver.setWarmStartEnabled(true);
+        LinearSpec warmSpec = new LinearSpec(warmSolver);
+        Constraint warmRight = addWarmStartTestSpec(warmSpec);
+        assertEquals(ResultType.OPTIMAL, warmSpec.solve());
+
+        ForceSolver coldSolver = new ForceSolver();
+        LinearSpec coldSpec = new LinearSpec(coldSolver);
+        Constraint coldRight = addWarmStartTestSpec(coldSpec);
+
+        // only the right side changes, i.e. the second solve can continue from the first solution
+        warmRight.setRightSide(350);
+        coldRight.setRightSide(350);
+        assertEquals(ResultType.OPTIMAL, warmSpec.solve());
+        assertEquals(ResultType.OPTIMAL, coldSpec.solve());
+        // the warm start needs fewer iterations
+        assertTrue(warmSolver.getSolveStats().getOuterIterations()
+                < coldSolver.getSolveStats().getOuterIterations());
+        assertTrue(warmSolver.getSolveStats().getProjections() < coldSolver.getSolveStats().getProjections());
+        for (int i = 0; i < warmSpec.getVariables().size(); i++) {
+            assertEquals(coldSpec.getVariables().get(i).getValue(), warmSpec.getVariables().get(i).getValue(),
+                    0.01);
+        }
+    }
+
+    private Constraint addEqualityTestSpec(LinearSpec linearSpec) {
+        Variable left = new Variable();
+        Variable x = new Variable();
+        Variable right = new Variable();
+        linearSpec.addConstraint(1, left, OperatorType.EQ, 0);
+        Constraint rightConstraint = linearSpec.addConstraint(1, right, OperatorType.EQ, 400);
+        linearSpec.addConstraint(1, x, -1, left, OperatorType.EQ, 100, 0.5);
+        linearSpec.addConstraint(1, right, -1, x, OperatorType.EQ, 100, 0.5);
+        return rightConstraint;
+    }
+
+    public void testOJAlgoWarmStart() {
+        OJAlgoSolver warmSolver = new OJAlgoSolver();
+        warmSolver.setWarmStartEnabled(true);
+        LinearSpec warmSpec = new LinearSpec(warmSolver);
+        Constraint warmRight = addEqualityTestSpec(warmSpec);
+        warmSpec.solve();
+        // x is the third variable
+        assertEquals(200d, warmSpec.getVariables().get(2).getValue(), 0.001);
+
+        // only the right side changes, the factorized system is reused
+        warmRight.setRightSide(600);
+        warmSpec.solve();
+        LinearSpec coldSpec = new LinearSpec(new OJAlgoSolver());
+        addEqualityTestSpec(coldSpec).setRightSide(600);
+        coldSpec.solve();
+        for (int i = 0; i < warmSpec.getVariables().size(); i++) {
+            assertEquals(coldSpec.getVariables().get(i).getValue(), warmSpec.getVariables().get(i).getValue(),
+                    0.001);
+        }
+        assertEquals(300d, warmSpec.getVariables().get(2).getValue(), 0.001);
+    }
+
+    public void testOJAlgoSolverSparse() {
+        LinearSpec ojAlgoSpec = new LinearSpec(new OJAlgoSolverSparse());
+        Constraint ojAlgoRight = addWarmStartTestSpec(ojAlgoSpec);
+        LinearSpec sparseSpec = new LinearSpec(new SparseLeastSquaresSolver());
+        Constraint sparseRight = addWarmStartTestSpec(sparseSpec);
+        // the penalties weight the soft constraints
+        ojAlgoSpec.getConstraints().get(ojAlgoSpec.getConstraints().size() - 1).setPenalty(0.1);
+        sparseSpec.getConstraints().get(sparseSpec.getConstraints().size() - 1).setPenalty(0.1);
+
+        // the second solve reuses the pattern of the objective
+        for (double width : new double[]{350, 300}) {
+            ojAlgoRight.setRightSide(width);
+            sparseRight.setRightSide(width);
+            ojAlgoSpec.solve();
+            assertEquals(ResultType.OPTIMAL, sparseSpec.solve());
+            for (int i = 0; i < sparseSpec.getVariables().size(); i++) {
+                assertEquals(sparseSpec.getVariables().get(i).getValue(), ojAlgoSpec.getVariables().get(i).getValue(),
+                        0.01);
+            }
+        }
+    }
+
+    public void testSparseLeastSquaresSolver() {
+        LinearSpec sparseSpec = new LinearSpec(new SparseLeastSquaresSolver());
+        Constraint sparseRight = addWarmStartTestSpec(sparseSpec);
+        LinearSpec ojAlgoSpec = new LinearSpec(new OJAlgoSolver());
+        Constraint ojAlgoRight = addWarmStartTestSpec(ojAlgoSpec);
+
+        // the second width is so small that the hard minimum sizes become active
+        for (double width : new double[]{350, 70}) {
+            sparseRight.setRightSide(width);
+            ojAlgoRight.setRightSide(width);
+            assertEquals(ResultType.OPTIMAL, sparseSpec.solve());
+            ojAlgoSpec.solve();
+            assertTrue(allHardConstraintsSatisfied(sparseSpec));
+            for (int i = 0; i < sparseSpec.getVariables().size(); i++) {
+                assertEquals(ojAlgoSpec.getVariables().get(i).getValue(), sparseSpec.getVariables().get(i).getValue(),
+                        0.001);
+            }
+        }
+    }
+
+    public void testActiveSetSolver() {
+        ActiveSetSolver solver = new ActiveSetSolver();
+        solver.setWarmStartEnabled(true);
+        LinearSpec activeSetSpec = new LinearSpec(solver);
+        Constraint activeSetRight = addWarmStartTestSpec(activeSetSpec);
+        LinearSpec ojAlgoSpec = new LinearSpec(new OJAlgoSolver());
+        Constraint ojAlgoRight = addWarmStartTestSpec(ojAlgoSpec);
+
+        // the minimum sizes become active
+        for (double width : new double[]{70, 72}) {
+            activeSetRight.setRightSide(width);
+            ojAlgoRight.setRightSide(width);
+            assertEquals(ResultType.OPTIMAL, activeSetSpec.solve());
+            ojAlgoSpec.solve();
+            for (int i = 0; i < activeSetSpec.getVariables().size(); i++) {
+                assertEquals(ojAlgoSpec.getVariables().get(i).getValue(),
+                        activeSetSpec.getVariables().get(i).getValue(), 0.001);
+            }
+        }
+        // the second solve started from the final active set of the first one
+        assertEquals(0, solver.getActiveSetChanges());
+    }
+
+    public void testConnectedComponents() throws Exception {
+        LinearSpec sequentialSpec = new LinearSpec(new KaczmarzSolver());
+        addWarmStartTestSpec(sequentialSpec);
+        addWarmStartTestSpec(sequentialSpec);
+        ConnectedComponents components = sequentialSpec.getConnectedComponents();
+        assertEquals(2, components.getComponentCount());
+        assertEquals(sequentialSpec.getConstraints().size(),
+                components.getRows(0).length + components.getRows(1).length);
+        assertSame(components, sequentialSpec.getConnectedComponents());
+
+        KaczmarzSolver solver = new KaczmarzSolver();
+        solver.setDecompositionEnabled(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        solver.setExecutor(executor);
+        LinearSpec parallelSpec = new LinearSpec(solver);
+        addWarmStartTestSpec(parallelSpec);
+        addWarmStartTestSpec(parallelSpec);
+        try {
+            assertEquals(sequentialSpec.solve(), parallelSpec.solve());
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < sequentialSpec.getVariables().size(); i++) {
+            assertEquals(sequentialSpec.getVariables().get(i).getValue(), parallelSpec.getVariables().get(i).getValue(),
+                    0.1);
+        }
+
+        // a new constraint connects the components
+        sequentialSpec.addConstraint(1, sequentialSpec.getVariables().get(1), -1,
+                sequentialSpec.getVariables().get(sequentialSpec.getVariables().size() - 1), OperatorType.EQ, 0);
+        assertEquals(1, sequentialSpec.getConnectedComponents().getComponentCount());
+    }
+
+    public void testParallelKaczmarzSolver() {
+        LinearSpec sequentialSpec = new LinearSpec(new KaczmarzSolver());
+        addEqualityTestSpec(sequentialSpec).setRightSide(200);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ParallelKaczmarzSolver solver = new ParallelKaczmarzSolver(executor, 2);
+        // project every color in parallel
+        solver.setMinParallelRows(1);
+        LinearSpec parallelSpec = new LinearSpec(solver);
+        addEqualityTestSpec(parallelSpec).setRightSide(200);
+        try {
+            assertEquals(ResultType.OPTIMAL, sequentialSpec.solve());
+            assertEquals(ResultType.OPTIMAL, parallelSpec.solve());
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < sequentialSpec.getVariables().size(); i++) {
+            assertEquals(sequentialSpec.getVariables().get(i).getValue(), parallelSpec.getVariables().get(i).getValue(),
+                    0.1);
+        }
+        assertEquals(100d, parallelSpec.getVariables().get(2).getValue(), 0.1);
+    }
+
+    public void testConvergenceCheckInterval() {
+        KaczmarzSolver solver = new KaczmarzSolver();
+        LinearSpec linearSpec = new LinearSpec(solver);
+        addEqualityTestSpec(linearSpec).setRightSide(200);
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        double x = linearSpec.getVariables().get(1).getValue();
+
+        KaczmarzSolver intervalSolver = new KaczmarzSolver();
+        intervalSolver.setConvergenceCheckInterval(4);
+        LinearSpec intervalSpec = new LinearSpec(intervalSolver);
+        addEqualityTestSpec(intervalSpec).setRightSide(200);
+        assertEquals(ResultType.OPTIMAL, intervalSpec.solve());
+        assertEquals(0, intervalSolver.getSolveStats().getOuterIterations() % 4);
+        assertTrue(intervalSolver.getSolveStats().getOuterIterations() >= solver.getSolveStats().getOuterIterations());
+        assertTrue(intervalSpec.getMaxConstraintError() <= KaczmarzSolver.DEFAULT_TOLERANCE);
+        assertEquals(x, intervalSpec.getVariables().get(1).getValue(), 0.1);
+    }
+
+    private LinearSpec createChainSpec(AbstractLinearSolver solver, int length) {
+        LinearSpec linearSpec = new LinearSpec(solver);
+        Variable left = new Variable();
+        linearSpec.addConstraint(1, left, OperatorType.EQ, 0);
+        Variable x = left;
+        for (int i = 0; i < length; i++)
+            x = addInterval(linearSpec, x, 10, 50);
+        linearSpec.addConstraint(1, x, OperatorType.EQ, length * 50);
+        return linearSpec;
+    }
+
+    public void testAcceleration() {
+        KaczmarzSolver solver = new KaczmarzSolver();
+        LinearSpec linearSpec = createChainSpec(solver, 20);
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+
+        KaczmarzSolver acceleratedSolver = new KaczmarzSolver();
+        acceleratedSolver.setAccelerationEnabled(true);
+        LinearSpec acceleratedSpec = createChainSpec(acceleratedSolver, 20);
+        assertEquals(ResultType.OPTIMAL, acceleratedSpec.solve());
+        assertTrue(acceleratedSolver.getSolveStats().getOuterIterations() * 3
+                < solver.getSolveStats().getOuterIterations());
+        for (int i = 0; i < linearSpec.getVariables().size(); i++) {
+            assertEquals(linearSpec.getVariables().get(i).getValue(),
+                    acceleratedSpec.getVariables().get(i).getValue(), 0.1);
+        }
+
+        GaussSeidelSolver gaussSeidelSolver = new GaussSeidelSolver(new DeterministicPivotSummandSelector(), 500);
+        gaussSeidelSolver.setAccelerationEnabled(true);
+        LinearSpec gaussSeidelSpec = createChainSpec(gaussSeidelSolver, 20);
+        assertEquals(ResultType.OPTIMAL, gaussSeidelSpec.solve());
+        assertEquals(1000, gaussSeidelSpec.getVariables().get(20).getValue(), 0.1);
+    }
+
+    public void testRowSelectors() {
+        KaczmarzSolver solver = new KaczmarzSolver();
+        LinearSpec linearSpec = createChainSpec(solver, 10);
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+
+        KaczmarzSolver greedySolver = new KaczmarzSolver();
+        greedySolver.setRowSelector(new GreedyRowSelector());
+        LinearSpec greedySpec = createChainSpec(greedySolver, 10);
+        assertEquals(ResultType.OPTIMAL, greedySpec.solve());
+        assertTrue(greedySolver.getSolveStats().getProjections() < solver.getSolveStats().getProjections());
+        for (int i = 0; i < linearSpec.getVariables().size(); i++) {
+            assertEquals(linearSpec.getVariables().get(i).getValue(), greedySpec.getVariables().get(i).getValue(),
+                    0.1);
+        }
+
+        KaczmarzSolver randomizedSolver = new KaczmarzSolver();
+        randomizedSolver.setRowSelector(new RandomizedRowSelector(1));
+        LinearSpec randomizedSpec = createChainSpec(randomizedSolver, 10);
+        assertEquals(ResultType.OPTIMAL, randomizedSpec.solve());
+        assertTrue(randomizedSpec.getMaxConstraintError() <= KaczmarzSolver.DEFAULT_TOLERANCE);
+    }
+
+    private LinearSpec createConflictingChainSpec(AbstractLinearSolver solver, int length) {
+        LinearSpec linearSpec = new LinearSpec(solver);
+        Variable left = new Variable();
+        linearSpec.addConstraint(1, left, OperatorType.EQ, 0);
+        Variable x = left;
+        for (int i = 0; i < length; i++) {
+            Variable next = new Variable();
+            linearSpec.addConstraint(1, next, -1, x, OperatorType.GE, 10);
+            // the preferred sizes do not fit, the ones with the lowest penalty have to be dropped
+            linearSpec.addConstraint(1, next, -1, x, OperatorType.EQ, 50, 0.5 - i * 0.01);
+            x = next;
+        }
+        linearSpec.addConstraint(1, x, OperatorType.EQ, length * 40);
+        return linearSpec;
+    }
+
+    public void testIncrementalSoftSolver() {
+        LinearSpec groupingSpec = createConflictingChainSpec(new GroupingSoftSolver(new KaczmarzSolver()), 10);
+        assertEquals(ResultType.OPTIMAL, groupingSpec.solve());
+
+        IncrementalSoftSolver solver = new IncrementalSoftSolver(new KaczmarzSolver());
+        LinearSpec linearSpec = createConflictingChainSpec(solver, 10);
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        assertTrue(solver.getConflictCount() > 0);
+        assertTrue(solver.getLocalSolveCount() < linearSpec.getConstraints().size());
+        // both strategies drop the same constraints
+        for (int i = 0; i < linearSpec.getConstraints().size(); i++) {
+            Constraint constraint = linearSpec.getConstraints().get(i);
+            assertEquals(groupingSpec.getConstraints().get(i).isEnabled(), constraint.isEnabled());
+            if (!constraint.isEnabled())
+                assertTrue(constraint.getPenalty() < 0.5);
+        }
+        assertTrue(linearSpec.getMaxConstraintError() <= KaczmarzSolver.DEFAULT_TOLERANCE);
+
+        // constraints disabled by the user stay disabled, the conflicting ones are tried again
+        Constraint userDisabled = null;
+        for (Constraint constraint : linearSpec.getConstraints()) {
+            if (constraint.getLeftSide().length == 1 && constraint.getRightSide() == 400)
+                userDisabled = constraint;
+        }
+        userDisabled.setEnabled(false);
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        assertFalse(userDisabled.isEnabled());
+        assertEquals(0, solver.getConflictCount());
+        for (Constraint constraint : linearSpec.getConstraints())
+            assertEquals(constraint != userDisabled, constraint.isEnabled());
+    }
+
+    public void testIncrementalSoftSolverLongChain() {
+        // consistent, but the incremental sweeps converge too slowly on a long chain
+        final int length = 150;
+        IncrementalSoftSolver solver = new IncrementalSoftSolver(new KaczmarzSolver());
+        LinearSpec linearSpec = new LinearSpec(solver);
+        Variable left = new Variable();
+        linearSpec.addConstraint(1, left, OperatorType.EQ, 0);
+        Variable x = left;
+        for (int i = 0; i < length; i++) {
+            Variable next = new Variable();
+            linearSpec.addConstraint(1, next, -1, x, OperatorType.EQ, 10, 0.5);
+            x = next;
+        }
+        linearSpec.addConstraint(1, x, OperatorType.EQ, length * 10, 0.5);
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        assertEquals(0, solver.getConflictCount());
+        assertTrue(solver.getDirectSolveCount() > 0);
+        assertEquals(length * 10, x.getValue(), 0.1);
+    }
+
+    private LinearSpec createAliasedChainSpec(AbstractLinearSolver solver, int length) {
+        LinearSpec linearSpec = createChainSpec(solver, length);
+        // alias every tab to a second tab and duplicate the min size constraints of the aliases
+        List<Variable> tabs = new ArrayList<Variable>(linearSpec.getVariables());
+        for (int i = 1; i < tabs.size(); i++) {
+            Variable alias = new Variable();
+            linearSpec.addConstraint(1, alias, -1, tabs.get(i), OperatorType.EQ, 0);
+            linearSpec.addConstraint(1, alias, -1, tabs.get(i - 1), OperatorType.GE, 5);
+        }
+        return linearSpec;
+    }
+
+    public void testPresolve() {
+        SparseLeastSquaresSolver solver = new SparseLeastSquaresSolver();
+        LinearSpec linearSpec = createAliasedChainSpec(solver, 10);
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+
+        SparseLeastSquaresSolver presolvingSolver = new SparseLeastSquaresSolver();
+        LinearSpec presolvedSpec = createAliasedChainSpec(presolvingSolver, 10);
+        presolvingSolver.presolve();
+        PresolvedSpec model = presolvingSolver.getPresolvedSpec();
+        assertNotNull(model);
+        // the fixed ends and the aliases are eliminated, the duplicated min sizes are merged
+        assertEquals(presolvedSpec.getVariables().size(), model.getOriginalVariableCount());
+        assertEquals(9, model.getVariables().size());
+        assertEquals(20, model.getConstraints().size());
+
+        assertEquals(ResultType.OPTIMAL, presolvedSpec.solve());
+        assertSame(model, presolvingSolver.getPresolvedSpec());
+        for (int i = 0; i < linearSpec.getVariables().size(); i++) {
+            assertEquals(linearSpec.getVariables().get(i).getValue(),
+                    presolvedSpec.getVariables().get(i).getValue(), 0.01);
+        }
+
+        // a change invalidates the model
+        presolvedSpec.getConstraints().get(0).setRightSide(10);
+        assertFalse(model.isValid());
+        assertEquals(ResultType.OPTIMAL, presolvedSpec.solve());
+        assertEquals(10, presolvedSpec.getVariables().get(0).getValue(), 0.01);
+    }
+
+    public void testPresolveViolatedConstant() {
+        KaczmarzSolver solver = new KaczmarzSolver();
+        LinearSpec linearSpec = new LinearSpec(solver);
+        Variable x = new Variable();
+        Variable y = new Variable();
+        linearSpec.addConstraint(1, x, OperatorType.EQ, 0);
+        linearSpec.addConstraint(1, y, OperatorType.EQ, 50);
+        // becomes the constant 50 >= 100 after substitution
+        linearSpec.addConstraint(1, y, -1, x, OperatorType.GE, 100);
+        assertEquals(ResultType.SUBOPTIMAL, linearSpec.solve());
+        double xValue = x.getValue();
+        double yValue = y.getValue();
+
+        KaczmarzSolver presolvingSolver = new KaczmarzSolver();
+        LinearSpec presolvedSpec = new LinearSpec(presolvingSolver);
+        Variable presolvedX = new Variable();
+        Variable presolvedY = new Variable();
+        presolvedSpec.addConstraint(1, presolvedX, OperatorType.EQ, 0);
+        presolvedSpec.addConstraint(1, presolvedY, OperatorType.EQ, 50);
+        presolvedSpec.addConstraint(1, presolvedY, -1, presolvedX, OperatorType.GE, 100);
+        presolvingSolver.presolve();
+        assertNull(presolvingSolver.getPresolvedSpec());
+        assertEquals(ResultType.SUBOPTIMAL, presolvedSpec.solve());
+        assertEquals(xValue, presolvedX.getValue(), 0.01);
+        assertEquals(yValue, presolvedY.getValue(), 0.01);
+
+        // a satisfied constant row is still dropped
+        presolvedSpec.getConstraints().get(2).setRightSide(20);
+        assertEquals(ResultType.OPTIMAL, presolvedSpec.solve());
+        assertNotNull(presolvingSolver.getPresolvedSpec());
+        assertEquals(0, presolvingSolver.getPresolvedSpec().getConstraints().size());
+    }
+
+    public void testSnapshot() throws Exception {
+        SparseLeastSquaresSolver solver = new SparseLeastSquaresSolver();
+        LinearSpec linearSpec = createChainSpec(solver, 10);
+        final LinearSpecSnapshot snapshot = linearSpec.snapshot();
+        // solve the snapshot for two right sides of the last constraint concurrently
+        Constraint last = linearSpec.getConstraints().get(linearSpec.getConstraints().size() - 1);
+        final LinearSpecSnapshot wideSnapshot = snapshot.withRightSide(last, 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<Solution>> futures = executor.invokeAll(Arrays.<Callable<Solution>>asList(
+                new Callable<Solution>() {
+                    @Override
+                    public Solution call() throws Exception {
+                        return new SparseLeastSquaresSolver().solve(snapshot);
+                    }
+                },
+                new Callable<Solution>() {
+                    @Override
+                    public Solution call() throws Exception {
+                        return new ActiveSetSolver().solve(wideSnapshot);
+                    }
+                }));
+        executor.shutdown();
+        Solution solution = futures.get(0).get();
+        Solution wideSolution = futures.get(1).get();
+        assertEquals(ResultType.OPTIMAL, solution.getResult());
+        assertEquals(ResultType.OPTIMAL, wideSolution.getResult());
+        // the variables are not touched until a solution is applied
+        for (Variable variable : linearSpec.getVariables())
+            assertTrue(Double.isNaN(variable.getValue()));
+
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        for (Variable variable : linearSpec.getVariables())
+            assertEquals(variable.getValue(), solution.getValue(variable), 0.01);
+        Variable right = last.getLeftSide()[0].getVar();
+        assertEquals(1000, wideSolution.getValue(right), 0.01);
+        wideSolution.apply();
+        assertEquals(1000, right.getValue(), 0.01);
+    }
+
+    public void testDeadline() {
+        ForceSolver solver = new ForceSolver();
+        LinearSpec linearSpec = createChainSpec(solver, 5);
+        // the deadline passes during the first iteration
+        assertEquals(ResultType.BESTEFFORT, linearSpec.solve(System.nanoTime()));
+        assertTrue(linearSpec.getMaxHardConstraintError() <= linearSpec.getTolerance());
+        int interruptedIterations = solver.getSolveStats().getOuterIterations();
+
+        // the next solve continues
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        ForceSolver uninterruptedSolver = new ForceSolver();
+        LinearSpec uninterruptedSpec = createChainSpec(uninterruptedSolver, 5);
+        assertEquals(ResultType.OPTIMAL, uninterruptedSpec.solve());
+        assertTrue(interruptedIterations + solver.getSolveStats().getOuterIterations()
+                <= uninterruptedSolver.getSolveStats().getOuterIterations() + 1);
+
+        KaczmarzSolver kaczmarzSolver = new KaczmarzSolver();
+        LinearSpec kaczmarzSpec = createConflictingChainSpec(kaczmarzSolver, 20);
+        assertEquals(ResultType.TIMEOUT, kaczmarzSpec.solve(System.nanoTime()));
+    }
+
+    public void testSolveStats() {
+        ForceSolver solver = new ForceSolver();
+        final List<SolveStats> finishedStats = new ArrayList<SolveStats>();
+        final int[] iterations = {0};
+        solver.addListener(new AbstractLinearSolver.IListener() {
+            @Override
+            public void onSolveFinished(AbstractLinearSolver solver, SolveStats stats) {
+                finishedStats.add(stats);
+            }
+        });
+        solver.setIterationListener(new AbstractLinearSolver.IIterationListener() {
+            @Override
+            public void onIteration(int iteration, double residual) {
+                assertEquals(iterations[0], iteration);
+                iterations[0]++;
+            }
+        });
+        LinearSpec linearSpec = new LinearSpec(solver);
+        addWarmStartTestSpec(linearSpec);
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+
+        assertEquals(1, finishedStats.size());
+        SolveStats stats = finishedStats.get(0);
+        assertSame(stats, solver.getSolveStats());
+        assertEquals(ResultType.OPTIMAL, stats.getResult());
+        assertEquals(iterations[0], stats.getOuterIterations());
+        assertTrue(stats.getOuterIterations() > 0);
+        assertTrue(stats.getProjections() > 0);
+        assertTrue(stats.getTotalTime() >= stats.getSoftPhaseTime() + stats.getHardPhaseTime());
+        assertEquals(linearSpec.getMaxHardConstraintError(), stats.getMaxHardError());
+        assertEquals(linearSpec.getMaxSoftConstraintError(), stats.getMaxSoftError());
+    }
+
+    public void testForceSolverAllocation() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean threadBean
+                = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        ForceSolver solver = new ForceSolver();
+        solver.setWarmStartEnabled(true);
+        LinearSpec linearSpec = new LinearSpec(solver);
+        linearSpec.setTolerance(1e-6);
+        Variable left = new Variable();
+        Variable right = new Variable();
+        linearSpec.addConstraint(1, left, OperatorType.EQ, 0);
+        Constraint rightConstraint = linearSpec.addConstraint(1, right, OperatorType.EQ, 400);
+        Variable x = left;
+        for (int i = 0; i < 20; i++)
+            x = addInterval(linearSpec, x, 5, 20);
+        linearSpec.addConstraint(1, right, -1, x, OperatorType.GE, 0);
+        linearSpec.solve();
+        linearSpec.solve();
+
+        // warm solves only allocate a constant amount, e.g. the solve stats, independent of the iterations
+        for (int width = 401; width < 405; width++) {
+            rightConstraint.setRightSide(width);
+            long allocatedBytes = threadBean.getThreadAllocatedBytes(threadId);
+            assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+            allocatedBytes = threadBean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+            assertTrue(solver.getSolveStats().getOuterIterations() > 1);
+            assertTrue("allocated bytes: " + allocatedBytes, allocatedBytes < 1024);
+        }
+    }
+
+    public void testChangeJournal() {
+        KaczmarzSolver solver = new KaczmarzSolver();
+        solver.setWarmStartEnabled(true);
+        LinearSpec linearSpec = new LinearSpec(solver);
+        Variable x1 = new Variable();
+        Variable x2 = new Variable();
+        Variable y1 = new Variable();
+        Constraint c1 = linearSpec.addConstraint(1, x1, OperatorType.EQ, 10);
+        Constraint c2 = linearSpec.addConstraint(1, x2, -1, x1, OperatorType.EQ, 20);
+        Constraint c3 = linearSpec.addConstraint(1, y1, OperatorType.EQ, 5);
+        ChangeJournal journal = linearSpec.getChangeJournal();
+        assertEquals(ChangeJournal.ADDED, journal.getChanges(c1));
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        assertEquals(0, journal.getChanges(c1));
+
+        long version = journal.getVersion();
+        c1.setRightSide(20);
+        assertEquals(ChangeJournal.RIGHT_SIDE, journal.getChanges(c1));
+        assertFalse(journal.hasStructuralChanges(version));
+        List<Constraint> affected = journal.getAffectedConstraints(version);
+        assertEquals(2, affected.size());
+        assertTrue(affected.contains(c1));
+        assertTrue(affected.contains(c2));
+        assertFalse(affected.contains(c3));
+
+        // the warm start only re-solves the affected constraints
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        assertEquals(20d, x1.getValue(), 0.01);
+        assertEquals(40d, x2.getValue(), 0.01);
+        assertEquals(5d, y1.getValue(), 0.01);
+
+        version = journal.getVersion();
+        linearSpec.removeConstraint(c3);
+        assertTrue(journal.hasStructuralChanges(version));
+    }
+
+    public void testUpdate() {
+        final int[] updates = new int[1];
+        final int[] notifications = new int[1];
+        LinearSpec linearSpec = new LinearSpec(new ActiveSetSolver() {
+            @Override
+            public void update(Constraint c) {
+                updates[0]++;
+            }
+        });
+        linearSpec.addConstraintListener(new LinearSpec.IConstraintListener() {
+            @Override
+            public void onConstraintChanged(Constraint constraint, int change) {
+                notifications[0]++;
+            }
+        });
+        Variable x1 = new Variable();
+        Variable x2 = new Variable();
+        Constraint c1 = linearSpec.addConstraint(1, x1, OperatorType.EQ, 10);
+        Constraint c2 = linearSpec.addConstraint(1, x2, -1, x1, OperatorType.GE, 20);
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        notifications[0] = 0;
+
+        linearSpec.beginUpdate();
+        for (int i = 0; i < 10; i++) {
+            linearSpec.beginUpdate();
+            c1.setRightSide(i);
+            c2.setPenalty(0.5);
+            c2.setPenalty(Constraint.MAX_PENALTY);
+            linearSpec.endUpdate();
+        }
+        Constraint c3 = linearSpec.addConstraint(1, x2, OperatorType.LE, 100);
+        assertEquals(0, updates[0]);
+        assertEquals(0, notifications[0]);
+        // the journal is up to date during the update
+        assertEquals(ChangeJournal.RIGHT_SIDE, linearSpec.getChangeJournal().getChanges(c1));
+        linearSpec.endUpdate();
+        assertFalse(linearSpec.isUpdating());
+        assertEquals(2, updates[0]);
+        assertEquals(3, notifications[0]);
+
+        assertEquals(ResultType.OPTIMAL, linearSpec.solve());
+        assertEquals(9d, x1.getValue(), 0.01);
+        assertTrue(x2.getValue() - x1.getValue() >= 20 - 0.01);
+        assertTrue(linearSpec.contains(c3));
+    }
+
     private Variable addInterval(LinearSpec linearSpec, Variable start, double min, double pref) {
         Variable next = new Variable();
         linearSpec.addConstraint(1, next, -1, start, OperatorType.GE, min);
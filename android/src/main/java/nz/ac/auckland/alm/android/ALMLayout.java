@@ -246,11 +246,17 @@ public class ALMLayout extends ViewGroup implements IALMLayoutSpecs {
             return size;
         }
 
-        private Area.Size measureSizeAtMost(View view, int width, int Height, int mode) {
-            view.measure(MeasureSpec.makeMeasureSpec(width, mode), MeasureSpec.makeMeasureSpec(Height, mode));
+        @Override
+        protected Area.Size measure(View view, int widthSpec, int heightSpec) {
+            view.measure(widthSpec, heightSpec);
             return new Area.Size(view.getMeasuredWidth(), view.getMeasuredHeight());
         }
 
+        private Area.Size measureSizeAtMost(View view, int width, int Height, int mode) {
+            return getMeasuredSize(view, MeasureSpec.makeMeasureSpec(width, mode),
+                    MeasureSpec.makeMeasureSpec(Height, mode));
+        }
+
         @Override
         protected Area.Size getPreferredSizeRaw(View view) {
             return measureSizeAtMost(view, 0, 0, MeasureSpec.UNSPECIFIED);
@@ -366,6 +372,36 @@ public class ALMLayout extends ViewGroup implements IALMLayoutSpecs {
         }
     }
 
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // Children that requested a new layout since the last pass have to be measured again. This can't be done in
+        // requestLayout() since a request of a child does not reach this layout if a layout has already been requested.
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child.isLayoutRequested())
+                viewInfoParser.invalidateMeasurements(child);
+        }
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    }
+
+    @Override
+    public void updateViewLayout(View view, ViewGroup.LayoutParams params) {
+        viewInfoParser.invalidateMeasurements(view);
+        super.updateViewLayout(view, params);
+    }
+
+    /**
+     * Gets how often a child has been measured since the last resetMeasureCounts(). Measurements are cached, i.e. a
+     * child is measured at most once per layout pass.
+     */
+    public int getMeasureCount(View child) {
+        return viewInfoParser.getMeasureCount(child);
+    }
+
+    public void resetMeasureCounts() {
+        viewInfoParser.resetMeasureCounts();
+    }
+
     @Override
     public void addView(View child, int index, ViewGroup.LayoutParams params) {
         super.addView(child, index, params);
@@ -390,6 +426,15 @@ public class ALMLayout extends ViewGroup implements IALMLayoutSpecs {
 
     private void rebuildLayoutSpecs() {
         layoutSpecsNeedRebuild = false;
+        layoutSpec.beginUpdate();
+        try {
+            buildLayoutSpecs();
+        } finally {
+            layoutSpec.endUpdate();
+        }
+    }
+
+    private void buildLayoutSpecs() {
         layoutSpec.clear();
         areaMap.clear();
 